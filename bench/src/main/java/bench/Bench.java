@@ -0,0 +1,84 @@
+package bench;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import dsl.Query;
+import dsl.Sink;
+import ecg.IteratorECG;
+
+// Helpers shared by the benchmarks.
+
+final class Bench {
+
+	static final int BATCH_SIZE = 256;
+
+	private Bench() {
+
+	}
+
+	// The data/ directory of the project: -Decg.data=... or ../data (when
+	// running from bench/) or data (when running from the project root).
+	static String dataDir() {
+		String dir = System.getProperty("ecg.data");
+		if (dir != null) {
+			return dir;
+		}
+		for (String candidate : new String[] {"../data/", "data/"}) {
+			if (new File(candidate, "100.csv").exists()) {
+				return new File(candidate).getAbsolutePath() + File.separator;
+			}
+		}
+		return "../data/";
+	}
+
+	static Integer[] load(String file) {
+		try {
+			List<Integer> samples = new ArrayList<>();
+			IteratorECG it = new IteratorECG(dataDir() + file);
+			while (it.hasNext()) {
+				samples.add(it.next());
+			}
+			return samples.toArray(new Integer[0]);
+		} catch (FileNotFoundException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// 1, 2, ..., n (boxed once, outside of the measurement)
+	static Integer[] ints(int n) {
+		Integer[] items = new Integer[n];
+		for (int i=0; i<n; i++) {
+			items[i] = i + 1;
+		}
+		return items;
+	}
+
+	// Runs the query over the items like Q.execute, without the report.
+	static <A,B> void run(Query<A,B> q, A[] items, Sink<B> sink) {
+		q.start(sink);
+		for (int from=0; from<items.length; from+=BATCH_SIZE) {
+			q.nextBatch(items, from, Math.min(items.length, from + BATCH_SIZE), sink);
+		}
+		q.end(sink);
+	}
+
+	static <A> Sink<A> sink(Blackhole bh) {
+		return new Sink<A>() {
+			@Override
+			public void next(A item) {
+				bh.consume(item);
+			}
+			@Override
+			public void end() {
+				bh.consume(true);
+			}
+		};
+	}
+
+}
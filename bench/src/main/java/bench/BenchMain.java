@@ -0,0 +1,25 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Entry point of benchmarks.jar: the JMH command line, plus the GC
+// profiler (allocation rate and bytes per operation) and the location of
+// the data/ directory for the forked JVMs.
+
+public class BenchMain {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cli = new CommandLineOptions(args);
+		Options options = new OptionsBuilder()
+			.parent(cli)
+			.addProfiler(GCProfiler.class)
+			.jvmArgsAppend("-Decg.data=" + Bench.dataDir())
+			.build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,183 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dsl.*;
+import utils.Or;
+
+// Every Q combinator over 100,000 preboxed integers.
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CombinatorBench {
+
+	private static final int N = 100_000;
+
+	private Integer[] items;
+	private Double[] doubles;
+	private Query<Integer,Long> filterMapFold;
+	private Query<Integer,Long> filterMapFoldCompiled;
+
+	private static Query<Integer,Long> filterMapFold() {
+		return Q.pipeline(
+			Q.filter((Integer x) -> x % 2 == 0),
+			Q.map((Integer x) -> (long) x * 3),
+			Q.fold(0L, (Long s, Long x) -> s + x));
+	}
+
+	@Setup
+	public void setup() {
+		items = Bench.ints(N);
+		doubles = new Double[N];
+		for (int i=0; i<N; i++) {
+			doubles[i] = (double) items[i];
+		}
+		filterMapFold = filterMapFold();
+		filterMapFoldCompiled = Q.compile(filterMapFold());
+	}
+
+	@Benchmark
+	public void id(Blackhole bh) {
+		Bench.run(Q.<Integer>id(), items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void dup(Blackhole bh) {
+		Bench.run(Q.<Integer>dup(), items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void ignore(Blackhole bh) {
+		Bench.run(Q.<Integer>ignore(10), items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void emit(Blackhole bh) {
+		Bench.run(Q.emit(10, 0), items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void map(Blackhole bh) {
+		Bench.run(Q.map((Integer x) -> x + 1), items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void filter(Blackhole bh) {
+		Bench.run(Q.filter((Integer x) -> x % 2 == 0), items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void fold(Blackhole bh) {
+		Bench.run(Q.fold(0L, (Long s, Integer x) -> s + x), items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void foldAvg(Blackhole bh) {
+		Bench.run(Q.foldAvg(), doubles, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void foldStdev(Blackhole bh) {
+		Bench.run(Q.foldStdev(), doubles, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void scan(Blackhole bh) {
+		Bench.run(Q.scan(0L, (Long s, Integer x) -> s + x), items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void sWindow2(Blackhole bh) {
+		Bench.run(Q.sWindow2((Integer x, Integer y) -> y - x), items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void sWindow3(Blackhole bh) {
+		Bench.run(Q.sWindow3((Integer x, Integer y, Integer z) -> x + y + z), items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void pipeline(Blackhole bh) {
+		Query<Integer,Long> q = Q.pipeline(
+			Q.map((Integer x) -> x * 3),
+			Q.filter((Integer x) -> x % 2 == 0),
+			Q.scan(0L, (Long s, Integer x) -> s + x));
+		Bench.run(q, items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void filterMapFold(Blackhole bh) {
+		Bench.run(filterMapFold, items, Bench.sink(bh));
+	}
+
+	// The same chain after Q.compile.
+	@Benchmark
+	public void filterMapFoldCompiled(Blackhole bh) {
+		Bench.run(filterMapFoldCompiled, items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void parallel(Blackhole bh) {
+		Query<Integer,Integer> q = Q.parallel(
+			Q.map((Integer x) -> x * 3),
+			Q.sWindow2((Integer x, Integer y) -> y - x),
+			(Integer x, Integer y) -> x + y);
+		Bench.run(q, items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void loop(Blackhole bh) {
+		// The fed-back outputs are dropped by the filter.
+		Query<Or<Integer,Integer>,Integer> body = Q.pipeline(
+			Q.filter((Or<Integer,Integer> o) -> o.isLeft()),
+			Q.map((Or<Integer,Integer> o) -> o.getLeft() + 1));
+		Bench.run(Q.loop(body), items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void parallelAsync(Blackhole bh) {
+		Query<Integer,Integer> q = Q.parallelAsync(
+			Q.map((Integer x) -> x * 3),
+			Q.sWindow2((Integer x, Integer y) -> y - x),
+			(Integer x, Integer y) -> x + y,
+			AsyncConfig.defaults());
+		Bench.run(q, items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void partition(Blackhole bh) {
+		Query<Integer,Long> q = Q.partition((Integer x) -> x % 64, 2,
+			() -> Q.scan(0L, (Long s, Integer x) -> s + x));
+		Bench.run(q, items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void intPipeline(Blackhole bh) {
+		IntQuery<LongSink> q = Q.pipeline(
+			Q.intMap(x -> x * 3),
+			Q.pipeline(Q.intFilter(x -> x % 2 == 0), Q.intScan(0L, Long::sum)));
+		LongSink sink = new LongSink() {
+			@Override
+			public void next(long item) {
+				bh.consume(item);
+			}
+			@Override
+			public void end() {
+
+			}
+		};
+		q.start(sink);
+		for (int i=1; i<=N; i++) {
+			q.next(i, sink);
+		}
+		q.end(sink);
+	}
+
+}
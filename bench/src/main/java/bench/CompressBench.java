@@ -0,0 +1,83 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import compress.Compress;
+import dsl.Query;
+import dsl.Sink;
+
+// The compression codecs over 100.csv (as bytes, see Compress). The
+// codecs that are not implemented yet fail in the setup.
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressBench {
+
+	@Param({"delta", "zigzag", "pack", "compress"})
+	public String codec;
+
+	private Integer[] samples;
+	private Integer[] encoded;
+
+	private static Query<Integer,Integer> encoder(String codec) {
+		switch (codec) {
+			case "delta": return Compress.delta();
+			case "zigzag": return Compress.zigzag();
+			case "pack": return Compress.pack();
+			default: return Compress.compress();
+		}
+	}
+
+	private static Query<Integer,Integer> decoder(String codec) {
+		switch (codec) {
+			case "delta": return Compress.deltaInv();
+			case "zigzag": return Compress.zigzagInv();
+			case "pack": return Compress.unpack();
+			default: return Compress.decompress();
+		}
+	}
+
+	@Setup
+	public void setup() {
+		Objects.requireNonNull(encoder(codec), codec + " is not implemented");
+		Objects.requireNonNull(decoder(codec), codec + " (inverse) is not implemented");
+		Integer[] raw = Bench.load("100.csv");
+		samples = new Integer[raw.length];
+		for (int i=0; i<raw.length; i++) {
+			samples[i] = raw[i] & 0xFF;
+		}
+		List<Integer> out = new ArrayList<>();
+		Bench.run(encoder(codec), samples, new Sink<Integer>() {
+			@Override
+			public void next(Integer item) {
+				out.add(item);
+			}
+			@Override
+			public void end() {
+
+			}
+		});
+		encoded = out.toArray(new Integer[0]);
+	}
+
+	@Benchmark
+	public void encode(Blackhole bh) {
+		Bench.run(encoder(codec), samples, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void decode(Blackhole bh) {
+		Bench.run(decoder(codec), encoded, Bench.sink(bh));
+	}
+
+}
@@ -0,0 +1,49 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ecg.HeartRate;
+import ecg.PeakDetection;
+
+// The ECG queries over the files in data/. The samples are parsed once in
+// the setup, so the numbers do not include reading the CSV files. The
+// forks run with -Decg.quiet=true, which turns off the printing in Detect.
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Decg.quiet=true")
+@State(Scope.Benchmark)
+public class EcgBench {
+
+	@Param({"100-samples-200.csv", "100-samples-1000.csv", "100.csv"})
+	public String file;
+
+	private Integer[] samples;
+
+	@Setup
+	public void setup() {
+		samples = Bench.load(file);
+		PeakDetection.qPeaks(); // train the detection threshold up front
+	}
+
+	@Benchmark
+	public void qLength(Blackhole bh) {
+		Bench.run(PeakDetection.qLength(), samples, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void qPeaks(Blackhole bh) {
+		Bench.run(PeakDetection.qPeaks(), samples, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void qRMSSD(Blackhole bh) {
+		Bench.run(HeartRate.qRMSSD(), samples, Bench.sink(bh));
+	}
+
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dsl.Q;
+import dsl.Query;
+
+// Sliding-window max (no inverse): the naive algorithm (O(wndSize) per
+// item) against the two-stacks algorithm (amortized O(1) per item).
+// Every operation fills the window and then slides it over N more items.
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MonoidWindowBench {
+
+	private static final int N = 10_000;
+
+	@Param({"10", "100", "1000", "10000", "100000"})
+	public int wndSize;
+
+	private Long[] items;
+
+	@Setup
+	public void setup() {
+		items = new Long[wndSize + N];
+		for (int i=0; i<items.length; i++) {
+			items[i] = (i * 7919L) % 100_003;
+		}
+	}
+
+	@Benchmark
+	public void naive(Blackhole bh) {
+		Query<Long,Long> q = Q.sWindowNaive(wndSize, Long.MIN_VALUE, (Long m, Long x) -> Math.max(m, x));
+		Bench.run(q, items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void monoid(Blackhole bh) {
+		Query<Long,Long> q = Q.sWindowMonoid(wndSize, Long.MIN_VALUE, Math::max);
+		Bench.run(q, items, Bench.sink(bh));
+	}
+
+}
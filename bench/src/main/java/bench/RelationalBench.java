@@ -0,0 +1,78 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dsl.Q;
+import ra.EquiJoin;
+import ra.GroupBy;
+import ra.ThetaJoin;
+import utils.Or;
+import utils.Pair;
+
+// The ra operators at several key cardinalities. The joins see the left
+// and right items interleaved; the output of the joins grows with
+// n^2 / keys.
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RelationalBench {
+
+	private static final int N_GROUP_BY = 1_000_000;
+	private static final int N_EQUI_JOIN = 20_000;
+	private static final int N_THETA_JOIN = 4_000;
+
+	@Param({"10", "1000", "100000"})
+	public int keys;
+
+	private Pair<Integer,Integer>[] groups;
+	private Or<Integer,Integer>[] equi;
+	private Or<Integer,Integer>[] theta;
+
+	private Or<Integer,Integer>[] joinInput(int n) {
+		Or<Integer,Integer>[] items = new Or[n];
+		for (int i=0; i<n; i++) {
+			int key = (i / 2) % keys;
+			items[i] = (i % 2 == 0) ? Or.inl(key) : Or.inr(key);
+		}
+		return items;
+	}
+
+	@Setup
+	public void setup() {
+		groups = new Pair[N_GROUP_BY];
+		for (int i=0; i<N_GROUP_BY; i++) {
+			groups[i] = Pair.from(i % keys, i);
+		}
+		equi = joinInput(N_EQUI_JOIN);
+		theta = joinInput(N_THETA_JOIN);
+	}
+
+	@Benchmark
+	public void groupBy(Blackhole bh) {
+		Bench.run(GroupBy.from(0L, (Long s, Integer x) -> s + x), groups, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void equiJoin(Blackhole bh) {
+		Bench.run(EquiJoin.from((Integer x) -> x, (Integer y) -> y), equi, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void thetaJoin(Blackhole bh) {
+		Bench.run(ThetaJoin.from((Integer x, Integer y) -> x.equals(y)), theta, Bench.sink(bh));
+	}
+
+	// Baseline: the same number of items through a trivial query.
+	@Benchmark
+	public void groupByBaseline(Blackhole bh) {
+		Bench.run(Q.<Pair<Integer,Integer>>id(), groups, Bench.sink(bh));
+	}
+
+}
@@ -0,0 +1,49 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dsl.Q;
+import dsl.Query;
+
+// Sliding-window sum: the naive algorithm (O(wndSize) per item) against
+// the one with an inverse operation (O(1) per item).
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WindowBench {
+
+	private static final int N = 100_000;
+
+	@Param({"4", "16", "64", "256", "1024"})
+	public int wndSize;
+
+	private Long[] items;
+
+	@Setup
+	public void setup() {
+		items = new Long[N];
+		for (int i=0; i<N; i++) {
+			items[i] = (long) i;
+		}
+	}
+
+	@Benchmark
+	public void naive(Blackhole bh) {
+		Query<Long,Long> q = Q.sWindowNaive(wndSize, 0L, (Long s, Long x) -> s + x);
+		Bench.run(q, items, Bench.sink(bh));
+	}
+
+	@Benchmark
+	public void inv(Blackhole bh) {
+		Query<Long,Long> q = Q.sWindowInv(wndSize, 0L, Long::sum, (s, x) -> s - x);
+		Bench.run(q, items, Bench.sink(bh));
+	}
+
+}
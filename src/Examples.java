@@ -90,6 +90,33 @@ public class Examples {
 			Q.execute(Q.intStream(n), q, S.lastCount());
 		}
 		System.out.println();
+
+		System.out.println("***** filter >> map >> fold (async) *****");
+		{
+			Query<Integer,Integer> q1 = Q.filter(x -> x % 2 == 0);
+			Query<Integer,Integer> q2 = Q.map(x -> 2*x);
+			Query<Integer,Long> q3 = Q.fold(0L, (x, y) -> x + y);
+			Query<Integer,Long> q = Q.pipeline(q1, q2, q3);
+			Q.executeAsync(Q.intStream(n), q, S.lastCount(), AsyncConfig.defaults());
+		}
+		System.out.println();
+
+		System.out.println("***** map (int) *****");
+		{
+			IntQuery<IntSink> q = Q.intMap(x -> 2*x);
+			Q.execute(Q.intStream(n), q, S.intSink(S.lastCount()));
+		}
+		System.out.println();
+
+		System.out.println("***** filter >> map >> fold (int) *****");
+		{
+			IntQuery<IntSink> q1 = Q.intFilter(x -> x % 2 == 0);
+			IntQuery<IntSink> q2 = Q.intMap(x -> 2*x);
+			IntQuery<LongSink> q3 = Q.intFold(0L, (x, y) -> x + y);
+			IntQuery<LongSink> q = Q.pipeline(q1, Q.pipeline(q2, q3));
+			Q.execute(Q.intStream(n), q, S.longSink(S.lastCount()));
+		}
+		System.out.println();
 	}
 
 }
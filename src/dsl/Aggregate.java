@@ -0,0 +1,41 @@
+package dsl;
+
+// Aggregates the whole stream with an Aggregator and emits the result at
+// the end (like Fold, but the partial result can also be merged).
+
+public class Aggregate<A,Acc,R> implements Query<A,R> {
+
+	private final Aggregator<A,Acc,R> agg;
+	private Acc acc; // partial result
+
+	public Aggregate(Aggregator<A,Acc,R> agg) {
+		this.agg = agg;
+	}
+
+	@Override
+	public void start(Sink<R> sink) {
+		acc = agg.create();
+	}
+
+	@Override
+	public void next(A item, Sink<R> sink) {
+		acc = agg.accumulate(acc, item);
+	}
+
+	@Override
+	public void end(Sink<R> sink) {
+		sink.next(agg.finish(acc));
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		agg.snapshot(acc, out);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		acc = agg.restore(in);
+	}
+
+}
@@ -0,0 +1,30 @@
+package dsl;
+
+// A mergeable aggregate: items are accumulated into partial results
+// (Acc), partial results of disjoint parts of a stream can be merged, and
+// the final result is extracted with finish. Unlike the Func2 of Fold and
+// Scan, this lets parts of the input be aggregated independently (e.g. on
+// several threads, see Q.foldParallel) and combined afterwards.
+//
+// merge must be associative, with create() as identity, and merging the
+// partials of consecutive parts in order must equal accumulating the whole
+// input. accumulate and merge may update their first argument in place
+// and return it. See Aggregators for the built-ins.
+//
+// snapshot and restore encode a partial result for checkpoints (see
+// Query.snapshot); by default it goes through StateWriter.writeObject.
+
+public interface Aggregator<A,Acc,R> {
+	Acc create();
+	Acc accumulate(Acc acc, A item);
+	Acc merge(Acc acc1, Acc acc2);
+	R finish(Acc acc);
+
+	default void snapshot(Acc acc, StateWriter out) {
+		out.writeObject(acc);
+	}
+
+	default Acc restore(StateReader in) {
+		return in.readObject();
+	}
+}
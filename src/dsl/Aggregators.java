@@ -0,0 +1,187 @@
+package dsl;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import utils.Pair;
+
+// Built-in aggregators. The partial results are small primitive arrays,
+// which checkpoints encode directly, or RunningStats, which encode their
+// fields explicitly (see stats). The sketches fall back to Java
+// serialization.
+
+public class Aggregators {
+
+	private Aggregators() {
+
+	}
+
+	public static <A,Acc,R> Aggregator<A,Acc,R>
+	of(Supplier<Acc> create, BiFunction<Acc,A,Acc> accumulate, BinaryOperator<Acc> merge,
+	   Function<Acc,R> finish)
+	{
+		return new Aggregator<A,Acc,R>() {
+			@Override
+			public Acc create() {
+				return create.get();
+			}
+			@Override
+			public Acc accumulate(Acc acc, A item) {
+				return accumulate.apply(acc, item);
+			}
+			@Override
+			public Acc merge(Acc acc1, Acc acc2) {
+				return merge.apply(acc1, acc2);
+			}
+			@Override
+			public R finish(Acc acc) {
+				return finish.apply(acc);
+			}
+		};
+	}
+
+	public static <A> Aggregator<A,long[],Long> count() {
+		return of(() -> new long[1],
+				  (acc, x) -> { acc[0] += 1; return acc; },
+				  (a, b) -> { a[0] += b[0]; return a; },
+				  acc -> acc[0]);
+	}
+
+	public static Aggregator<Double,double[],Double> sum() {
+		return of(() -> new double[1],
+				  (acc, x) -> { acc[0] += x; return acc; },
+				  (a, b) -> { a[0] += b[0]; return a; },
+				  acc -> acc[0]);
+	}
+
+	// A statistic of a RunningStats (merged with Chan's formulas). The
+	// partials are checkpointed with RunningStats.snapshot.
+	public static Aggregator<Double,RunningStats,Double> stats(RunningStats.Stat stat) {
+		return new Aggregator<Double,RunningStats,Double>() {
+			@Override
+			public RunningStats create() {
+				return new RunningStats();
+			}
+			@Override
+			public RunningStats accumulate(RunningStats acc, Double item) {
+				return acc.add(item);
+			}
+			@Override
+			public RunningStats merge(RunningStats acc1, RunningStats acc2) {
+				return acc1.merge(acc2);
+			}
+			@Override
+			public Double finish(RunningStats acc) {
+				return stat.of(acc);
+			}
+			@Override
+			public void snapshot(RunningStats acc, StateWriter out) {
+				acc.snapshot(out);
+			}
+			@Override
+			public RunningStats restore(StateReader in) {
+				RunningStats acc = new RunningStats();
+				acc.restore(in);
+				return acc;
+			}
+		};
+	}
+
+	public static Aggregator<Double,RunningStats,Double> avg() {
+		return stats(RunningStats.Stat.MEAN);
+	}
+
+	// Population standard deviation (as Q.foldStdev).
+	public static Aggregator<Double,RunningStats,Double> stdev() {
+		return stats(RunningStats.Stat.STDEV);
+	}
+
+	// NaN for no items.
+	public static Aggregator<Double,double[],Double> min() {
+		return of(() -> new double[] {Double.NaN},
+				  (acc, x) -> { acc[0] = Double.isNaN(acc[0]) ? x : Math.min(acc[0], x); return acc; },
+				  (a, b) -> { a[0] = Double.isNaN(a[0]) ? b[0] : Double.isNaN(b[0]) ? a[0] : Math.min(a[0], b[0]); return a; },
+				  acc -> acc[0]);
+	}
+
+	// NaN for no items.
+	public static Aggregator<Double,double[],Double> max() {
+		return of(() -> new double[] {Double.NaN},
+				  (acc, x) -> { acc[0] = Double.isNaN(acc[0]) ? x : Math.max(acc[0], x); return acc; },
+				  (a, b) -> { a[0] = Double.isNaN(a[0]) ? b[0] : Double.isNaN(b[0]) ? a[0] : Math.max(a[0], b[0]); return a; },
+				  acc -> acc[0]);
+	}
+
+	// Counts of the items in nBins equal bins over [lo, hi). Items outside
+	// the range are counted in the first or the last bin.
+	public static Aggregator<Double,long[],long[]> histogram(double lo, double hi, int nBins) {
+		if (!(lo < hi) || nBins < 1) {
+			throw new IllegalArgumentException("histogram needs lo < hi and nBins >= 1");
+		}
+		double width = (hi - lo) / nBins;
+		return of(() -> new long[nBins],
+				  (acc, x) -> {
+					  int bin = (int) Math.floor((x - lo) / width);
+					  acc[Math.max(0, Math.min(nBins - 1, bin))] += 1;
+					  return acc;
+				  },
+				  (a, b) -> {
+					  for (int i=0; i<nBins; i++) {
+						  a[i] += b[i];
+					  }
+					  return a;
+				  },
+				  acc -> acc);
+	}
+
+	// Sketches: approximate results in fixed memory (see HyperLogLog, TDigest
+	// and HeavyHitters).
+
+	// Items are hashed with their hashCode (see HyperLogLog).
+	public static <A> Aggregator<A,HyperLogLog,Long> distinctCount(int precision) {
+		return of(() -> new HyperLogLog(precision),
+				  HyperLogLog::add,
+				  HyperLogLog::merge,
+				  HyperLogLog::estimate);
+	}
+
+	// Items are hashed to 64 bits with 'hash'.
+	public static <A> Aggregator<A,HyperLogLog,Long>
+	distinctCount(int precision, ToLongFunction<? super A> hash)
+	{
+		return of(() -> new HyperLogLog(precision),
+				  (acc, x) -> acc.add(hash.applyAsLong(x)),
+				  HyperLogLog::merge,
+				  HyperLogLog::estimate);
+	}
+
+	public static Aggregator<Double,TDigest,double[]>
+	quantiles(double compression, double... quantiles)
+	{
+		double[] qs = quantiles.clone();
+		return of(() -> new TDigest(compression),
+				  TDigest::add,
+				  TDigest::merge,
+				  digest -> {
+					  double[] result = new double[qs.length];
+					  for (int i=0; i<qs.length; i++) {
+						  result[i] = digest.quantile(qs[i]);
+					  }
+					  return result;
+				  });
+	}
+
+	public static <K> Aggregator<K,HeavyHitters<K>,List<Pair<K,Long>>>
+	heavyHitters(int k, int width, int depth)
+	{
+		return of(() -> new HeavyHitters<>(k, width, depth),
+				  HeavyHitters::add,
+				  HeavyHitters::merge,
+				  HeavyHitters::top);
+	}
+
+}
@@ -0,0 +1,52 @@
+package dsl;
+
+// Settings for Q.executeAsync (and the asynchronous operators).
+//
+// capacity: number of items each ring buffer between two threads can hold.
+// maxThreads: upper bound on the number of pipeline segments when the
+// query has no Boundary markers and is split automatically.
+// stallTimeoutMillis: how long the branches of a ParallelAsync may stay
+// blocked on each other before the query fails (0: wait for ever). It is a
+// grace period rather than a deadline: it also covers slow consumers, GC
+// pauses and branches with asynchronous operators of their own, whose
+// pending output the stall check cannot see.
+
+public class AsyncConfig {
+
+	public static final long DEFAULT_STALL_TIMEOUT_MILLIS = 10_000;
+
+	public final int capacity;
+	public final int maxThreads;
+	public final long stallTimeoutMillis;
+
+	public AsyncConfig(int capacity, int maxThreads) {
+		this(capacity, maxThreads, DEFAULT_STALL_TIMEOUT_MILLIS);
+	}
+
+	public AsyncConfig(int capacity, int maxThreads, long stallTimeoutMillis) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity should be >= 1");
+		}
+		if (maxThreads < 1) {
+			throw new IllegalArgumentException("maxThreads should be >= 1");
+		}
+		if (stallTimeoutMillis < 0) {
+			throw new IllegalArgumentException("stallTimeoutMillis should be >= 0");
+		}
+		this.capacity = capacity;
+		this.maxThreads = maxThreads;
+		this.stallTimeoutMillis = stallTimeoutMillis;
+	}
+
+	public static AsyncConfig defaults() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		return new AsyncConfig(4096, Math.max(2, cores));
+	}
+
+	@Override
+	public String toString() {
+		return "{ capacity: " + capacity + ", maxThreads: " + maxThreads
+			+ ", stallTimeoutMillis: " + stallTimeoutMillis + " }";
+	}
+
+}
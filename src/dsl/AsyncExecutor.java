@@ -0,0 +1,263 @@
+package dsl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Pipelined multi-threaded execution (see Q.executeAsync).
+//
+// The query is flattened into its chain of Pipeline stages and cut into
+// segments, either at the Boundary markers or, when there are none, into
+// at most config.maxThreads pieces with about the same number of stages.
+// The calling thread pulls from the iterator and runs the first segment.
+// Every other segment runs on its own thread and reads from an SpscRing
+// that is fed by the segment before it.
+
+final class AsyncExecutor {
+
+	// Markers that travel through the rings after the data items.
+	static final Object END = new Object(); // upstream called end()
+	static final Object CLOSE = new Object(); // no more items
+
+	// A watermark, in its place between the items.
+	static final class Watermark {
+		final long ts;
+		Watermark(long ts) {
+			this.ts = ts;
+		}
+	}
+
+	private AsyncExecutor() {
+
+	}
+
+	static class RingSink implements Sink<Object> {
+		private final SpscRing<Object> ring;
+		RingSink(SpscRing<Object> ring) {
+			this.ring = ring;
+		}
+		@Override
+		public void next(Object item) {
+			ring.put(item);
+		}
+		@Override
+		public void nextBatch(Object[] items, int from, int to) {
+			for (int i=from; i<to; i++) {
+				ring.put(items[i]);
+			}
+		}
+		@Override
+		public void watermark(long ts) {
+			ring.put(new Watermark(ts));
+		}
+		@Override
+		public void end() {
+			ring.put(END);
+		}
+	}
+
+	static void flatten(Query<?,?> q, List<Query<?,?>> stages) {
+		if (q instanceof Pipeline) {
+			Pipeline<?,?,?> p = (Pipeline<?,?,?>) q;
+			flatten(p.first(), stages);
+			flatten(p.second(), stages);
+		} else if (q instanceof Chain) {
+			for (Query<?,?> stage : ((Chain<?,?>) q).stages()) {
+				flatten(stage, stages);
+			}
+		} else {
+			stages.add(q);
+		}
+	}
+
+	// The stages of a flattened query fit together, but their types are
+	// lost in the list; this is the one place where they are cast back.
+	@SuppressWarnings("unchecked")
+	static Query<Object,Object> erase(Query<?,?> q) {
+		return (Query<Object,Object>) q;
+	}
+
+	@SuppressWarnings("unchecked")
+	static Sink<Object> erase(Sink<?> sink) {
+		return (Sink<Object>) sink;
+	}
+
+	// The pipeline of the stages (which must fit together).
+	@SuppressWarnings("unchecked")
+	static <A,B> Query<A,B> compose(List<Query<?,?>> stages) {
+		Query<Object,Object> q = erase(stages.get(stages.size() - 1));
+		for (int i=stages.size()-2; i>=0; i--) {
+			q = new Pipeline<>(erase(stages.get(i)), q);
+		}
+		return (Query<A,B>) q;
+	}
+
+	static List<Query<Object,Object>> split(List<Query<?,?>> stages, int maxThreads) {
+		List<Query<Object,Object>> segments = new ArrayList<>();
+		boolean marked = false;
+		for (Query<?,?> stage : stages) {
+			marked = marked || stage instanceof Boundary;
+		}
+		if (marked) {
+			List<Query<?,?>> current = new ArrayList<>();
+			for (Query<?,?> stage : stages) {
+				if (stage instanceof Boundary) {
+					if (!current.isEmpty()) {
+						segments.add(compose(current));
+						current = new ArrayList<>();
+					}
+				} else {
+					current.add(stage);
+				}
+			}
+			if (!current.isEmpty()) {
+				segments.add(compose(current));
+			}
+			if (segments.isEmpty()) {
+				segments.add(new Id<>());
+			}
+		} else {
+			int n = stages.size();
+			int k = Math.min(n, maxThreads);
+			int from = 0;
+			for (int i=0; i<k; i++) {
+				int to = (int) ((long) n * (i + 1) / k);
+				segments.add(compose(stages.subList(from, to)));
+				from = to;
+			}
+		}
+		return segments;
+	}
+
+	static <A,B> ExecutionStats
+	execute(Iterator<A> it, Query<A,B> q, Sink<B> sink, AsyncConfig config)
+	{
+		ExecutionStats.Meter meter = ExecutionStats.start();
+		Sink<Object> counted = erase(meter.count(sink));
+		List<Query<?,?>> stages = new ArrayList<>();
+		flatten(q, stages);
+		List<Query<Object,Object>> segments = split(stages, config.maxThreads);
+		int k = segments.size();
+
+		List<SpscRing<Object>> rings = new ArrayList<>();
+		for (int i=0; i<k-1; i++) {
+			rings.add(new SpscRing<>(config.capacity));
+		}
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Runnable cancel = () -> rings.forEach(SpscRing::cancel);
+
+		List<Thread> workers = new ArrayList<>();
+		for (int i=1; i<k; i++) {
+			Query<Object,Object> segment = segments.get(i);
+			SpscRing<Object> in = rings.get(i - 1);
+			SpscRing<Object> out = (i < k - 1) ? rings.get(i) : null;
+			Sink<Object> outSink = (out == null) ? counted : new RingSink(out);
+			Thread worker = new Thread(() -> {
+				try {
+					runSegment(segment, in, outSink);
+					if (out != null) {
+						out.put(CLOSE);
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+					cancel.run();
+				}
+			}, "dsl-segment-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+		}
+		workers.forEach(Thread::start);
+
+		try {
+			Query<Object,Object> first = segments.get(0);
+			Sink<Object> firstSink = (k == 1) ? counted : new RingSink(rings.get(0));
+			Object[] batch = new Object[Q.BATCH_SIZE];
+			first.start(firstSink);
+			boolean more = it.hasNext();
+			// stop pulling from the source as soon as a segment has failed
+			while (more && failure.get() == null) {
+				int m = 0;
+				do {
+					batch[m++] = it.next();
+					more = it.hasNext();
+				} while (more && m < Q.BATCH_SIZE);
+				meter.mark();
+				first.nextBatch(batch, 0, m, firstSink);
+				Arrays.fill(batch, 0, m, null);
+				meter.items(m);
+			}
+			first.end(firstSink);
+			if (k > 1) {
+				rings.get(0).put(CLOSE);
+			}
+		} catch (Throwable e) {
+			failure.compareAndSet(null, e);
+			cancel.run();
+		}
+
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				cancel.run();
+				Thread.currentThread().interrupt();
+				throw new CancellationException("interrupted while waiting for segments");
+			}
+		}
+
+		if (failure.get() != null) {
+			for (Query<Object,Object> segment : segments) {
+				segment.abort();
+			}
+		}
+		rethrow(failure.get());
+		return meter.stop();
+	}
+
+	// Rethrow the failure of a worker thread (if any) on the caller thread.
+	static void rethrow(Throwable e) {
+		if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		} else if (e instanceof Error) {
+			throw (Error) e;
+		} else if (e != null) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void runSegment(Query<Object,Object> q, SpscRing<Object> in, Sink<Object> out) {
+		Object[] buffer = new Object[Q.BATCH_SIZE];
+		q.start(out);
+		while (true) {
+			int n = in.takeBatch(buffer);
+			int from = 0;
+			for (int i=0; i<n; i++) {
+				Object item = buffer[i];
+				if (item instanceof Watermark) {
+					if (from < i) {
+						q.nextBatch(buffer, from, i, out);
+					}
+					from = i + 1;
+					q.watermark(((Watermark) item).ts, out);
+				} else if (item == END || item == CLOSE) {
+					if (from < i) {
+						q.nextBatch(buffer, from, i, out);
+					}
+					from = i + 1;
+					if (item == CLOSE) {
+						return;
+					}
+					q.end(out);
+				}
+			}
+			if (from < n) {
+				q.nextBatch(buffer, from, n, out);
+			}
+			Arrays.fill(buffer, 0, n, null);
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package dsl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+
+// An iterator over items that another thread supplies with put(). Reading
+// blocks until an item is available or the source is closed, which makes it
+// a natural input for a stream in a StreamRuntime. put() blocks
+// when capacity items are waiting.
+
+public class BlockingSource<A> implements Iterator<A> {
+
+	private static final Object CLOSED = new Object();
+
+	private final BlockingQueue<Object> queue;
+	private Object head; // item taken by hasNext() and not yet returned
+
+	public BlockingSource(int capacity) {
+		this.queue = new ArrayBlockingQueue<>(capacity);
+	}
+
+	public void put(A item) throws InterruptedException {
+		queue.put(item);
+	}
+
+	// No items can be put after close(); the reader sees the end of the
+	// stream once it has consumed the items before it.
+	public void close() throws InterruptedException {
+		queue.put(CLOSED);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (head == null) {
+			try {
+				head = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException("interrupted while waiting for input");
+			}
+		}
+		return head != CLOSED;
+	}
+
+	@Override
+	public A next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		@SuppressWarnings("unchecked") // not CLOSED, so an item
+		A item = (A) head;
+		head = null;
+		return item;
+	}
+
+}
@@ -0,0 +1,32 @@
+package dsl;
+
+// The identity transformation, marking a point where Q.executeAsync may
+// split a pipeline between two threads. Synchronous execution ignores it.
+
+public class Boundary<A> implements Query<A,A>, Stateless {
+
+	public Boundary() {
+		// nothing to do
+	}
+
+	@Override
+	public void start(Sink<A> sink) {
+		// nothing to do
+	}
+
+	@Override
+	public void next(A item, Sink<A> sink) {
+		sink.next(item);
+	}
+
+	@Override
+	public void nextBatch(Object[] items, int from, int to, Sink<A> sink) {
+		sink.nextBatch(items, from, to);
+	}
+
+	@Override
+	public void end(Sink<A> sink) {
+		sink.end();
+	}
+	
+}
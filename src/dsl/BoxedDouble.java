@@ -0,0 +1,53 @@
+package dsl;
+
+import java.util.function.Function;
+
+// Adapter that exposes a double query as a generic Query<Double,B>.
+// 'unbox' turns the downstream Sink<B> into the sink kind of the query.
+
+public class BoxedDouble<B,T> implements Query<Double,B> {
+
+	private final DoubleQuery<T> q;
+	private final Function<Sink<B>,T> unbox;
+	private Sink<B> bound; // downstream sink that 'adapted' forwards to
+	private T adapted;
+
+	public BoxedDouble(DoubleQuery<T> q, Function<Sink<B>,T> unbox) {
+		this.q = q;
+		this.unbox = unbox;
+	}
+
+	private T adapt(Sink<B> sink) {
+		if (sink != bound) {
+			bound = sink;
+			adapted = unbox.apply(sink);
+		}
+		return adapted;
+	}
+
+	@Override
+	public void start(Sink<B> sink) {
+		q.start(adapt(sink));
+	}
+
+	@Override
+	public void next(Double item, Sink<B> sink) {
+		q.next(item, adapt(sink));
+	}
+
+	@Override
+	public void end(Sink<B> sink) {
+		q.end(adapt(sink));
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		q.snapshot(out);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		q.restore(in);
+	}
+
+}
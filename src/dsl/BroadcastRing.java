@@ -0,0 +1,129 @@
+package dsl;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded lock-free ring buffer for one producer thread and a fixed number
+// of consumer threads, each of which sees every item. Every consumer has
+// its own read cursor. The producer waits until the slowest consumer has
+// freed a slot, so the consumers never drift more than the capacity apart.
+// The last consumer to pass a slot clears it (before moving its cursor, so
+// the producer cannot have reused the slot yet).
+// See SpscRing for the waiting and cancellation behaviour.
+
+final class BroadcastRing<A> {
+
+	private final Object[] buffer;
+	private final int mask;
+	private final int capacity;
+	private final AtomicLong tail = new AtomicLong(); // next slot to write
+	private final AtomicLong[] heads; // next slot to read, per consumer
+	private final long[] cachedTails; // consumer's last view of tail
+	private long cachedMinHead; // producer's last view of the slowest head
+	private volatile boolean cancelled;
+	private volatile boolean producerWaiting; // put() is blocked on a full buffer
+	private final AtomicIntegerArray consumerWaiting; // takeBatch() is blocked
+
+	BroadcastRing(int capacity, int nConsumers) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity should be >= 1");
+		}
+		if (nConsumers < 1) {
+			throw new IllegalArgumentException("nConsumers should be >= 1");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.buffer = new Object[size];
+		this.mask = size - 1;
+		this.capacity = size;
+		this.heads = new AtomicLong[nConsumers];
+		for (int i=0; i<nConsumers; i++) {
+			heads[i] = new AtomicLong();
+		}
+		this.cachedTails = new long[nConsumers];
+		this.consumerWaiting = new AtomicIntegerArray(nConsumers);
+	}
+
+	private long minHead() {
+		long min = Long.MAX_VALUE;
+		for (AtomicLong head : heads) {
+			min = Math.min(min, head.get());
+		}
+		return min;
+	}
+
+	// Called by the producer only.
+	void put(A item) {
+		long t = tail.get();
+		if (t - cachedMinHead >= capacity) {
+			int spins = 0;
+			producerWaiting = true;
+			try {
+				while (t - (cachedMinHead = minHead()) >= capacity) {
+					backoff(spins++);
+				}
+			} finally {
+				producerWaiting = false;
+			}
+		}
+		buffer[(int) t & mask] = item;
+		tail.lazySet(t + 1);
+	}
+
+	// Called by consumer 'c' only. Waits for at least one item and then
+	// copies as many available items as fit into 'out'. Returns the count.
+	int takeBatch(int c, Object[] out) {
+		AtomicLong head = heads[c];
+		long h = head.get();
+		if (h == cachedTails[c]) {
+			int spins = 0;
+			consumerWaiting.set(c, 1);
+			try {
+				while (h == (cachedTails[c] = tail.get())) {
+					backoff(spins++);
+				}
+			} finally {
+				consumerWaiting.set(c, 0);
+			}
+		}
+		int n = (int) Math.min(out.length, cachedTails[c] - h);
+		long passed = h + n; // slots below this are read by every consumer
+		for (int o=0; o<heads.length; o++) {
+			if (o != c) {
+				passed = Math.min(passed, heads[o].get());
+			}
+		}
+		for (int i=0; i<n; i++) {
+			int slot = (int) (h + i) & mask;
+			out[i] = buffer[slot];
+			if (h + i < passed) {
+				buffer[slot] = null;
+			}
+		}
+		head.lazySet(h + n);
+		return n;
+	}
+
+	boolean isProducerWaiting() {
+		return producerWaiting;
+	}
+
+	boolean isConsumerWaiting(int c) {
+		return consumerWaiting.get(c) == 1;
+	}
+
+	void cancel() {
+		cancelled = true;
+	}
+
+	private void backoff(int spins) {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		SpscRing.pause(spins);
+	}
+
+}
@@ -0,0 +1,11 @@
+package dsl;
+
+// Implemented by queries that hold items between calls (windows, joins,
+// the branch buffers of Parallel). Instrumented tracks the maximum.
+
+public interface Buffered {
+
+	// Number of items currently held (should take constant time).
+	int buffered();
+
+}
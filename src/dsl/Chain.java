@@ -0,0 +1,112 @@
+package dsl;
+
+import java.util.List;
+
+// Serial composition of any number of stages (what a chain of nested
+// Pipelines computes, without the nesting): an item goes from one stage to
+// the next through one pre-bound sink per stage.
+
+public class Chain<A,B> implements Query<A,B> {
+
+	private final Query<Object,Object>[] stages;
+	private final Sink<Object>[] links; // links[i] feeds stages[i+1]
+	private Sink<B> bound; // downstream sink that the last link forwards to
+
+	// The stages fit together, but their types are lost in the list.
+	@SuppressWarnings("unchecked")
+	public Chain(List<Query<?,?>> stages) {
+		if (stages.isEmpty()) {
+			throw new IllegalArgumentException("a chain needs at least one stage");
+		}
+		this.stages = (Query<Object,Object>[]) stages.toArray(new Query<?,?>[0]);
+		this.links = (Sink<Object>[]) new Sink<?>[this.stages.length];
+	}
+
+	List<Query<?,?>> stages() {
+		return List.of(stages);
+	}
+
+	private void bind(Sink<B> sink) {
+		if (sink != bound) {
+			bound = sink;
+			int n = stages.length;
+			links[n - 1] = AsyncExecutor.erase(sink);
+			for (int i=n-2; i>=0; i--) {
+				Query<Object,Object> next = stages[i + 1];
+				Sink<Object> out = links[i + 1];
+				links[i] = new Sink<Object>() {
+					@Override
+					public void next(Object item) {
+						next.next(item, out);
+					}
+					@Override
+					public void nextBatch(Object[] items, int from, int to) {
+						next.nextBatch(items, from, to, out);
+					}
+					@Override
+					public void watermark(long ts) {
+						next.watermark(ts, out);
+					}
+					@Override
+					public void end() {
+						next.end(out);
+					}
+				};
+			}
+		}
+	}
+
+	@Override
+	public void start(Sink<B> sink) {
+		bind(sink);
+		for (int i=stages.length-1; i>=0; i--) {
+			stages[i].start(links[i]);
+		}
+	}
+
+	@Override
+	public void next(A item, Sink<B> sink) {
+		bind(sink);
+		stages[0].next(item, links[0]);
+	}
+
+	@Override
+	public void nextBatch(Object[] items, int from, int to, Sink<B> sink) {
+		bind(sink);
+		stages[0].nextBatch(items, from, to, links[0]);
+	}
+
+	@Override
+	public void watermark(long ts, Sink<B> sink) {
+		bind(sink);
+		stages[0].watermark(ts, links[0]);
+	}
+
+	@Override
+	public void end(Sink<B> sink) {
+		bind(sink);
+		stages[0].end(links[0]);
+	}
+
+	@Override
+	public void abort() {
+		for (Query<?,?> stage : stages) {
+			stage.abort();
+		}
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		for (Query<?,?> stage : stages) {
+			stage.snapshot(out);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		for (Query<?,?> stage : stages) {
+			stage.restore(in);
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+package dsl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// A checkpoint file for Q.execute: the state of every operator of the
+// query (see Query.snapshot) together with the number of input items that
+// it has consumed. A run that resumes from the file restores the state
+// and skips that many items, so recovery costs time proportional to the
+// size of the state rather than to the length of the history.
+//
+// Layout: magic, version, position (items), length and the state bytes.
+// The file is replaced atomically (write to a temporary file, force,
+// rename), so a crash leaves either the previous or the new checkpoint.
+//
+// interval: number of input items between two checkpoints.
+
+public class Checkpoint {
+
+	private static final int MAGIC = 0x44534c43; // "DSLC"
+	private static final int VERSION = 1;
+	private static final int HEADER = 4 + 4 + 8 + 4;
+
+	private final Path file;
+	private final long interval;
+
+	public Checkpoint(Path file, long interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("checkpoint interval should be >= 1");
+		}
+		this.file = file;
+		this.interval = interval;
+	}
+
+	public Path file() {
+		return file;
+	}
+
+	public long interval() {
+		return interval;
+	}
+
+	public boolean exists() {
+		return Files.exists(file);
+	}
+
+	public void delete() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	// Called by the default snapshot and restore methods.
+	static void requireStateless(Object q) {
+		if (!(q instanceof Stateless)) {
+			throw new UnsupportedOperationException(
+				q.getClass().getName() + " does not support checkpoints");
+		}
+	}
+
+	// Takes a snapshot of q (which has been started) and drops it, so that
+	// a query that cannot be checkpointed fails before the run begins.
+	void check(Query<?,?> q) {
+		q.snapshot(new StateWriter());
+	}
+
+	// Writes the state of q, which has consumed 'position' input items.
+	// Returns the size of the state in bytes.
+	public int save(Query<?,?> q, long position) throws IOException {
+		StateWriter out = new StateWriter();
+		q.snapshot(out);
+		ByteBuffer state = out.buffer();
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.putInt(MAGIC).putInt(VERSION).putLong(position).putInt(state.remaining()).flip();
+
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer[] buffers = {header, state};
+			while (header.hasRemaining() || state.hasRemaining()) {
+				ch.write(buffers);
+			}
+			ch.force(true);
+		}
+		Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		return out.size();
+	}
+
+	// Restores the state of q, which must have been started and must have
+	// the same shape as the query that was saved. Returns the position.
+	public long load(Query<?,?> q) throws IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			if (buf.remaining() < HEADER || buf.getInt() != MAGIC) {
+				throw new IOException(file + ": not a checkpoint");
+			}
+			int version = buf.getInt();
+			if (version != VERSION) {
+				throw new IOException(file + ": unsupported checkpoint version " + version);
+			}
+			long position = buf.getLong();
+			int length = buf.getInt();
+			if (buf.remaining() != length) {
+				throw new IOException(file + ": truncated checkpoint");
+			}
+			StateReader in = new StateReader(buf);
+			q.restore(in);
+			if (in.hasRemaining()) {
+				throw new IllegalStateException(file + ": checkpoint does not match the query");
+			}
+			return position;
+		}
+	}
+
+}
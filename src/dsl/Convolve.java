@@ -0,0 +1,117 @@
+package dsl;
+
+import java.util.Arrays;
+
+// Streaming FIR filter: y = sum of kernel[k] * x[newest - k], where x are
+// the last kernel.length input samples. The samples are kept in a double[]
+// ring that is written twice (at i and i + length), so that the window is
+// always a contiguous slice and the dot product needs no wrap-around test.
+// Kernels of length 3 and 5 have unrolled dot products, longer ones a loop
+// unrolled by four.
+//
+// CAUSAL: the output is attributed to the newest sample and is emitted
+// once the window is full (from the kernel.length-th item on), e.g. the
+// kernel {0.5, 0, -0.5} gives the same outputs as
+// Q.sWindow3((prev, curr, next) -> (next - prev) / 2).
+//
+// CENTERED: the output is attributed to the middle sample (length/2 older
+// than the newest). The stream is padded with zeros before its start,
+// like ecg.CenteredSlidingWindow, so the first output is for the first
+// sample, and the last length/2 samples get no output.
+
+public class Convolve implements DoubleQuery<DoubleSink> {
+
+	public enum Alignment { CAUSAL, CENTERED }
+
+	private final double[] reversed; // kernel, oldest sample first
+	private final int length;
+	private final int threshold; // number of items before the first output
+	private final double[] buffer; // the window twice over
+	private int indexOldest; // index to oldest element
+	private int nElements; // number of items seen, up to 'threshold'
+
+	public Convolve(double[] kernel, Alignment alignment) {
+		if (kernel.length < 1) {
+			throw new IllegalArgumentException("the kernel should not be empty");
+		}
+		this.length = kernel.length;
+		this.reversed = new double[length];
+		for (int i=0; i<length; i++) {
+			reversed[i] = kernel[length - 1 - i];
+		}
+		this.threshold = alignment == Alignment.CAUSAL ? length : length / 2 + 1;
+		this.buffer = new double[2 * length];
+	}
+
+	@Override
+	public void start(DoubleSink sink) {
+		Arrays.fill(buffer, 0.0); // the zero padding
+		this.indexOldest = 0;
+		this.nElements = 0;
+	}
+
+	private double dot() {
+		double[] b = buffer;
+		double[] r = reversed;
+		int i = indexOldest;
+		switch (length) {
+			case 3:
+				return r[0] * b[i] + r[1] * b[i + 1] + r[2] * b[i + 2];
+			case 5:
+				return r[0] * b[i] + r[1] * b[i + 1] + r[2] * b[i + 2]
+					+ r[3] * b[i + 3] + r[4] * b[i + 4];
+			default:
+				double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+				int k = 0;
+				for (; k+3<length; k+=4) {
+					s0 += r[k] * b[i + k];
+					s1 += r[k + 1] * b[i + k + 1];
+					s2 += r[k + 2] * b[i + k + 2];
+					s3 += r[k + 3] * b[i + k + 3];
+				}
+				for (; k<length; k++) {
+					s0 += r[k] * b[i + k];
+				}
+				return (s0 + s1) + (s2 + s3);
+		}
+	}
+
+	@Override
+	public void next(double item, DoubleSink sink) {
+		buffer[indexOldest] = item;
+		buffer[indexOldest + length] = item;
+		indexOldest += 1;
+		if (indexOldest == length) {
+			indexOldest = 0;
+		}
+		if (nElements < threshold) {
+			nElements += 1;
+		}
+		if (nElements == threshold) {
+			sink.next(dot());
+		}
+	}
+
+	@Override
+	public void end(DoubleSink sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeInt(nElements);
+		for (int i=0; i<length; i++) { // oldest first, padding included
+			out.writeDouble(buffer[indexOldest + i]);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		nElements = in.readInt();
+		indexOldest = 0;
+		for (int i=0; i<length; i++) {
+			buffer[i] = buffer[i + length] = in.readDouble();
+		}
+	}
+
+}
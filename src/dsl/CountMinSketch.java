@@ -0,0 +1,72 @@
+package dsl;
+
+import java.io.Serializable;
+
+// Count-Min sketch (Cormode & Muthukrishnan): approximate counts of items
+// in depth x width counters. An estimate is never below the true count
+// and exceeds it by at most 2N/width (N = total count) with probability
+// 1 - 2^-depth. The rows are indexed by double hashing (h1 + i*h2) of the
+// 64-bit hash of the item. Sketches of the same dimensions are merged by
+// adding the counters.
+
+public class CountMinSketch implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int width;
+	private final int depth;
+	private final long[] counters; // row-major
+	private long total;
+
+	public CountMinSketch(int width, int depth) {
+		if (width < 1 || depth < 1) {
+			throw new IllegalArgumentException("width and depth should be >= 1");
+		}
+		this.width = width;
+		this.depth = depth;
+		this.counters = new long[width * depth];
+	}
+
+	private int index(long h, int row) {
+		int h1 = (int) h, h2 = (int) (h >>> 32);
+		return row * width + Math.floorMod(h1 + row * h2, width);
+	}
+
+	// Adds count occurrences of the item and returns its new estimate.
+	public long add(Object item, long count) {
+		long h = Hash.of(item);
+		long estimate = Long.MAX_VALUE;
+		for (int row=0; row<depth; row++) {
+			int i = index(h, row);
+			counters[i] += count;
+			estimate = Math.min(estimate, counters[i]);
+		}
+		total += count;
+		return estimate;
+	}
+
+	public long estimate(Object item) {
+		long h = Hash.of(item);
+		long estimate = Long.MAX_VALUE;
+		for (int row=0; row<depth; row++) {
+			estimate = Math.min(estimate, counters[index(h, row)]);
+		}
+		return estimate;
+	}
+
+	public long total() {
+		return total;
+	}
+
+	public CountMinSketch merge(CountMinSketch other) {
+		if (other.width != width || other.depth != depth) {
+			throw new IllegalArgumentException("cannot merge sketches of different dimensions");
+		}
+		for (int i=0; i<counters.length; i++) {
+			counters[i] += other.counters[i];
+		}
+		total += other.total;
+		return this;
+	}
+
+}
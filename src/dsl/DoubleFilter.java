@@ -0,0 +1,32 @@
+package dsl;
+
+import java.util.function.DoublePredicate;
+
+// Filter out elements that falsify the given predicate (doubles).
+
+public class DoubleFilter implements DoubleQuery<DoubleSink>, Stateless {
+
+	private final DoublePredicate pred;
+
+	public DoubleFilter(DoublePredicate pred) {
+		this.pred = pred;
+	}
+
+	@Override
+	public void start(DoubleSink sink) {
+		// nothing to do
+	}
+
+	@Override
+	public void next(double item, DoubleSink sink) {
+		if (pred.test(item)) {
+			sink.next(item);
+		}
+	}
+
+	@Override
+	public void end(DoubleSink sink) {
+		sink.end();
+	}
+	
+}
@@ -0,0 +1,30 @@
+package dsl;
+
+import java.util.function.DoubleUnaryOperator;
+
+// Apply a function elementwise (double -> double).
+
+public class DoubleMap implements DoubleQuery<DoubleSink>, Stateless {
+
+	private final DoubleUnaryOperator op;
+
+	public DoubleMap(DoubleUnaryOperator op) {
+		this.op = op;
+	}
+
+	@Override
+	public void start(DoubleSink sink) {
+		// nothing to do
+	}
+
+	@Override
+	public void next(double item, DoubleSink sink) {
+		sink.next(op.applyAsDouble(item));
+	}
+
+	@Override
+	public void end(DoubleSink sink) {
+		sink.end();
+	}
+	
+}
@@ -0,0 +1,117 @@
+package dsl;
+
+// Sliding-window sum, mean and sum of squares over primitive doubles.
+//
+// The buffer is a double[] ring and nothing is allocated per item. The
+// running sum is kept with Neumaier's compensated summation, and it is
+// recomputed exactly from the buffer every time the ring wraps around
+// (every wndSize items, so amortized O(1) per item). The rounding error
+// therefore stays bounded however long the stream is, instead of drifting
+// with every add/subtract pair.
+//
+// A plain window emits when it holds wndSize items (like SWindowInv). A
+// centered window (like ecg.CenteredSlidingWindow) treats the stream as
+// preceded by wndSize/2 zeros: the k-th output is the aggregate of the
+// items k-wndSize/2 .. k+wndSize/2, and the last wndSize/2 outputs are
+// not emitted. MEAN always divides by wndSize.
+
+public class DoubleSWindow implements DoubleQuery<DoubleSink> {
+
+	public enum Kind { SUM, MEAN, SUM_SQ }
+
+	private final int wndSize; // window size
+	private final Kind kind;
+	private final int threshold; // number of items before the first output
+	private final double[] buffer; // the summands (x, or x*x for SUM_SQ)
+	private double sum;
+	private double compensation; // low-order bits lost from 'sum'
+	private int indexOldest; // index to oldest element
+	private int nElements; // number of elements in buffer
+
+	public DoubleSWindow(int wndSize, Kind kind, boolean centered) {
+		if (wndSize < 1) {
+			throw new IllegalArgumentException("window size should be >= 1");
+		}
+		this.wndSize = wndSize;
+		this.kind = kind;
+		this.threshold = centered ? wndSize / 2 + 1 : wndSize;
+		this.buffer = new double[wndSize];
+	}
+
+	@Override
+	public void start(DoubleSink sink) {
+		this.sum = 0.0;
+		this.compensation = 0.0;
+		this.indexOldest = 0;
+		this.nElements = 0;
+	}
+
+	private void add(double x) {
+		double t = sum + x;
+		if (Math.abs(sum) >= Math.abs(x)) {
+			compensation += (sum - t) + x;
+		} else {
+			compensation += (x - t) + sum;
+		}
+		sum = t;
+	}
+
+	private void recompute() {
+		sum = 0.0;
+		compensation = 0.0;
+		for (double x : buffer) {
+			add(x);
+		}
+	}
+
+	@Override
+	public void next(double item, DoubleSink sink) {
+		double x = kind == Kind.SUM_SQ ? item * item : item;
+		if (nElements == wndSize) {
+			add(-buffer[indexOldest]);
+			buffer[indexOldest] = x;
+			indexOldest += 1;
+			if (indexOldest == wndSize) {
+				indexOldest = 0;
+				recompute();
+			} else {
+				add(x);
+			}
+		} else { // nElements < wndSize
+			buffer[nElements] = x;
+			nElements += 1;
+			add(x);
+		}
+		if (nElements >= threshold) {
+			double s = sum + compensation;
+			sink.next(kind == Kind.MEAN ? s / wndSize : s);
+		}
+	}
+
+	@Override
+	public void end(DoubleSink sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeInt(nElements);
+		for (int i=0; i<nElements; i++) { // oldest first
+			out.writeDouble(buffer[(indexOldest + i) % wndSize]);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		start(null);
+		nElements = in.readInt();
+		for (int i=0; i<nElements; i++) {
+			buffer[i] = in.readDouble();
+		}
+		for (int i=nElements; i<wndSize; i++) {
+			buffer[i] = 0.0;
+		}
+		recompute();
+	}
+
+}
@@ -0,0 +1,94 @@
+package dsl;
+
+// Sliding-window max (or min) over doubles, with the same monotonic deque
+// as SWindowExtreme but without items: amortized O(1) per item and no
+// allocation.
+
+public class DoubleSWindowExtreme implements DoubleQuery<DoubleSink> {
+
+	private final int wndSize; // window size
+	private final boolean max;
+	private final double[] values;
+	private final long[] positions;
+	private int head; // index of the front of the deque
+	private int count; // number of candidates in the deque
+	private long position; // position of the next item
+
+	public DoubleSWindowExtreme(int wndSize, boolean max) {
+		if (wndSize < 1) {
+			throw new IllegalArgumentException("window size should be >= 1");
+		}
+		this.wndSize = wndSize;
+		this.max = max;
+		this.values = new double[wndSize];
+		this.positions = new long[wndSize];
+	}
+
+	@Override
+	public void start(DoubleSink sink) {
+		head = 0;
+		count = 0;
+		position = 0;
+	}
+
+	@Override
+	public void next(double item, DoubleSink sink) {
+		if (count > 0 && positions[head] <= position - wndSize) { // slid out
+			head += 1;
+			if (head == wndSize) {
+				head = 0;
+			}
+			count -= 1;
+		}
+		while (count > 0) {
+			int back = head + count - 1;
+			if (back >= wndSize) {
+				back -= wndSize;
+			}
+			if (max ? values[back] < item : values[back] > item) {
+				count -= 1;
+			} else {
+				break;
+			}
+		}
+		int tail = head + count;
+		if (tail >= wndSize) {
+			tail -= wndSize;
+		}
+		values[tail] = item;
+		positions[tail] = position;
+		count += 1;
+		position += 1;
+		if (position >= wndSize) {
+			sink.next(values[head]);
+		}
+	}
+
+	@Override
+	public void end(DoubleSink sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeLong(position);
+		out.writeInt(count);
+		for (int i=0; i<count; i++) { // front first
+			int index = (head + i) % wndSize;
+			out.writeLong(positions[index]);
+			out.writeDouble(values[index]);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		head = 0;
+		position = in.readLong();
+		count = in.readInt();
+		for (int i=0; i<count; i++) {
+			positions[i] = in.readLong();
+			values[i] = in.readDouble();
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package dsl;
+
+import java.util.function.DoubleBinaryOperator;
+
+// Sliding-window aggregation over doubles with an invertible aggregate.
+// Same algorithm as SWindowInv, but the buffer is a double[].
+
+public class DoubleSWindowInv implements DoubleQuery<DoubleSink> {
+
+	private final double init;
+	private final DoubleBinaryOperator insert;
+	private final DoubleBinaryOperator remove;
+	private final int wndSize; // window size
+	private final double[] buffer;
+	private double agg; // current aggregate
+	private int indexOldest; // index to oldest element
+	private int nElements; // number of elements in buffer
+
+	public DoubleSWindowInv
+	(int wndSize, double init, DoubleBinaryOperator insert, DoubleBinaryOperator remove)
+	{
+		if (wndSize < 1) {
+			throw new IllegalArgumentException("window size should be >= 1");
+		}
+		this.init = init;
+		this.insert = insert;
+		this.remove = remove;
+		this.wndSize = wndSize;
+		this.buffer = new double[wndSize];
+		this.agg = init;
+		this.indexOldest = 0;
+		this.nElements = 0;
+	}
+
+	@Override
+	public void start(DoubleSink sink) {
+		this.agg = init;
+		this.indexOldest = 0;
+		this.nElements = 0;
+	}
+
+	@Override
+	public void next(double item, DoubleSink sink) {
+		if (nElements == wndSize) {
+			agg = remove.applyAsDouble(agg, buffer[indexOldest]);
+			buffer[indexOldest] = item;
+			indexOldest = (indexOldest + 1) % wndSize;
+			agg = insert.applyAsDouble(agg, item);
+		} else { // nElements < wndSize
+			buffer[nElements] = item;
+			nElements += 1;
+			agg = insert.applyAsDouble(agg, item);
+		}
+		if (nElements == wndSize) {
+			sink.next(agg);
+		}
+	}
+
+	@Override
+	public void end(DoubleSink sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeDouble(agg);
+		out.writeInt(nElements);
+		for (int i=0; i<nElements; i++) { // oldest first
+			out.writeDouble(buffer[(indexOldest + i) % wndSize]);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		agg = in.readDouble();
+		nElements = in.readInt();
+		indexOldest = 0;
+		for (int i=0; i<nElements; i++) {
+			buffer[i] = in.readDouble();
+		}
+	}
+
+}
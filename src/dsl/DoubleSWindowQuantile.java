@@ -0,0 +1,101 @@
+package dsl;
+
+// Sliding-window quantiles over doubles. The window is a double[] ring
+// and its items are also kept in an OrderStatisticTree, so every item
+// costs O(log wndSize) (one delete, one insert and a select per
+// quantile) instead of re-sorting the window. Emits when the window is
+// full, as SWindowInv does.
+//
+// The quantiles use linear interpolation between the closest ranks (for
+// an even window, the median is the mean of the two middle items).
+// With several quantiles, the outputs for one item are emitted one after
+// the other, in the order of the quantiles.
+
+public class DoubleSWindowQuantile implements DoubleQuery<DoubleSink> {
+
+	private final int wndSize; // window size
+	private final double[] quantiles;
+	private final double[] buffer;
+	private final OrderStatisticTree tree;
+	private int indexOldest; // index to oldest element
+	private int nElements; // number of elements in buffer
+
+	public DoubleSWindowQuantile(int wndSize, double... quantiles) {
+		if (wndSize < 1) {
+			throw new IllegalArgumentException("window size should be >= 1");
+		}
+		for (double q : quantiles) {
+			if (!(q >= 0.0 && q <= 1.0)) {
+				throw new IllegalArgumentException("quantiles should be in [0, 1]");
+			}
+		}
+		this.wndSize = wndSize;
+		this.quantiles = quantiles.clone();
+		this.buffer = new double[wndSize];
+		this.tree = new OrderStatisticTree(wndSize);
+	}
+
+	@Override
+	public void start(DoubleSink sink) {
+		tree.clear();
+		indexOldest = 0;
+		nElements = 0;
+	}
+
+	int nElements() {
+		return nElements;
+	}
+
+	// Adds the item to the window; true if the window is full.
+	boolean add(double item) {
+		if (nElements == wndSize) {
+			tree.delete(buffer[indexOldest]);
+			buffer[indexOldest] = item;
+			indexOldest += 1;
+			if (indexOldest == wndSize) {
+				indexOldest = 0;
+			}
+		} else {
+			buffer[nElements] = item;
+			nElements += 1;
+		}
+		tree.insert(item);
+		return nElements == wndSize;
+	}
+
+	double quantile(int i) {
+		return tree.quantile(quantiles[i]);
+	}
+
+	@Override
+	public void next(double item, DoubleSink sink) {
+		if (add(item)) {
+			for (double q : quantiles) {
+				sink.next(tree.quantile(q));
+			}
+		}
+	}
+
+	@Override
+	public void end(DoubleSink sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeInt(nElements);
+		for (int i=0; i<nElements; i++) { // oldest first
+			out.writeDouble(buffer[(indexOldest + i) % wndSize]);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		start(null);
+		int n = in.readInt();
+		for (int i=0; i<n; i++) {
+			add(in.readDouble());
+		}
+	}
+
+}
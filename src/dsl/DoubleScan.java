@@ -0,0 +1,44 @@
+package dsl;
+
+import java.util.function.DoubleBinaryOperator;
+
+// Running aggregation of doubles (one output item per input item).
+
+public class DoubleScan implements DoubleQuery<DoubleSink> {
+
+	private final double init;
+	private final DoubleBinaryOperator op;
+	private double agg; // current aggregate
+
+	public DoubleScan(double init, DoubleBinaryOperator op) {
+		this.init = init;
+		this.op = op;
+	}
+
+	@Override
+	public void start(DoubleSink sink) {
+		this.agg = init;
+	}
+
+	@Override
+	public void next(double item, DoubleSink sink) {
+		agg = op.applyAsDouble(agg, item);
+		sink.next(agg);
+	}
+
+	@Override
+	public void end(DoubleSink sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeDouble(agg);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		agg = in.readDouble();
+	}
+
+}
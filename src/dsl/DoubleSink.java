@@ -0,0 +1,8 @@
+package dsl;
+
+// A sink for a stream of primitive doubles (no boxing).
+
+public interface DoubleSink {
+	void next(double item);
+	void end();
+}
@@ -0,0 +1,130 @@
+package dsl;
+
+// A statistic (RunningStats.Stat) of a stream of doubles:
+//
+// - FOLD emits the statistic of the whole stream when it ends,
+// - SCAN emits the statistic of the prefix after every item,
+// - SLIDING emits the statistic of the last wndSize items once it holds
+//   wndSize items (like SWindowInv).
+//
+// The RunningStats is updated in place, so nothing is allocated per item.
+// In SLIDING mode the items are kept in a double[] ring and removed from
+// the statistics when they slide out; as in DoubleSWindow, the statistics
+// are recomputed from the ring every time it wraps around so that the
+// rounding error of the add/remove pairs does not accumulate. MIN and MAX
+// cannot be removed and are not supported in SLIDING mode (see
+// DoubleSWindowExtreme).
+
+public class DoubleStats implements DoubleQuery<DoubleSink> {
+
+	public enum Mode { FOLD, SCAN, SLIDING }
+
+	private final Mode mode;
+	private final RunningStats.Stat stat;
+	private final int wndSize; // window size (SLIDING)
+	private final double[] buffer; // the window (SLIDING)
+	private final RunningStats stats = new RunningStats();
+	private int indexOldest; // index to oldest element
+	private int nElements; // number of elements in buffer
+
+	public DoubleStats(Mode mode, RunningStats.Stat stat) {
+		this(mode, stat, 0);
+	}
+
+	public DoubleStats(Mode mode, RunningStats.Stat stat, int wndSize) {
+		if (mode == Mode.SLIDING) {
+			if (wndSize < 1) {
+				throw new IllegalArgumentException("window size should be >= 1");
+			}
+			if (stat == RunningStats.Stat.MIN || stat == RunningStats.Stat.MAX) {
+				throw new IllegalArgumentException(stat + " is not supported over a sliding window");
+			}
+		}
+		this.mode = mode;
+		this.stat = stat;
+		this.wndSize = wndSize;
+		this.buffer = mode == Mode.SLIDING ? new double[wndSize] : null;
+	}
+
+	@Override
+	public void start(DoubleSink sink) {
+		stats.reset();
+		indexOldest = 0;
+		nElements = 0;
+	}
+
+	private void recompute() {
+		stats.reset();
+		for (double x : buffer) {
+			stats.add(x);
+		}
+	}
+
+	@Override
+	public void next(double item, DoubleSink sink) {
+		switch (mode) {
+		case FOLD:
+			stats.add(item);
+			break;
+		case SCAN:
+			stats.add(item);
+			sink.next(stat.of(stats));
+			break;
+		case SLIDING:
+			if (nElements == wndSize) {
+				stats.remove(buffer[indexOldest]);
+				buffer[indexOldest] = item;
+				indexOldest += 1;
+				if (indexOldest == wndSize) {
+					indexOldest = 0;
+					recompute();
+				} else {
+					stats.add(item);
+				}
+			} else { // nElements < wndSize
+				buffer[nElements] = item;
+				nElements += 1;
+				stats.add(item);
+			}
+			if (nElements == wndSize) {
+				sink.next(stat.of(stats));
+			}
+			break;
+		}
+	}
+
+	@Override
+	public void end(DoubleSink sink) {
+		if (mode == Mode.FOLD) {
+			sink.next(stat.of(stats));
+		}
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		if (mode != Mode.SLIDING) {
+			stats.snapshot(out);
+			return;
+		}
+		out.writeInt(nElements);
+		for (int i=0; i<nElements; i++) { // oldest first
+			out.writeDouble(buffer[(indexOldest + i) % wndSize]);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		start(null);
+		if (mode != Mode.SLIDING) {
+			stats.restore(in);
+			return;
+		}
+		nElements = in.readInt();
+		for (int i=0; i<nElements; i++) {
+			buffer[i] = in.readDouble();
+			stats.add(buffer[i]);
+		}
+	}
+
+}
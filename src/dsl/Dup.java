@@ -1,8 +1,12 @@
 package dsl;
 
+import java.util.Arrays;
+
 // Duplicate each input item.
 
-public class Dup<A> implements Query<A,A> {
+public class Dup<A> implements Query<A,A>, Stateless {
+
+	private Object[] out; // scratch buffer for nextBatch
 
 	public Dup() {
 		// nothing to do
@@ -19,6 +23,21 @@ public class Dup<A> implements Query<A,A> {
 		sink.next(item);
 	}
 
+	@Override
+	public void nextBatch(Object[] items, int from, int to, Sink<A> sink) {
+		int n = to - from;
+		if (out == null || out.length < 2*n) {
+			out = new Object[2*n];
+		}
+		for (int i=0; i<n; i++) {
+			Object item = items[from + i];
+			out[2*i] = item;
+			out[2*i + 1] = item;
+		}
+		sink.nextBatch(out, 0, 2*n);
+		Arrays.fill(out, 0, 2*n, null);
+	}
+
 	@Override
 	public void end(Sink<A> sink) {
 		sink.end();
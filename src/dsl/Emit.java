@@ -3,7 +3,7 @@ package dsl;
 // Emit a value in the beginning (n times) and then echo
 // the input stream.
 
-public class Emit<A> implements Query<A,A> {
+public class Emit<A> implements Query<A,A>, Stateless {
 
 	private final int n;
 	private final A value;
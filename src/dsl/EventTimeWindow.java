@@ -0,0 +1,199 @@
+package dsl;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.function.ToLongFunction;
+
+import utils.Pair;
+import utils.functions.Func2;
+
+// Event-time sliding (and, with slide == size, tumbling) windows.
+//
+// The windows are [s, s + size) for every multiple s of 'slide'. An item
+// with timestamp t is folded into every window that contains t, in any
+// order of arrival; with slide > size, an item in a gap between windows
+// belongs to none and is ignored. A window fires, emitting (s, aggregate), when the
+// watermark reaches its end s + size. Windows without items do not fire.
+//
+// Late items: a window is kept for 'allowedLateness' time units after it
+// fires. An item for a window that has fired but is still kept updates it,
+// and the window fires again with the new aggregate. An item for a window
+// that is no longer kept is dropped (see dropped()). The windows that are
+// still open when the stream ends fire in order before the end.
+//
+// The state is bounded by the windows between the watermark minus the
+// allowed lateness and the newest timestamp, so out-of-order feeds do not
+// have to be sorted upstream.
+//
+// The window arithmetic does not overflow: a window that would start
+// before Long.MIN_VALUE is ignored, and one that would end (or expire)
+// after Long.MAX_VALUE never ends (or expires).
+
+public class EventTimeWindow<A,B> implements Query<A,Pair<Long,B>>, Buffered {
+
+	private static class Window<B> {
+		B agg;
+		boolean fired;
+
+		Window(B agg) {
+			this.agg = agg;
+		}
+	}
+
+	private final ToLongFunction<A> timestamp;
+	private final long size;
+	private final long slide;
+	private final long allowedLateness;
+	private final B init;
+	private final Func2<B,A,B> op;
+	private final TreeMap<Long,Window<B>> windows; // by start
+	private long watermark;
+	private long dropped;
+
+	public EventTimeWindow(ToLongFunction<A> timestamp, long size, long slide,
+						   long allowedLateness, B init, Func2<B,A,B> op)
+	{
+		if (size < 1 || slide < 1 || allowedLateness < 0) {
+			throw new IllegalArgumentException("size and slide should be >= 1, allowedLateness >= 0");
+		}
+		this.timestamp = timestamp;
+		this.size = size;
+		this.slide = slide;
+		this.allowedLateness = allowedLateness;
+		this.init = init;
+		this.op = op;
+		this.windows = new TreeMap<>();
+	}
+
+	// Number of late items that were dropped, because all the windows
+	// containing them had expired.
+	public long dropped() {
+		return dropped;
+	}
+
+	// Number of windows kept.
+	@Override
+	public int buffered() {
+		return windows.size();
+	}
+
+	@Override
+	public void start(Sink<Pair<Long,B>> sink) {
+		windows.clear();
+		watermark = Long.MIN_VALUE;
+		dropped = 0;
+	}
+
+	@Override
+	public void next(A item, Sink<Pair<Long,B>> sink) {
+		long ts = timestamp.applyAsLong(item);
+		// the windows containing ts start at ts - d, for d = ts mod slide,
+		// d + slide, ... < size
+		boolean used = false;
+		boolean late = false;
+		for (long d=Math.floorMod(ts, slide); d<size && ts>=Long.MIN_VALUE+d; d+=slide) {
+			long s = ts - d;
+			if (expired(s)) {
+				late = true;
+				break; // the older windows have expired too
+			}
+			used = true;
+			Window<B> w = windows.get(s);
+			if (w == null) {
+				w = new Window<>(init);
+				windows.put(s, w);
+			}
+			w.agg = op.apply(w.agg, item);
+			if (w.fired || ended(s)) { // late, but within the allowed lateness
+				w.fired = true;
+				sink.next(Pair.from(s, w.agg));
+			}
+			if (slide > Long.MAX_VALUE - d) {
+				break; // d + slide would overflow, and is >= size anyway
+			}
+		}
+		if (late && !used) {
+			dropped += 1;
+		}
+	}
+
+	private boolean ended(long start) {
+		return reached(start, size);
+	}
+
+	private boolean expired(long start) {
+		long keep = size + allowedLateness;
+		return reached(start, keep < 0 ? Long.MAX_VALUE : keep);
+	}
+
+	// Whether the watermark has reached start + delay (delay >= 0). The sum
+	// only overflows upwards, and a time after Long.MAX_VALUE is never reached.
+	private boolean reached(long start, long delay) {
+		long t = start + delay;
+		return t >= start && t <= watermark;
+	}
+
+	@Override
+	public void watermark(long ts, Sink<Pair<Long,B>> sink) {
+		if (ts <= watermark) {
+			return;
+		}
+		watermark = ts;
+		Iterator<Entry<Long,Window<B>>> it = windows.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<Long,Window<B>> e = it.next();
+			long s = e.getKey();
+			if (!ended(s)) {
+				break; // this window (and the later ones) have not ended
+			}
+			Window<B> w = e.getValue();
+			if (!w.fired) {
+				w.fired = true;
+				sink.next(Pair.from(s, w.agg));
+			}
+			if (expired(s)) {
+				it.remove();
+			}
+		}
+		sink.watermark(ts);
+	}
+
+	@Override
+	public void end(Sink<Pair<Long,B>> sink) {
+		for (Entry<Long,Window<B>> e : windows.entrySet()) {
+			if (!e.getValue().fired) {
+				sink.next(Pair.from(e.getKey(), e.getValue().agg));
+			}
+		}
+		windows.clear();
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeLong(watermark);
+		out.writeLong(dropped);
+		out.writeInt(windows.size());
+		for (Entry<Long,Window<B>> e : windows.entrySet()) {
+			out.writeLong(e.getKey());
+			out.writeObject(e.getValue().agg);
+			out.writeBoolean(e.getValue().fired);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		watermark = in.readLong();
+		dropped = in.readLong();
+		windows.clear();
+		int n = in.readInt();
+		for (int i=0; i<n; i++) {
+			long s = in.readLong();
+			Window<B> w = new Window<>(in.readObject());
+			w.fired = in.readBoolean();
+			windows.put(s, w);
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+package dsl;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.DecimalFormat;
+
+// What an execution of a query cost.
+//
+// CPU time and allocated bytes are those of the calling thread (-1 if the
+// JVM cannot measure them); the GC numbers cover the whole JVM during the
+// run. Individual items are not timed: batchLatency has one sample per
+// batch, the mean processing time of the items in that batch, so its
+// percentiles are over batches and hide the spread within a batch. It is
+// empty when the items could not be timed. outputItems is -1 when the sink
+// could not be observed.
+
+public class ExecutionStats {
+
+	public final long inputItems;
+	public final long outputItems;
+	public final long wallNanos;
+	public final long cpuNanos;
+	public final long allocatedBytes;
+	public final long gcCount;
+	public final long gcMillis;
+	public final LatencyHistogram batchLatency;
+
+	ExecutionStats(long inputItems, long outputItems, long wallNanos, long cpuNanos,
+				   long allocatedBytes, long gcCount, long gcMillis, LatencyHistogram batchLatency)
+	{
+		this.inputItems = inputItems;
+		this.outputItems = outputItems;
+		this.wallNanos = wallNanos;
+		this.cpuNanos = cpuNanos;
+		this.allocatedBytes = allocatedBytes;
+		this.gcCount = gcCount;
+		this.gcMillis = gcMillis;
+		this.batchLatency = batchLatency;
+	}
+
+	// Input items per second.
+	public long throughput() {
+		return wallNanos == 0 ? 0 : (inputItems * 1000L * 1000 * 1000) / wallNanos;
+	}
+
+	public ExecutionStats print() {
+		DecimalFormat formatter = new DecimalFormat("#,###");
+		System.out.println("duration = " + formatter.format(wallNanos / 1_000_000) + " msec");
+		System.out.println("throughput = " + formatter.format(throughput()) + " tuples/sec");
+		if (cpuNanos >= 0) {
+			System.out.println("cpu time = " + formatter.format(cpuNanos / 1_000_000) + " msec");
+		}
+		if (allocatedBytes >= 0) {
+			System.out.println("allocated = " + formatter.format(allocatedBytes) + " bytes");
+		}
+		System.out.println("gc = " + gcCount + " collections, " + formatter.format(gcMillis) + " msec");
+		if (batchLatency.count() > 0) {
+			System.out.println("mean latency per batch = p50 " + batchLatency.percentile(0.5) +
+				", p99 " + batchLatency.percentile(0.99) + ", max " + batchLatency.max() + " nsec/item");
+		}
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "{ inputItems: " + inputItems + ", outputItems: " + outputItems +
+			", wallNanos: " + wallNanos + ", cpuNanos: " + cpuNanos +
+			", allocatedBytes: " + allocatedBytes + ", gcCount: " + gcCount +
+			", gcMillis: " + gcMillis + ", batchLatency: " + batchLatency + " }";
+	}
+
+	public static Meter start() {
+		return new Meter();
+	}
+
+	// Measures one execution on the calling thread: start() ... stop().
+	public static class Meter {
+
+		private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		private final LatencyHistogram batchLatency = new LatencyHistogram();
+		private final long startWall;
+		private final long startCpu;
+		private final long startAllocated;
+		private final long startGcCount;
+		private final long startGcMillis;
+		private long last;
+		private long inputs = 0;
+		private long outputs = -1;
+
+		private Meter() {
+			startGcCount = gcCount();
+			startGcMillis = gcMillis();
+			startAllocated = allocatedBytes();
+			startCpu = cpuNanos();
+			startWall = System.nanoTime();
+			last = startWall;
+		}
+
+		private static long cpuNanos() {
+			return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+		}
+
+		private static long allocatedBytes() {
+			if (threads instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+				if (t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled()) {
+					return t.getCurrentThreadAllocatedBytes();
+				}
+			}
+			return -1;
+		}
+
+		private static long gcCount() {
+			long n = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				n += Math.max(0, gc.getCollectionCount());
+			}
+			return n;
+		}
+
+		private static long gcMillis() {
+			long n = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				n += Math.max(0, gc.getCollectionTime());
+			}
+			return n;
+		}
+
+		// Counts the items that reach the sink.
+		public <B> Sink<B> count(Sink<B> sink) {
+			outputs = 0;
+			return new Sink<B>() {
+				@Override
+				public void next(B item) {
+					outputs += 1;
+					sink.next(item);
+				}
+
+				@Override
+				public void nextBatch(Object[] items, int from, int to) {
+					outputs += to - from;
+					sink.nextBatch(items, from, to);
+				}
+
+				@Override
+				public void watermark(long ts) {
+					sink.watermark(ts);
+				}
+
+				@Override
+				public void end() {
+					sink.end();
+				}
+			};
+		}
+
+		// Starts timing the next items (to leave out, e.g., reading them).
+		public void mark() {
+			last = System.nanoTime();
+		}
+
+		// A batch of k more input items has been processed since the last
+		// call of items() or mark().
+		public void items(long k) {
+			long now = System.nanoTime();
+			if (k > 0) {
+				batchLatency.record((now - last) / k);
+			}
+			last = now;
+			inputs += k;
+		}
+
+		// Counts k input items without timing them.
+		public void untimed(long k) {
+			inputs += k;
+		}
+
+		public ExecutionStats stop() {
+			long wall = System.nanoTime() - startWall;
+			long cpu = cpuNanos();
+			long allocated = allocatedBytes();
+			return new ExecutionStats(inputs, outputs, wall,
+				startCpu < 0 ? -1 : cpu - startCpu,
+				startAllocated < 0 ? -1 : allocated - startAllocated,
+				gcCount() - startGcCount, gcMillis() - startGcMillis, batchLatency);
+		}
+
+	}
+
+}
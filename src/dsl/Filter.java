@@ -1,17 +1,23 @@
 package dsl;
 
+import java.util.Arrays;
 import java.util.function.Predicate;
 
 // Filter out elements that falsify the given predicate.
 
-public class Filter<A> implements Query<A,A> {
+public class Filter<A> implements Query<A,A>, Stateless {
 
 	private final Predicate<A> pred;
+	private Object[] out; // scratch buffer for nextBatch
 
 	public Filter(Predicate<A> pred) {
 		this.pred = pred;
 	}
 
+	Predicate<A> pred() {
+		return pred;
+	}
+
 	@Override
 	public void start(Sink<A> sink) {
 		// nothing to do
@@ -24,6 +30,26 @@ public class Filter<A> implements Query<A,A> {
 		}
 	}
 
+	@Override
+	@SuppressWarnings("unchecked")
+	public void nextBatch(Object[] items, int from, int to, Sink<A> sink) {
+		int n = to - from;
+		if (out == null || out.length < n) {
+			out = new Object[n];
+		}
+		int k = 0;
+		for (int i=from; i<to; i++) {
+			A item = (A) items[i];
+			if (pred.test(item)) {
+				out[k++] = item;
+			}
+		}
+		if (k > 0) {
+			sink.nextBatch(out, 0, k);
+			Arrays.fill(out, 0, k, null);
+		}
+	}
+
 	@Override
 	public void end(Sink<A> sink) {
 		sink.end();
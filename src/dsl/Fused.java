@@ -0,0 +1,80 @@
+package dsl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// A run of maps and filters evaluated as one stage. The steps are composed
+// into a single function once, so an item makes one call per step and
+// none between them.
+
+public class Fused<A,B> implements Query<A,B>, Stateless {
+
+	// Returned by the composed function for items that a filter dropped.
+	private static final Object DROP = new Object();
+
+	private final List<Object> steps;
+	private final Function<Object,Object> fn;
+	private Object[] out; // scratch buffer for nextBatch
+
+	// Each step is a Function (map) or a Predicate (filter).
+	public Fused(List<Object> steps) {
+		Function<Object,Object> rest = x -> x;
+		for (int i=steps.size()-1; i>=0; i--) {
+			Object step = steps.get(i);
+			Function<Object,Object> r = rest;
+			if (step instanceof Function) {
+				Function<Object,Object> f = Plan.cast(step);
+				rest = (i == steps.size() - 1) ? f : x -> r.apply(f.apply(x));
+			} else {
+				Predicate<Object> p = Plan.cast(step);
+				rest = x -> p.test(x) ? r.apply(x) : DROP;
+			}
+		}
+		this.steps = List.copyOf(steps);
+		this.fn = rest;
+	}
+
+	List<Object> steps() {
+		return steps;
+	}
+
+	@Override
+	public void start(Sink<B> sink) {
+		// nothing to do
+	}
+
+	@Override
+	public void next(A item, Sink<B> sink) {
+		Object y = fn.apply(item);
+		if (y != DROP) {
+			sink.next(Plan.cast(y));
+		}
+	}
+
+	@Override
+	public void nextBatch(Object[] items, int from, int to, Sink<B> sink) {
+		int n = to - from;
+		if (out == null || out.length < n) {
+			out = new Object[n];
+		}
+		int k = 0;
+		for (int i=from; i<to; i++) {
+			Object y = fn.apply(items[i]);
+			if (y != DROP) {
+				out[k++] = y;
+			}
+		}
+		if (k > 0) {
+			sink.nextBatch(out, 0, k);
+			Arrays.fill(out, 0, k, null);
+		}
+	}
+
+	@Override
+	public void end(Sink<B> sink) {
+		sink.end();
+	}
+
+}
@@ -0,0 +1,26 @@
+package dsl;
+
+// 64-bit hashing for the sketches: the hashCode of an item is spread over
+// 64 bits with the finalizer of MurmurHash3, so that nearby hash codes
+// (e.g. of small Integers) give unrelated bits.
+
+final class Hash {
+
+	private Hash() {
+
+	}
+
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	static long of(Object item) {
+		return mix(item == null ? 0 : item.hashCode() + 0x9e3779b97f4a7c15L);
+	}
+
+}
@@ -0,0 +1,103 @@
+package dsl;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import utils.Pair;
+
+// The (approximately) k most frequent items: the counts are estimated by
+// a CountMinSketch, and the k items with the highest estimates seen so far
+// are kept as candidates. Memory is fixed (the sketch plus k candidates)
+// however many distinct items there are. An item that is more frequent
+// than the k-th candidate displaces it. Finding the new k-th candidate is
+// O(k); it is needed only when the candidates change or the k-th one
+// occurs again.
+
+public class HeavyHitters<K> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int k;
+	private final CountMinSketch sketch;
+	private final HashMap<K, Long> candidates = new HashMap<>();
+	@SuppressWarnings("serial") // the keys must be Serializable for a checkpoint
+	private K minKey; // candidate with the lowest estimate
+	private long minCount;
+
+	public HeavyHitters(int k, int width, int depth) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k should be >= 1");
+		}
+		this.k = k;
+		this.sketch = new CountMinSketch(width, depth);
+	}
+
+	public HeavyHitters<K> add(K item) {
+		offer(item, sketch.add(item, 1));
+		return this;
+	}
+
+	private void offer(K item, long estimate) {
+		if (candidates.containsKey(item)) {
+			candidates.put(item, estimate);
+			if (Objects.equals(item, minKey)) {
+				findMin();
+			}
+		} else if (candidates.size() < k) {
+			candidates.put(item, estimate);
+			if (minKey == null || estimate < minCount) {
+				minKey = item;
+				minCount = estimate;
+			}
+		} else if (estimate > minCount) {
+			candidates.remove(minKey);
+			candidates.put(item, estimate);
+			findMin();
+		}
+	}
+
+	private void findMin() {
+		minKey = null;
+		for (Entry<K, Long> e : candidates.entrySet()) {
+			if (minKey == null || e.getValue() < minCount) {
+				minKey = e.getKey();
+				minCount = e.getValue();
+			}
+		}
+	}
+
+	// Merges the sketches and re-ranks the candidates of both with the
+	// merged counts.
+	public HeavyHitters<K> merge(HeavyHitters<K> other) {
+		sketch.merge(other.sketch);
+		List<K> all = new ArrayList<>(candidates.keySet());
+		all.addAll(other.candidates.keySet());
+		candidates.clear();
+		minKey = null;
+		for (K item : all) {
+			if (!candidates.containsKey(item)) {
+				offer(item, sketch.estimate(item));
+			}
+		}
+		return this;
+	}
+
+	public long estimate(K item) {
+		return sketch.estimate(item);
+	}
+
+	// The candidates with their estimated counts, most frequent first.
+	public List<Pair<K, Long>> top() {
+		List<Pair<K, Long>> top = new ArrayList<>(candidates.size());
+		for (Entry<K, Long> e : candidates.entrySet()) {
+			top.add(Pair.from(e.getKey(), e.getValue()));
+		}
+		top.sort((p1, p2) -> Long.compare(p2.getRight(), p1.getRight()));
+		return top;
+	}
+
+}
@@ -0,0 +1,121 @@
+package dsl;
+
+import java.util.function.BinaryOperator;
+
+import utils.functions.Func2;
+
+// Hopping window: windows of 'size' items that start every 'slide' items.
+// The aggregate of a window is emitted when it is complete, so the first
+// output comes after 'size' items and then one every 'slide' items.
+//
+// Consecutive windows overlap, so instead of aggregating every item once
+// per window, the stream is cut into panes of gcd(size, slide) items.
+// Items are folded into the partial aggregate of their pane ('insert'),
+// and a window is the combination of its size/pane panes ('combine', an
+// associative operation with identity 'init'). The panes are kept in a
+// SWindowMonoid, so every item costs one insert plus an amortized O(1)
+// share of the pane combines.
+
+public class Hopping<A,B> implements Query<A,B>, Buffered {
+
+	private final int size;
+	private final int slide;
+	private final int pane; // items per pane
+	private final B init;
+	private final Func2<B,A,B> insert;
+	private final SWindowMonoid<B> panes; // the last size/pane panes
+	private B partial; // aggregate of the current pane
+	private int nPane; // number of items in the current pane
+	private long nPanes; // number of complete panes
+	private Sink<B> bound; // downstream sink that 'link' forwards to
+	private Sink<B> link;
+
+	public Hopping(int size, int slide, B init, Func2<B,A,B> insert, BinaryOperator<B> combine) {
+		if (size < 1 || slide < 1) {
+			throw new IllegalArgumentException("window size and slide should be >= 1");
+		}
+		this.size = size;
+		this.slide = slide;
+		this.pane = gcd(size, slide);
+		this.init = init;
+		this.insert = insert;
+		this.panes = new SWindowMonoid<>(size / pane, init, combine);
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	@Override
+	public int buffered() {
+		return panes.buffered() * pane + nPane;
+	}
+
+	// Forwards one window out of every slide/pane (complete) windows of panes.
+	private Sink<B> windows(Sink<B> sink) {
+		if (sink != bound) {
+			bound = sink;
+			int every = slide / pane;
+			link = new Sink<B>() {
+				@Override
+				public void next(B item) {
+					if ((nPanes - size / pane) % every == 0) {
+						sink.next(item);
+					}
+				}
+				@Override
+				public void end() {
+					sink.end();
+				}
+			};
+		}
+		return link;
+	}
+
+	@Override
+	public void start(Sink<B> sink) {
+		panes.start(windows(sink));
+		partial = init;
+		nPane = 0;
+		nPanes = 0;
+	}
+
+	@Override
+	public void next(A item, Sink<B> sink) {
+		partial = insert.apply(partial, item);
+		nPane += 1;
+		if (nPane == pane) {
+			nPanes += 1;
+			panes.next(partial, windows(sink));
+			partial = init;
+			nPane = 0;
+		}
+	}
+
+	@Override
+	public void end(Sink<B> sink) {
+		panes.end(windows(sink));
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		panes.snapshot(out);
+		out.writeObject(partial);
+		out.writeInt(nPane);
+		out.writeLong(nPanes);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		panes.restore(in);
+		partial = in.readObject();
+		nPane = in.readInt();
+		nPanes = in.readLong();
+	}
+
+}
@@ -0,0 +1,81 @@
+package dsl;
+
+import java.io.Serializable;
+
+// HyperLogLog estimate of the number of distinct items (Flajolet et al.,
+// with the small-range correction of the original paper). The state is
+// 2^precision one-byte registers, however many items and distinct items
+// there are; the relative standard error is about 1.04 / sqrt(2^precision)
+// (1.6% for precision 12, i.e. 4 KiB). Two sketches of the same precision
+// are merged by taking the maximum of each register.
+//
+// add(Object) hashes an item with its 32-bit hashCode, so items with equal
+// hash codes count as one, and above a few hundred million distinct items
+// collisions make the estimate too low. add(long) takes a 64-bit key (say
+// a 64-bit hash of the item) and has neither limit.
+
+public class HyperLogLog implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int precision;
+	private final byte[] registers;
+
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 18) {
+			throw new IllegalArgumentException("precision should be in 4..18");
+		}
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	public HyperLogLog add(Object item) {
+		addHash(Hash.of(item));
+		return this;
+	}
+
+	public HyperLogLog add(long item) {
+		addHash(Hash.mix(item));
+		return this;
+	}
+
+	private void addHash(long h) {
+		int index = (int) (h >>> (64 - precision));
+		// rank of the first 1 bit in the rest (the guard bit bounds it)
+		byte rank = (byte) (Long.numberOfLeadingZeros((h << precision) | (1L << (precision - 1))) + 1);
+		if (rank > registers[index]) {
+			registers[index] = rank;
+		}
+	}
+
+	public HyperLogLog merge(HyperLogLog other) {
+		if (other.precision != precision) {
+			throw new IllegalArgumentException("cannot merge sketches of different precision");
+		}
+		for (int i=0; i<registers.length; i++) {
+			if (other.registers[i] > registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+		return this;
+	}
+
+	public long estimate() {
+		int m = registers.length;
+		double sum = 0.0;
+		int zeros = 0;
+		for (byte r : registers) {
+			sum += 1.0 / (1L << r);
+			if (r == 0) {
+				zeros += 1;
+			}
+		}
+		double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1.0 + 1.079 / m);
+		double e = alpha * m * m / sum;
+		if (e <= 2.5 * m && zeros > 0) { // linear counting
+			e = m * Math.log((double) m / zeros);
+		}
+		return Math.round(e);
+	}
+
+}
@@ -2,7 +2,7 @@ package dsl;
 
 // The identity transformation.
 
-public class Id<A> implements Query<A,A> {
+public class Id<A> implements Query<A,A>, Stateless {
 
 	public Id() {
 		// nothing to do
@@ -18,6 +18,11 @@ public class Id<A> implements Query<A,A> {
 		sink.next(item);
 	}
 
+	@Override
+	public void nextBatch(Object[] items, int from, int to, Sink<A> sink) {
+		sink.nextBatch(items, from, to);
+	}
+
 	@Override
 	public void end(Sink<A> sink) {
 		sink.end();
@@ -30,9 +30,28 @@ public class Ignore<A> implements Query<A,A> {
 		}
 	}
 
+	@Override
+	public void nextBatch(Object[] items, int from, int to, Sink<A> sink) {
+		int skip = Math.min(n - i, to - from);
+		i += skip;
+		if (from + skip < to) {
+			sink.nextBatch(items, from + skip, to);
+		}
+	}
+
 	@Override
 	public void end(Sink<A> sink) {
 		sink.end();
 	}
-	
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeInt(i);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		i = in.readInt();
+	}
+
 }
@@ -0,0 +1,188 @@
+package dsl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Wraps a query and records its OperatorStats: items in and out, the time
+// spent in it (with and without the downstream sink) and, for Buffered
+// queries, the maximum number of items held.
+//
+// Timing costs two System.nanoTime() calls per input item (per batch on
+// the batch path) and two per output item.
+
+public class Instrumented<A,B> implements Query<A,B>, Buffered {
+
+	private final Query<A,B> q;
+	private final OperatorStats stats;
+	private Sink<B> bound; // downstream sink that 'link' forwards to
+	private Sink<B> link;
+
+	Instrumented(Query<A,B> q, OperatorStats stats) {
+		this.q = q;
+		this.stats = stats;
+		stats.maxBuffered = (q instanceof Buffered) ? 0 : -1;
+	}
+
+	public OperatorStats stats() {
+		return stats;
+	}
+
+	Query<A,B> query() {
+		return q;
+	}
+
+	@Override
+	public int buffered() {
+		return (q instanceof Buffered) ? ((Buffered) q).buffered() : 0;
+	}
+
+	private Sink<B> counting(Sink<B> sink) {
+		if (sink != bound) {
+			bound = sink;
+			link = new Sink<B>() {
+				@Override
+				public void next(B item) {
+					stats.itemsOut += 1;
+					long t = System.nanoTime();
+					sink.next(item);
+					stats.downstreamNanos += System.nanoTime() - t;
+				}
+				@Override
+				public void nextBatch(Object[] items, int from, int to) {
+					stats.itemsOut += to - from;
+					long t = System.nanoTime();
+					sink.nextBatch(items, from, to);
+					stats.downstreamNanos += System.nanoTime() - t;
+				}
+				@Override
+				public void watermark(long ts) {
+					sink.watermark(ts);
+				}
+				@Override
+				public void end() {
+					long t = System.nanoTime();
+					sink.end();
+					stats.downstreamNanos += System.nanoTime() - t;
+				}
+			};
+		}
+		return link;
+	}
+
+	private void sample() {
+		if (stats.maxBuffered >= 0) {
+			stats.maxBuffered = Math.max(stats.maxBuffered, ((Buffered) q).buffered());
+		}
+	}
+
+	@Override
+	public void start(Sink<B> sink) {
+		long t = System.nanoTime();
+		q.start(counting(sink));
+		stats.nanos += System.nanoTime() - t;
+	}
+
+	@Override
+	public void next(A item, Sink<B> sink) {
+		stats.itemsIn += 1;
+		long t = System.nanoTime();
+		q.next(item, counting(sink));
+		stats.nanos += System.nanoTime() - t;
+		sample();
+	}
+
+	@Override
+	public void nextBatch(Object[] items, int from, int to, Sink<B> sink) {
+		stats.itemsIn += to - from;
+		long t = System.nanoTime();
+		q.nextBatch(items, from, to, counting(sink));
+		stats.nanos += System.nanoTime() - t;
+		sample();
+	}
+
+	@Override
+	public void watermark(long ts, Sink<B> sink) {
+		long t = System.nanoTime();
+		q.watermark(ts, counting(sink));
+		stats.nanos += System.nanoTime() - t;
+	}
+
+	@Override
+	public void end(Sink<B> sink) {
+		long t = System.nanoTime();
+		q.end(counting(sink));
+		stats.nanos += System.nanoTime() - t;
+	}
+
+	@Override
+	public void abort() {
+		q.abort();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		q.snapshot(out);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		q.restore(in);
+	}
+
+	// Wraps every node of the tree of Pipeline, Parallel and Loop
+	// compositions. The names are the path of the node followed by its
+	// class, e.g. "1.0:Map" is the first branch of the Parallel that is
+	// the second stage of the pipeline. The stats of the outermost wrapped
+	// nodes are added to 'top'.
+	static <A,B> Query<A,B> all(Query<A,B> q, String path, OperatorRegistry registry,
+								List<OperatorStats> top)
+	{
+		List<OperatorStats> children = new ArrayList<>();
+		Query<A,B> node;
+		if (q instanceof Pipeline || q instanceof Chain) {
+			// The stages are wrapped but not the pipeline itself, which keeps
+			// the chain visible to executeAsync.
+			List<Query<?,?>> stages = new ArrayList<>();
+			AsyncExecutor.flatten(q, stages);
+			for (int i=0; i<stages.size(); i++) {
+				stages.set(i, all(stages.get(i), child(path, i), registry, top));
+			}
+			return AsyncExecutor.compose(stages);
+		} else if (q instanceof Boundary) {
+			return q;
+		} else if (q instanceof Parallel) {
+			node = parallel((Parallel<A,?,?,B>) q, path, registry, children);
+		} else if (q instanceof Loop) {
+			Loop<A,B> loop = (Loop<A,B>) q;
+			node = new Loop<>(all(loop.body(), child(path, 0), registry, children));
+		} else {
+			node = q;
+		}
+		String name = path.isEmpty() ? typeName(q) : path + ":" + typeName(q);
+		OperatorStats stats = registry.register(name);
+		stats.children = children;
+		top.add(stats);
+		return new Instrumented<>(node, stats);
+	}
+
+	private static <A,B,C,D> Parallel<A,B,C,D>
+	parallel(Parallel<A,B,C,D> p, String path, OperatorRegistry registry, List<OperatorStats> children)
+	{
+		return new Parallel<>(all(p.first(), child(path, 0), registry, children),
+							  all(p.second(), child(path, 1), registry, children), p.op());
+	}
+
+	private static String child(String path, int i) {
+		return path.isEmpty() ? String.valueOf(i) : path + "." + i;
+	}
+
+	private static String typeName(Query<?,?> q) {
+		String name = q.getClass().getSimpleName();
+		if (name.isEmpty()) { // anonymous
+			name = q.getClass().getName();
+			name = name.substring(name.lastIndexOf('.') + 1);
+		}
+		return name;
+	}
+
+}
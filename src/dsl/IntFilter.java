@@ -0,0 +1,32 @@
+package dsl;
+
+import java.util.function.IntPredicate;
+
+// Filter out elements that falsify the given predicate (ints).
+
+public class IntFilter implements IntQuery<IntSink>, Stateless {
+
+	private final IntPredicate pred;
+
+	public IntFilter(IntPredicate pred) {
+		this.pred = pred;
+	}
+
+	@Override
+	public void start(IntSink sink) {
+		// nothing to do
+	}
+
+	@Override
+	public void next(int item, IntSink sink) {
+		if (pred.test(item)) {
+			sink.next(item);
+		}
+	}
+
+	@Override
+	public void end(IntSink sink) {
+		sink.end();
+	}
+	
+}
@@ -0,0 +1,45 @@
+package dsl;
+
+import java.util.function.LongBinaryOperator;
+
+// Aggregation of ints into a long (one output item when the stream ends).
+// The input item is widened to long before it is passed to 'op'.
+
+public class IntFold implements IntQuery<LongSink> {
+
+	private final long init;
+	private final LongBinaryOperator op;
+	private long agg; // current aggregate
+
+	public IntFold(long init, LongBinaryOperator op) {
+		this.init = init;
+		this.op = op;
+	}
+
+	@Override
+	public void start(LongSink sink) {
+		this.agg = init;
+	}
+
+	@Override
+	public void next(int item, LongSink sink) {
+		agg = op.applyAsLong(agg, item);
+	}
+
+	@Override
+	public void end(LongSink sink) {
+		sink.next(agg);
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeLong(agg);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		agg = in.readLong();
+	}
+
+}
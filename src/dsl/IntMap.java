@@ -0,0 +1,30 @@
+package dsl;
+
+import java.util.function.IntUnaryOperator;
+
+// Apply a function elementwise (int -> int).
+
+public class IntMap implements IntQuery<IntSink>, Stateless {
+
+	private final IntUnaryOperator op;
+
+	public IntMap(IntUnaryOperator op) {
+		this.op = op;
+	}
+
+	@Override
+	public void start(IntSink sink) {
+		// nothing to do
+	}
+
+	@Override
+	public void next(int item, IntSink sink) {
+		sink.next(op.applyAsInt(item));
+	}
+
+	@Override
+	public void end(IntSink sink) {
+		sink.end();
+	}
+	
+}
@@ -0,0 +1,30 @@
+package dsl;
+
+import java.util.function.IntToDoubleFunction;
+
+// Apply a function elementwise (int -> double).
+
+public class IntMapToDouble implements IntQuery<DoubleSink>, Stateless {
+
+	private final IntToDoubleFunction op;
+
+	public IntMapToDouble(IntToDoubleFunction op) {
+		this.op = op;
+	}
+
+	@Override
+	public void start(DoubleSink sink) {
+		// nothing to do
+	}
+
+	@Override
+	public void next(int item, DoubleSink sink) {
+		sink.next(op.applyAsDouble(item));
+	}
+
+	@Override
+	public void end(DoubleSink sink) {
+		sink.end();
+	}
+	
+}
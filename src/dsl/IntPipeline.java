@@ -0,0 +1,63 @@
+package dsl;
+
+// Serial composition of int queries. The intermediate sink is created
+// when the downstream sink is first seen and reused for every item.
+
+public class IntPipeline<T> implements IntQuery<T> {
+
+	private final IntQuery<IntSink> q1;
+	private final IntQuery<T> q2;
+	private T bound; // downstream sink that 'link' forwards to
+	private IntSink link;
+
+	public IntPipeline(IntQuery<IntSink> q1, IntQuery<T> q2) {
+		this.q1 = q1;
+		this.q2 = q2;
+	}
+
+	private IntSink intermediate(T sink) {
+		if (sink != bound) {
+			bound = sink;
+			link = new IntSink() {
+				@Override
+				public void next(int item) {
+					q2.next(item, sink);
+				}
+				@Override
+				public void end() {
+					q2.end(sink);
+				}
+			};
+		}
+		return link;
+	}
+
+	@Override
+	public void start(T sink) {
+		q2.start(sink);
+		q1.start(intermediate(sink));
+	}
+
+	@Override
+	public void next(int item, T sink) {
+		q1.next(item, intermediate(sink));
+	}
+
+	@Override
+	public void end(T sink) {
+		q1.end(intermediate(sink));
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		q1.snapshot(out);
+		q2.snapshot(out);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		q1.restore(in);
+		q2.restore(in);
+	}
+
+}
@@ -0,0 +1,19 @@
+package dsl;
+
+// A query whose input items are primitive ints. The type parameter
+// is the kind of sink it writes to (IntSink, LongSink, DoubleSink).
+
+public interface IntQuery<T> {
+	void start(T sink);
+	void next(int item, T sink);
+	void end(T sink);
+
+	// Checkpointing, as in Query.
+	default void snapshot(StateWriter out) {
+		Checkpoint.requireStateless(this);
+	}
+
+	default void restore(StateReader in) {
+		Checkpoint.requireStateless(this);
+	}
+}
@@ -0,0 +1,83 @@
+package dsl;
+
+import java.util.function.IntBinaryOperator;
+
+// Sliding-window aggregation over ints with an invertible aggregate.
+// Same algorithm as SWindowInv, but the buffer is an int[].
+
+public class IntSWindowInv implements IntQuery<IntSink> {
+
+	private final int init;
+	private final IntBinaryOperator insert;
+	private final IntBinaryOperator remove;
+	private final int wndSize; // window size
+	private final int[] buffer;
+	private int agg; // current aggregate
+	private int indexOldest; // index to oldest element
+	private int nElements; // number of elements in buffer
+
+	public IntSWindowInv
+	(int wndSize, int init, IntBinaryOperator insert, IntBinaryOperator remove)
+	{
+		if (wndSize < 1) {
+			throw new IllegalArgumentException("window size should be >= 1");
+		}
+		this.init = init;
+		this.insert = insert;
+		this.remove = remove;
+		this.wndSize = wndSize;
+		this.buffer = new int[wndSize];
+		this.agg = init;
+		this.indexOldest = 0;
+		this.nElements = 0;
+	}
+
+	@Override
+	public void start(IntSink sink) {
+		this.agg = init;
+		this.indexOldest = 0;
+		this.nElements = 0;
+	}
+
+	@Override
+	public void next(int item, IntSink sink) {
+		if (nElements == wndSize) {
+			agg = remove.applyAsInt(agg, buffer[indexOldest]);
+			buffer[indexOldest] = item;
+			indexOldest = (indexOldest + 1) % wndSize;
+			agg = insert.applyAsInt(agg, item);
+		} else { // nElements < wndSize
+			buffer[nElements] = item;
+			nElements += 1;
+			agg = insert.applyAsInt(agg, item);
+		}
+		if (nElements == wndSize) {
+			sink.next(agg);
+		}
+	}
+
+	@Override
+	public void end(IntSink sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeInt(agg);
+		out.writeInt(nElements);
+		for (int i=0; i<nElements; i++) { // oldest first
+			out.writeInt(buffer[(indexOldest + i) % wndSize]);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		agg = in.readInt();
+		nElements = in.readInt();
+		indexOldest = 0;
+		for (int i=0; i<nElements; i++) {
+			buffer[i] = in.readInt();
+		}
+	}
+
+}
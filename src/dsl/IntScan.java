@@ -0,0 +1,45 @@
+package dsl;
+
+import java.util.function.LongBinaryOperator;
+
+// Running aggregation of ints into a long (one output item per input item).
+// The input item is widened to long before it is passed to 'op'.
+
+public class IntScan implements IntQuery<LongSink> {
+
+	private final long init;
+	private final LongBinaryOperator op;
+	private long agg; // current aggregate
+
+	public IntScan(long init, LongBinaryOperator op) {
+		this.init = init;
+		this.op = op;
+	}
+
+	@Override
+	public void start(LongSink sink) {
+		this.agg = init;
+	}
+
+	@Override
+	public void next(int item, LongSink sink) {
+		agg = op.applyAsLong(agg, item);
+		sink.next(agg);
+	}
+
+	@Override
+	public void end(LongSink sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeLong(agg);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		agg = in.readLong();
+	}
+
+}
@@ -0,0 +1,8 @@
+package dsl;
+
+// A sink for a stream of primitive ints (no boxing).
+
+public interface IntSink {
+	void next(int item);
+	void end();
+}
@@ -0,0 +1,98 @@
+package dsl;
+
+// A small log-linear histogram of non-negative values (nanoseconds).
+//
+// Every power of two is split into 16 buckets, so a recorded value is known
+// within 1/16 (6.25%) of its size. Recording is a few shifts and an array
+// increment; the whole histogram is under 8KB.
+
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB = 1 << SUB_BITS;
+
+	private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB];
+	private long total = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+	private double sum = 0;
+
+	static int index(long value) {
+		if (value < SUB) {
+			return (int) value;
+		}
+		int e = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (e - SUB_BITS)) & (SUB - 1);
+		return (e - SUB_BITS + 1) * SUB + sub;
+	}
+
+	// Smallest value that falls into bucket i.
+	static long lowest(int i) {
+		if (i < SUB) {
+			return i;
+		}
+		int e = i / SUB + SUB_BITS - 1;
+		return ((long) (SUB + i % SUB)) << (e - SUB_BITS);
+	}
+
+	public void record(long value) {
+		record(value, 1);
+	}
+
+	// Records value 'count' times.
+	public void record(long value, long count) {
+		if (count <= 0) {
+			return;
+		}
+		value = Math.max(0, value);
+		counts[index(value)] += count;
+		total += count;
+		sum += (double) value * count;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	public long count() {
+		return total;
+	}
+
+	public long min() {
+		return total == 0 ? 0 : min;
+	}
+
+	public long max() {
+		return max;
+	}
+
+	public double mean() {
+		return total == 0 ? 0 : sum / total;
+	}
+
+	// The value below which a fraction q of the recorded values lie (the
+	// upper end of the bucket, capped by the maximum).
+	public long percentile(double q) {
+		if (q < 0 || q > 1) {
+			throw new IllegalArgumentException("q should be in [0,1]");
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(q * total));
+		long seen = 0;
+		for (int i=0; i<counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.max(min, Math.min(max, lowest(i + 1) - 1));
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "{ count: " + total + ", p50: " + percentile(0.5) +
+			", p99: " + percentile(0.99) + ", p99.9: " + percentile(0.999) +
+			", max: " + max + " }";
+	}
+
+}
@@ -0,0 +1,8 @@
+package dsl;
+
+// A sink for a stream of primitive longs (no boxing).
+
+public interface LongSink {
+	void next(long item);
+	void end();
+}
@@ -5,30 +5,52 @@ import java.util.ArrayDeque;
 import utils.Or;
 
 // Feedback composition.
+//
+// The intermediate sink is bound to the downstream sink once and reused
+// for every item (see Pipeline).
 
-public class Loop<A,B> implements Query<A,B> {
+public class Loop<A,B> implements Query<A,B>, Buffered {
 
 	private final Query<Or<A,B>,B> q;
 	private ArrayDeque<B> buffer;
 	private boolean ended;
+	private Sink<B> bound; // downstream sink that 'link' forwards to
+	private Sink<B> link;
 
 	public Loop(Query<Or<A,B>,B> q) {
 		this.q = q;
 		this.buffer = new ArrayDeque<>();
 	}
 
+	Query<Or<A,B>,B> body() {
+		return q;
+	}
+
+	@Override
+	public int buffered() {
+		return buffer.size();
+	}
+
 	private Sink<B> intermediate(Sink<B> sink) {
-		return new Sink<B>() {
-			@Override
-			public void next(B item) {
-				buffer.add(item);
-				sink.next(item);
-			}
-			@Override
-			public void end() {
-				ended = true;
-			}
-		};
+		if (sink != bound) {
+			bound = sink;
+			link = new Sink<B>() {
+				@Override
+				public void next(B item) {
+					buffer.add(item);
+					sink.next(item);
+				}
+				@Override
+				public void watermark(long ts) {
+					sink.watermark(ts);
+				}
+				@Override
+				public void end() {
+					ended = true;
+				}
+			};
+		}
+		return link;
 	}
 
 	private void drain(Sink<B> sink, Sink<B> isink) {
@@ -60,6 +82,15 @@ public class Loop<A,B> implements Query<A,B> {
 		}
 	}
 
+	@Override
+	public void watermark(long ts, Sink<B> sink) {
+		if (!ended) {
+			Sink<B> isink = intermediate(sink);
+			q.watermark(ts, isink);
+			drain(sink, isink);
+		}
+	}
+
 	@Override
 	public void end(Sink<B> sink) {
 		if (!ended) {
@@ -68,5 +99,24 @@ public class Loop<A,B> implements Query<A,B> {
 			drain(sink, isink);
 		}
 	}
-	
+
+	@Override
+	public void abort() {
+		q.abort();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		q.snapshot(out);
+		out.writeAll(buffer);
+		out.writeBoolean(ended);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		q.restore(in);
+		in.readAll(buffer);
+		ended = in.readBoolean();
+	}
+
 }
@@ -1,17 +1,23 @@
 package dsl;
 
+import java.util.Arrays;
 import java.util.function.Function;
 
 // Apply a function elementwise.
 
-public class Map<A,B> implements Query<A,B> {
+public class Map<A,B> implements Query<A,B>, Stateless {
 
 	private final Function<A,B> op;
+	private Object[] out; // scratch buffer for nextBatch
 
 	public Map(Function<A,B> op) {
 		this.op = op;
 	}
 
+	Function<A,B> op() {
+		return op;
+	}
+
 	@Override
 	public void start(Sink<B> sink) {
 		// nothing to do
@@ -22,6 +28,20 @@ public class Map<A,B> implements Query<A,B> {
 		sink.next(op.apply(item));
 	}
 
+	@Override
+	@SuppressWarnings("unchecked")
+	public void nextBatch(Object[] items, int from, int to, Sink<B> sink) {
+		int n = to - from;
+		if (out == null || out.length < n) {
+			out = new Object[n];
+		}
+		for (int i=0; i<n; i++) {
+			out[i] = op.apply((A) items[from + i]);
+		}
+		sink.nextBatch(out, 0, n);
+		Arrays.fill(out, 0, n, null);
+	}
+
 	@Override
 	public void end(Sink<B> sink) {
 		sink.end();
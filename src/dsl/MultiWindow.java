@@ -0,0 +1,154 @@
+package dsl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+// Several sliding windows of different sizes over one stream, sharing a
+// single ring buffer sized to the largest window (instead of one buffer
+// per window, as separate SWindowInv instances would keep).
+//
+// Every view is an invertible aggregate, as in SWindowInv. Each item is
+// stored once and, in the same pass, inserted into every view and removed
+// from the views whose window it slides out of. The ring keeps the raw
+// items, so an item is lifted again when it leaves a view (lift should be
+// cheap). When the largest window is full, every item produces the list
+// of the aggregates of all the views, in the order in which they were
+// given. The aggregates are computed straight into the array behind that
+// list, which is not touched again afterwards.
+//
+// All the views have the same aggregate type B. Views of different types
+// (say a count and a mean) need a common B, such as Number or Object.
+
+public class MultiWindow<A,B> implements Query<A,List<B>>, Buffered {
+
+	public static class View<A,B> {
+		final int size;
+		final B init;
+		final BinaryOperator<B> insert;
+		final BinaryOperator<B> remove;
+		final Function<A,B> lift;
+
+		// lift turns an item into the value that is inserted and removed.
+		public View(int size, B init, Function<A,B> lift,
+					BinaryOperator<B> insert, BinaryOperator<B> remove)
+		{
+			if (size < 1) {
+				throw new IllegalArgumentException("window size should be >= 1");
+			}
+			this.size = size;
+			this.init = init;
+			this.lift = lift;
+			this.insert = insert;
+			this.remove = remove;
+		}
+	}
+
+	private final List<View<A,B>> views;
+	private final int nViews;
+	private final int wndSize; // size of the largest window
+	private final A[] buffer;
+	private B[] aggs; // current aggregate of every view
+	private int indexNewest; // index of the next free slot
+	private long nItems; // number of items so far
+
+	public MultiWindow(List<View<A,B>> views) {
+		if (views.isEmpty()) {
+			throw new IllegalArgumentException("a multi-window needs at least one view");
+		}
+		this.views = new ArrayList<>(views);
+		this.nViews = views.size();
+		int max = 0;
+		for (View<A,B> v : views) {
+			max = Math.max(max, v.size);
+		}
+		this.wndSize = max;
+		this.buffer = newArray(wndSize);
+		this.aggs = newArray(nViews);
+	}
+
+	@Override
+	public int buffered() {
+		return (int) Math.min(nItems, wndSize);
+	}
+
+	@Override
+	public void start(Sink<List<B>> sink) {
+		aggs = newArray(nViews);
+		for (int i=0; i<nViews; i++) {
+			aggs[i] = views.get(i).init;
+		}
+		Arrays.fill(buffer, null);
+		indexNewest = 0;
+		nItems = 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T[] newArray(int n) {
+		return (T[]) new Object[n];
+	}
+
+	@Override
+	public void next(A item, Sink<List<B>> sink) {
+		boolean full = nItems + 1 >= wndSize;
+		// once emitted, an array of aggregates belongs to the output list
+		B[] next = full ? newArray(nViews) : aggs;
+		for (int i=0; i<nViews; i++) {
+			View<A,B> v = views.get(i);
+			B agg = v.insert.apply(aggs[i], v.lift.apply(item));
+			if (nItems >= v.size) { // the item v.size back leaves this window
+				int index = indexNewest - v.size;
+				if (index < 0) {
+					index += wndSize;
+				}
+				agg = v.remove.apply(agg, v.lift.apply(buffer[index]));
+			}
+			next[i] = agg;
+		}
+		aggs = next;
+		buffer[indexNewest] = item;
+		indexNewest += 1;
+		if (indexNewest == wndSize) {
+			indexNewest = 0;
+		}
+		nItems += 1;
+		if (full) {
+			sink.next(Arrays.asList(next));
+		}
+	}
+
+	@Override
+	public void end(Sink<List<B>> sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeLong(nItems);
+		for (B agg : aggs) {
+			out.writeObject(agg);
+		}
+		int n = buffered();
+		for (int i=0; i<n; i++) { // oldest first
+			out.writeObject(buffer[Math.floorMod(indexNewest - n + i, wndSize)]);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		nItems = in.readLong();
+		aggs = newArray(nViews);
+		for (int i=0; i<nViews; i++) {
+			aggs[i] = in.readObject();
+		}
+		int n = buffered();
+		Arrays.fill(buffer, null);
+		for (int i=0; i<n; i++) {
+			buffer[i] = in.readObject();
+		}
+		indexNewest = n % wndSize;
+	}
+
+}
@@ -0,0 +1,45 @@
+package dsl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Collects the OperatorStats of instrumented queries by name.
+
+public class OperatorRegistry {
+
+	private static final OperatorRegistry global = new OperatorRegistry();
+
+	private final LinkedHashMap<String,OperatorStats> operators = new LinkedHashMap<>();
+
+	// The registry used by Q.instrument(query, name).
+	public static OperatorRegistry global() {
+		return global;
+	}
+
+	// A name that is registered again gets a fresh entry.
+	synchronized OperatorStats register(String name) {
+		OperatorStats stats = new OperatorStats(name);
+		operators.put(name, stats);
+		return stats;
+	}
+
+	public synchronized OperatorStats get(String name) {
+		return operators.get(name);
+	}
+
+	public synchronized List<OperatorStats> all() {
+		return new ArrayList<>(operators.values());
+	}
+
+	public synchronized void clear() {
+		operators.clear();
+	}
+
+	public void print() {
+		for (OperatorStats stats : all()) {
+			System.out.println(stats);
+		}
+	}
+
+}
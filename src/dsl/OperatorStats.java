@@ -0,0 +1,68 @@
+package dsl;
+
+import java.text.DecimalFormat;
+import java.util.List;
+
+// Counters of one Instrumented query.
+//
+// nanos is the time spent in the query including the downstream sink it
+// feeds. selfNanos leaves out the downstream part and, for a Parallel or
+// Loop whose branches are instrumented too, the time of the branches, so
+// that the selfNanos of all nodes add up to the total.
+
+public class OperatorStats {
+
+	public final String name;
+	long itemsIn = 0;
+	long itemsOut = 0;
+	long nanos = 0;
+	long downstreamNanos = 0;
+	int maxBuffered = 0;
+	List<OperatorStats> children = List.of(); // instrumented branches
+
+	OperatorStats(String name) {
+		this.name = name;
+	}
+
+	public long itemsIn() {
+		return itemsIn;
+	}
+
+	public long itemsOut() {
+		return itemsOut;
+	}
+
+	// Output items per input item.
+	public double selectivity() {
+		return itemsIn == 0 ? 0 : itemsOut / (double) itemsIn;
+	}
+
+	public long nanos() {
+		return nanos;
+	}
+
+	public long selfNanos() {
+		long self = nanos - downstreamNanos;
+		for (OperatorStats child : children) {
+			self -= child.selfNanos();
+		}
+		return self;
+	}
+
+	// -1 if the query is not Buffered.
+	public int maxBuffered() {
+		return maxBuffered;
+	}
+
+	@Override
+	public String toString() {
+		DecimalFormat formatter = new DecimalFormat("#,###");
+		return name + ": in = " + formatter.format(itemsIn) +
+			", out = " + formatter.format(itemsOut) +
+			", selectivity = " + String.format("%.3f", selectivity()) +
+			", self = " + formatter.format(selfNanos() / 1000) + " usec" +
+			", total = " + formatter.format(nanos / 1000) + " usec" +
+			(maxBuffered >= 0 ? ", max buffered = " + maxBuffered : "");
+	}
+
+}
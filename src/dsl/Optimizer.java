@@ -0,0 +1,102 @@
+package dsl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Rule-based rewriting of a Plan (see Q.optimize). Bottom up:
+//
+// - nested pipelines are flattened into a single Chain,
+// - Id stages are removed,
+// - a filter right after a Dup is moved before it (fewer items to test),
+// - runs of maps and filters are fused into one stage: map-map into a
+//   composed Map, filter-filter into one Filter, mixed runs into Fused.
+//
+// A filter is not moved in front of a map, as its predicate would then
+// have to evaluate the map as well; fusing the two removes the dispatch
+// between them instead.
+
+final class Optimizer {
+
+	private Optimizer() {
+
+	}
+
+	static Plan optimize(Plan p) {
+		switch (p.kind) {
+			case CHAIN:
+				return optimizeChain(p);
+			case PARALLEL:
+				return Plan.parallel(optimize(p.children.get(0)), optimize(p.children.get(1)), p.op);
+			case LOOP:
+				return Plan.loop(optimize(p.children.get(0)));
+			default:
+				return p;
+		}
+	}
+
+	private static boolean fusable(Plan p) {
+		return p.kind == Plan.Kind.MAP || p.kind == Plan.Kind.FILTER || p.kind == Plan.Kind.FUSED;
+	}
+
+	private static Plan optimizeChain(Plan p) {
+		List<Plan> stages = new ArrayList<>();
+		for (Plan child : p.children) {
+			Plan c = optimize(child);
+			if (c.kind == Plan.Kind.CHAIN) {
+				stages.addAll(c.children);
+			} else {
+				stages.add(c);
+			}
+		}
+
+		stages.removeIf(s -> s.kind == Plan.Kind.ID);
+		if (stages.isEmpty()) {
+			return p.children.isEmpty() ? p : Plan.leaf(Plan.Kind.ID, new Id<>());
+		}
+
+		boolean moved = true;
+		while (moved) {
+			moved = false;
+			for (int i=0; i+1<stages.size(); i++) {
+				Plan s = stages.get(i);
+				Plan next = stages.get(i + 1);
+				if (s.commutesWithFilters && s.kind != Plan.Kind.FILTER && next.kind == Plan.Kind.FILTER) {
+					stages.set(i, next);
+					stages.set(i + 1, s);
+					moved = true;
+				}
+			}
+		}
+
+		List<Plan> fused = new ArrayList<>();
+		for (Plan s : stages) {
+			int last = fused.size() - 1;
+			if (last >= 0 && fusable(fused.get(last)) && fusable(s)) {
+				fused.set(last, fuse(fused.get(last), s));
+			} else {
+				fused.add(s);
+			}
+		}
+
+		return fused.size() == 1 ? fused.get(0) : Plan.chain(fused);
+	}
+
+	private static Plan fuse(Plan a, Plan b) {
+		if (a.kind == Plan.Kind.MAP && b.kind == Plan.Kind.MAP) {
+			Function<Object,Object> f = Plan.cast(a.steps.get(0));
+			Function<Object,Object> g = Plan.cast(b.steps.get(0));
+			return Plan.steps(Plan.Kind.MAP, List.of(f.andThen(g)));
+		}
+		if (a.kind == Plan.Kind.FILTER && b.kind == Plan.Kind.FILTER) {
+			Predicate<Object> p = Plan.cast(a.steps.get(0));
+			Predicate<Object> q = Plan.cast(b.steps.get(0));
+			return Plan.steps(Plan.Kind.FILTER, List.of(p.and(q)));
+		}
+		List<Object> steps = new ArrayList<>(a.steps);
+		steps.addAll(b.steps);
+		return Plan.steps(Plan.Kind.FUSED, steps);
+	}
+
+}
@@ -0,0 +1,166 @@
+package dsl;
+
+// A multiset of doubles with O(log n) expected insert, delete and k-th
+// smallest (select), for the sliding-window quantiles.
+//
+// It is a treap (a binary search tree that is also a heap on random
+// priorities, hence balanced in expectation) where every node stores the
+// size of its subtree. The nodes live in parallel primitive arrays of a
+// fixed capacity, so no objects are allocated after construction. Node 0
+// is the empty tree. Keys are ordered by Double.compare.
+
+final class OrderStatisticTree {
+
+	private final double[] key;
+	private final int[] priority;
+	private final int[] left;
+	private final int[] right;
+	private final int[] size;
+	private final int[] free; // stack of unused nodes
+	private int nFree;
+	private int root;
+	private int seed = 0x2545F491;
+
+	OrderStatisticTree(int capacity) {
+		key = new double[capacity + 1];
+		priority = new int[capacity + 1];
+		left = new int[capacity + 1];
+		right = new int[capacity + 1];
+		size = new int[capacity + 1];
+		free = new int[capacity];
+		clear();
+	}
+
+	void clear() {
+		root = 0;
+		nFree = free.length;
+		for (int i=0; i<nFree; i++) {
+			free[i] = nFree - i;
+		}
+	}
+
+	int size() {
+		return size[root];
+	}
+
+	private int random() { // xorshift
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return seed;
+	}
+
+	private void update(int t) {
+		size[t] = size[left[t]] + 1 + size[right[t]];
+	}
+
+	// Splits t into the keys < k (returned in splitLeft) and >= k
+	// (splitRight).
+	private int splitLeft, splitRight;
+
+	private void split(int t, double k) {
+		if (t == 0) {
+			splitLeft = 0;
+			splitRight = 0;
+		} else if (Double.compare(key[t], k) < 0) {
+			split(right[t], k);
+			right[t] = splitLeft;
+			update(t);
+			splitLeft = t;
+		} else {
+			split(left[t], k);
+			left[t] = splitRight;
+			update(t);
+			splitRight = t;
+		}
+	}
+
+	// Every key of a is <= every key of b.
+	private int merge(int a, int b) {
+		if (a == 0) {
+			return b;
+		} else if (b == 0) {
+			return a;
+		} else if (priority[a] > priority[b]) {
+			right[a] = merge(right[a], b);
+			update(a);
+			return a;
+		} else {
+			left[b] = merge(a, left[b]);
+			update(b);
+			return b;
+		}
+	}
+
+	void insert(double k) {
+		if (nFree == 0) {
+			throw new IllegalStateException("order statistic tree is full");
+		}
+		int t = free[--nFree];
+		key[t] = k;
+		priority[t] = random();
+		left[t] = 0;
+		right[t] = 0;
+		size[t] = 1;
+		split(root, k);
+		int a = splitLeft;
+		int b = splitRight;
+		root = merge(merge(a, t), b);
+	}
+
+	// Removes one occurrence of k (if any).
+	void delete(double k) {
+		split(root, k);
+		int a = splitLeft;
+		int b = splitRight; // keys >= k; the smallest is leftmost
+		if (b != 0) {
+			int smallest = b;
+			while (left[smallest] != 0) {
+				smallest = left[smallest];
+			}
+			if (Double.compare(key[smallest], k) == 0) {
+				b = removeLeftmost(b);
+				free[nFree++] = smallest;
+			}
+		}
+		root = merge(a, b);
+	}
+
+	private int removeLeftmost(int t) {
+		if (left[t] == 0) {
+			return right[t];
+		}
+		left[t] = removeLeftmost(left[t]);
+		update(t);
+		return t;
+	}
+
+	// The k-th smallest key, 0 <= k < size().
+	double select(int k) {
+		int t = root;
+		while (true) {
+			int l = size[left[t]];
+			if (k < l) {
+				t = left[t];
+			} else if (k == l) {
+				return key[t];
+			} else {
+				k -= l + 1;
+				t = right[t];
+			}
+		}
+	}
+
+	// Quantile q (0 <= q <= 1) with linear interpolation between the
+	// closest ranks: rank (size - 1) * q.
+	double quantile(double q) {
+		double h = (size() - 1) * q;
+		int lo = (int) Math.floor(h);
+		double x = select(lo);
+		if (h == lo) {
+			return x;
+		}
+		return x + (h - lo) * (select(lo + 1) - x);
+	}
+
+}
@@ -5,8 +5,11 @@ import java.util.ArrayDeque;
 import utils.functions.Func2;
 
 // A variant of parallel composition, which is similar to 'zip'.
+//
+// The sinks of the two branches are bound to the downstream sink once and
+// reused for every item (see Pipeline).
 
-public class Parallel<A, B, C, D> implements Query<A, D> {
+public class Parallel<A, B, C, D> implements Query<A, D>, Buffered {
 
 	private final Query<A,B> q1;
 	private final Query<A,C> q2;
@@ -15,6 +18,11 @@ public class Parallel<A, B, C, D> implements Query<A, D> {
 	private boolean ended1;
 	private ArrayDeque<C> buffer2;
 	private boolean ended2;
+	private long watermark1; // last watermark from each branch
+	private long watermark2;
+	private Sink<D> bound; // downstream sink that 'left'/'right' forward to
+	private Sink<B> left;
+	private Sink<C> right;
 
 	public Parallel(Query<A,B> q1, Query<A,C> q2, Func2<B,C,D> op) {
 		this.q1 = q1;
@@ -24,6 +32,23 @@ public class Parallel<A, B, C, D> implements Query<A, D> {
 		this.buffer2 = new ArrayDeque<>();
 	}
 
+	Query<A,B> first() {
+		return q1;
+	}
+
+	Query<A,C> second() {
+		return q2;
+	}
+
+	Func2<B,C,D> op() {
+		return op;
+	}
+
+	@Override
+	public int buffered() {
+		return buffer1.size() + buffer2.size();
+	}
+
 	private void process1(B b, Sink<D> sink) {
 		if (buffer2.isEmpty()) {
 			buffer1.add(b);
@@ -34,6 +59,22 @@ public class Parallel<A, B, C, D> implements Query<A, D> {
 		}
 	}
 
+	private void bind(Sink<D> sink) {
+		if (sink != bound) {
+			bound = sink;
+			left = left(sink);
+			right = right(sink);
+		}
+	}
+
+	// The combined watermark is the minimum of the two branches.
+	private void forward(long before, Sink<D> sink) {
+		long after = Math.min(watermark1, watermark2);
+		if (after > before) {
+			sink.watermark(after);
+		}
+	}
+
 	private Sink<B> left(Sink<D> sink) {
 		return new Sink<B>() {
 			@Override
@@ -41,6 +82,12 @@ public class Parallel<A, B, C, D> implements Query<A, D> {
 				process1(item, sink);
 			}
 			@Override
+			public void watermark(long ts) {
+				long before = Math.min(watermark1, watermark2);
+				watermark1 = Math.max(watermark1, ts);
+				forward(before, sink);
+			}
+			@Override
 			public void end() {
 				ended1 = true;
 				if (ended2) {
@@ -69,6 +116,12 @@ public class Parallel<A, B, C, D> implements Query<A, D> {
 				process2(item, sink);
 			}
 			@Override
+			public void watermark(long ts) {
+				long before = Math.min(watermark1, watermark2);
+				watermark2 = Math.max(watermark2, ts);
+				forward(before, sink);
+			}
+			@Override
 			public void end() {
 				ended2 = true;
 				if (ended1) {
@@ -82,20 +135,62 @@ public class Parallel<A, B, C, D> implements Query<A, D> {
 
 	@Override
 	public void start(Sink<D> sink) {
-		q1.start(left(sink));
-		q2.start(right(sink));
+		bind(sink);
+		watermark1 = Long.MIN_VALUE;
+		watermark2 = Long.MIN_VALUE;
+		q1.start(left);
+		q2.start(right);
 	}
 
 	@Override
 	public void next(A item, Sink<D> sink) {
-		q1.next(item, left(sink));
-		q2.next(item, right(sink));
+		bind(sink);
+		q1.next(item, left);
+		q2.next(item, right);
+	}
+
+	@Override
+	public void watermark(long ts, Sink<D> sink) {
+		bind(sink);
+		q1.watermark(ts, left);
+		q2.watermark(ts, right);
 	}
 
 	@Override
 	public void end(Sink<D> sink) {
-		q1.end(left(sink));
-		q2.end(right(sink));
+		bind(sink);
+		q1.end(left);
+		q2.end(right);
+	}
+
+	@Override
+	public void abort() {
+		q1.abort();
+		q2.abort();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		q1.snapshot(out);
+		q2.snapshot(out);
+		out.writeAll(buffer1);
+		out.writeBoolean(ended1);
+		out.writeAll(buffer2);
+		out.writeBoolean(ended2);
+		out.writeLong(watermark1);
+		out.writeLong(watermark2);
 	}
-	
+
+	@Override
+	public void restore(StateReader in) {
+		q1.restore(in);
+		q2.restore(in);
+		in.readAll(buffer1);
+		ended1 = in.readBoolean();
+		in.readAll(buffer2);
+		ended2 = in.readBoolean();
+		watermark1 = in.readLong();
+		watermark2 = in.readLong();
+	}
+
 }
@@ -0,0 +1,304 @@
+package dsl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import utils.functions.Func2;
+
+// Concurrent version of Parallel ('zip' of two branches).
+//
+// The input items are published to a BroadcastRing. Each branch runs on its
+// own thread and writes its output to an SpscRing. A merge thread zips the
+// two outputs and calls the downstream sink. next() returns as soon as the
+// item has been published. end() waits until everything has been delivered
+// and rethrows any failure of the worker threads.
+//
+// Memory and lag are bounded. The zip holds at most config.capacity
+// unmatched outputs per branch; when one side is full it stops reading that
+// branch, which then blocks, and so does the producer. If the other branch
+// cannot make progress without more input (e.g. it only emits in end()),
+// and this lasts for config.stallTimeoutMillis, the query fails with an
+// IllegalStateException instead of deadlocking (with a timeout of 0 it
+// keeps waiting); the sequential Parallel would buffer without bound.
+// Outputs of one branch that can no longer be matched because the other
+// has finished are dropped.
+//
+// Watermarks travel through the rings in their place between the items.
+// The zip forwards the minimum of the two branches (as Parallel does) once
+// the outputs before it have been paired.
+
+public class ParallelAsync<A, B, C, D> implements Query<A, D> {
+
+	private final Query<A,B> q1;
+	private final Query<A,C> q2;
+	private final Func2<B,C,D> op;
+	private final AsyncConfig config;
+	private BroadcastRing<Object> input;
+	private SpscRing<Object> output1;
+	private SpscRing<Object> output2;
+	private List<Thread> workers;
+	private AtomicReference<Throwable> failure;
+
+	public ParallelAsync
+	(Query<A,B> q1, Query<A,C> q2, Func2<B,C,D> op, AsyncConfig config)
+	{
+		this.q1 = q1;
+		this.q2 = q2;
+		this.op = op;
+		this.config = config;
+	}
+
+	private void cancel() {
+		input.cancel();
+		output1.cancel();
+		output2.cancel();
+	}
+
+	// Stops the worker threads (they fail with a CancellationException,
+	// which is not reported since the run has failed already).
+	@Override
+	public void abort() {
+		if (input != null) {
+			cancel();
+		}
+		q1.abort();
+		q2.abort();
+	}
+
+	private Thread worker(String name, Runnable body) {
+		Thread thread = new Thread(() -> {
+			try {
+				body.run();
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+				cancel();
+			}
+		}, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	private void branch(Query<A,?> q, int index, SpscRing<Object> output) {
+		Query<Object,Object> branch = AsyncExecutor.erase(q);
+		Sink<Object> out = new AsyncExecutor.RingSink(output);
+		Object[] buffer = new Object[Q.BATCH_SIZE];
+		branch.start(out);
+		while (true) {
+			int n = input.takeBatch(index, buffer);
+			int from = 0;
+			for (int i=0; i<n; i++) {
+				Object item = buffer[i];
+				if (item instanceof AsyncExecutor.Watermark) {
+					if (from < i) {
+						branch.nextBatch(buffer, from, i, out);
+					}
+					from = i + 1;
+					branch.watermark(((AsyncExecutor.Watermark) item).ts, out);
+				} else if (item == AsyncExecutor.END) {
+					if (from < i) {
+						branch.nextBatch(buffer, from, i, out);
+					}
+					branch.end(out);
+					output.put(AsyncExecutor.CLOSE);
+					return;
+				}
+			}
+			if (from < n) {
+				branch.nextBatch(buffer, from, n, out);
+			}
+			Arrays.fill(buffer, 0, n, null);
+		}
+	}
+
+	// Read from 'output' into 'buffer' (outputs and watermarks) unless the
+	// buffer is full. Returns the number of items taken from the ring, or
+	// -1 once it is closed.
+	private int poll(SpscRing<Object> output, ArrayDeque<Object> buffer,
+					 Object[] tmp, boolean[] ended)
+	{
+		if (buffer.size() >= config.capacity) {
+			return 0;
+		}
+		int n = output.pollBatch(tmp);
+		boolean closed = false;
+		for (int i=0; i<n; i++) {
+			if (tmp[i] == AsyncExecutor.END) {
+				ended[0] = true;
+			} else if (tmp[i] == AsyncExecutor.CLOSE) {
+				closed = true;
+			} else {
+				buffer.add(tmp[i]);
+			}
+		}
+		Arrays.fill(tmp, 0, n, null);
+		return closed ? -1 : n;
+	}
+
+	// Both sides are blocked for good: the full side's branch waits for the
+	// zip, the producer waits for that branch, and the other branch waits
+	// for the producer without anything left to emit.
+	private boolean stalled(SpscRing<Object> full, int other, SpscRing<Object> otherOutput) {
+		return full.isProducerWaiting()
+			&& input.isProducerWaiting()
+			&& input.isConsumerWaiting(other)
+			&& otherOutput.isEmpty();
+	}
+
+	// Pairs the outputs at the heads of the buffers. A watermark leaves its
+	// buffer once every output before it has been paired.
+	@SuppressWarnings("unchecked")
+	private void zip(ArrayDeque<Object> buffer1, ArrayDeque<Object> buffer2,
+					 long[] watermarks, Sink<D> sink)
+	{
+		while (true) {
+			Object x1 = buffer1.peek();
+			Object x2 = buffer2.peek();
+			if (x1 instanceof AsyncExecutor.Watermark) {
+				advance(watermarks, 0, buffer1.remove(), sink);
+			} else if (x2 instanceof AsyncExecutor.Watermark) {
+				advance(watermarks, 1, buffer2.remove(), sink);
+			} else if (x1 != null && x2 != null) {
+				buffer1.remove();
+				buffer2.remove();
+				sink.next(op.apply((B) x1, (C) x2));
+			} else {
+				return;
+			}
+		}
+	}
+
+	private static void advance(long[] watermarks, int branch, Object w, Sink<?> sink) {
+		long before = Math.min(watermarks[0], watermarks[1]);
+		watermarks[branch] = Math.max(watermarks[branch], ((AsyncExecutor.Watermark) w).ts);
+		long after = Math.min(watermarks[0], watermarks[1]);
+		if (after > before) {
+			sink.watermark(after);
+		}
+	}
+
+	// Drops the outputs that the other (finished) branch can no longer
+	// match, but keeps their watermarks.
+	private static void unmatched(ArrayDeque<Object> buffer, int branch, long[] watermarks, Sink<?> sink) {
+		for (Object x : buffer) {
+			if (x instanceof AsyncExecutor.Watermark) {
+				advance(watermarks, branch, x, sink);
+			}
+		}
+		buffer.clear();
+	}
+
+	private void merge(Sink<D> sink) {
+		ArrayDeque<Object> buffer1 = new ArrayDeque<>();
+		ArrayDeque<Object> buffer2 = new ArrayDeque<>();
+		long[] watermarks = { Long.MIN_VALUE, Long.MIN_VALUE }; // per branch
+		boolean[] ended1 = { false }; // branch called end()
+		boolean[] ended2 = { false };
+		boolean closed1 = false, closed2 = false; // no more items
+		Object[] tmp = new Object[Q.BATCH_SIZE];
+		int spins = 0;
+		long stalledSince = -1;
+		while (!closed1 || !closed2) {
+			int n1 = closed1 ? 0 : poll(output1, buffer1, tmp, ended1);
+			int n2 = closed2 ? 0 : poll(output2, buffer2, tmp, ended2);
+			closed1 = closed1 || n1 < 0;
+			closed2 = closed2 || n2 < 0;
+			zip(buffer1, buffer2, watermarks, sink);
+			if (closed1 && buffer1.isEmpty()) {
+				unmatched(buffer2, 1, watermarks, sink);
+			}
+			if (closed2 && buffer2.isEmpty()) {
+				unmatched(buffer1, 0, watermarks, sink);
+			}
+			if (n1 == 0 && n2 == 0) {
+				if ((buffer1.size() >= config.capacity && stalled(output1, 1, output2))
+					|| (buffer2.size() >= config.capacity && stalled(output2, 0, output1)))
+				{
+					long now = System.nanoTime();
+					if (stalledSince < 0) {
+						stalledSince = now;
+					} else if (config.stallTimeoutMillis > 0
+						&& now - stalledSince > config.stallTimeoutMillis * 1_000_000L)
+					{
+						throw new IllegalStateException(
+							"parallel branches drifted more than " + config.capacity + " items apart");
+					}
+				} else {
+					stalledSince = -1;
+				}
+				SpscRing.pause(spins++);
+			} else {
+				spins = 0;
+				stalledSince = -1;
+			}
+		}
+		if (ended1[0] && ended2[0]) {
+			sink.end();
+		}
+	}
+
+	private void publish(Object item) {
+		try {
+			input.put(item);
+		} catch (CancellationException e) {
+			AsyncExecutor.rethrow(failure.get());
+			throw e;
+		}
+	}
+
+	@Override
+	public void start(Sink<D> sink) {
+		failure = new AtomicReference<>();
+		input = new BroadcastRing<>(config.capacity, 2);
+		output1 = new SpscRing<>(config.capacity);
+		output2 = new SpscRing<>(config.capacity);
+		workers = new ArrayList<>();
+		workers.add(worker("dsl-parallel-left", () -> branch(q1, 0, output1)));
+		workers.add(worker("dsl-parallel-right", () -> branch(q2, 1, output2)));
+		workers.add(worker("dsl-parallel-merge", () -> merge(sink)));
+		workers.forEach(Thread::start);
+	}
+
+	@Override
+	public void next(A item, Sink<D> sink) {
+		publish(item);
+	}
+
+	@Override
+	public void nextBatch(Object[] items, int from, int to, Sink<D> sink) {
+		for (int i=from; i<to; i++) {
+			publish(items[i]);
+		}
+	}
+
+	@Override
+	public void end(Sink<D> sink) {
+		publish(AsyncExecutor.END);
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				cancel();
+				Thread.currentThread().interrupt();
+				throw new CancellationException("interrupted while waiting for branches");
+			}
+		}
+		AsyncExecutor.rethrow(failure.get());
+	}
+
+	// The state lives on the worker threads, which only quiesce at the end
+	// of the stream, so there is no item boundary to snapshot at.
+	@Override
+	public void snapshot(StateWriter out) {
+		throw new UnsupportedOperationException("asynchronous operators cannot be snapshotted");
+	}
+
+	@Override
+	public void watermark(long ts, Sink<D> sink) {
+		publish(new AsyncExecutor.Watermark(ts));
+	}
+
+}
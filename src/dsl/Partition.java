@@ -0,0 +1,308 @@
+package dsl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Key-partitioned data parallelism.
+//
+// Every input item is hashed on its key to one of nShards independent
+// instances of a query (created with 'shard' when the query starts, so the
+// supplier must return a fresh instance on every call), each
+// of which runs on its own thread behind an SpscRing. A merge thread
+// collects the outputs of all shards and pushes them through the 'merge'
+// query (often just Q.id()) into the downstream sink.
+//
+// Unordered mode forwards outputs as soon as they are available. Ordered
+// mode emits the outputs that belong to one input item before those of
+// later items (the order of a single instance running sequentially),
+// followed by the outputs that the shards emit in end(), shard by shard.
+//
+// next() returns once the item has been handed to its shard. end() waits
+// until everything has been delivered and rethrows any failure.
+//
+// A watermark is passed to every shard, in its place between the items.
+// The merge query sees the minimum of the watermarks that the shards have
+// emitted, whenever it increases.
+
+public class Partition<A,B,C> implements Query<A,C> {
+
+	// Sent by a shard after all outputs for one item (ordered mode only).
+	private static final Object DONE = new Object();
+
+	private final Function<A,?> key;
+	private final int nShards;
+	private final Supplier<Query<A,B>> shard;
+	private final Query<B,C> merge;
+	private final boolean ordered;
+	private final AsyncConfig config;
+	private List<SpscRing<Object>> inputs;
+	private List<SpscRing<Object>> outputs;
+	private SpscRing<Object> routes; // shard of every item (ordered mode)
+	private List<Query<A,B>> shards;
+	private List<Thread> workers;
+	private AtomicReference<Throwable> failure;
+
+	public Partition(Function<A,?> key, int nShards, Supplier<Query<A,B>> shard,
+					 Query<B,C> merge, boolean ordered, AsyncConfig config)
+	{
+		if (nShards < 1) {
+			throw new IllegalArgumentException("nShards should be >= 1");
+		}
+		this.key = key;
+		this.nShards = nShards;
+		this.shard = shard;
+		this.merge = merge;
+		this.ordered = ordered;
+		this.config = config;
+	}
+
+	private void cancel() {
+		inputs.forEach(SpscRing::cancel);
+		outputs.forEach(SpscRing::cancel);
+		routes.cancel();
+	}
+
+	// Stops the worker threads (they fail with a CancellationException,
+	// which is not reported since the run has failed already).
+	@Override
+	public void abort() {
+		if (inputs != null) {
+			cancel();
+			shards.forEach(Query::abort);
+		}
+		merge.abort();
+	}
+
+	private Thread worker(String name, Runnable body) {
+		Thread thread = new Thread(() -> {
+			try {
+				body.run();
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+				cancel();
+			}
+		}, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	private void runShard(Query<A,B> shard, SpscRing<Object> input, SpscRing<Object> output) {
+		Query<Object,Object> q = AsyncExecutor.erase(shard);
+		Sink<Object> out = new AsyncExecutor.RingSink(output);
+		Object[] buffer = new Object[Q.BATCH_SIZE];
+		q.start(out);
+		while (true) {
+			int n = input.takeBatch(buffer);
+			int from = 0;
+			for (int i=0; i<n; i++) {
+				Object item = buffer[i];
+				if (item instanceof AsyncExecutor.Watermark || item == AsyncExecutor.END) {
+					if (!ordered && from < i) {
+						q.nextBatch(buffer, from, i, out);
+					}
+					from = i + 1;
+					if (item == AsyncExecutor.END) {
+						q.end(out);
+						output.put(AsyncExecutor.CLOSE);
+						return;
+					}
+					q.watermark(((AsyncExecutor.Watermark) item).ts, out);
+				} else if (ordered) {
+					q.next(item, out);
+				}
+				if (ordered) {
+					output.put(DONE);
+				}
+			}
+			if (!ordered && from < n) {
+				q.nextBatch(buffer, from, n, out);
+			}
+			Arrays.fill(buffer, 0, n, null);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void emit(Object item, Sink<C> sink) {
+		merge.next((B) item, sink);
+	}
+
+	// Shard s has emitted watermark ts: forward the minimum over all shards
+	// if it has increased.
+	private void advance(long[] watermarks, int s, long ts, Sink<C> sink) {
+		long before = Long.MAX_VALUE;
+		long after = Long.MAX_VALUE;
+		for (int i=0; i<nShards; i++) {
+			before = Math.min(before, watermarks[i]);
+			if (i == s) {
+				watermarks[i] = Math.max(watermarks[i], ts);
+			}
+			after = Math.min(after, watermarks[i]);
+		}
+		if (after > before) {
+			merge.watermark(after, sink);
+		}
+	}
+
+	// Forward the outputs of shard s up to (and including) the next DONE or
+	// CLOSE marker. Returns true if the shard has called end().
+	private boolean forward(int s, long[] watermarks, Sink<C> sink, Object stop) {
+		SpscRing<Object> output = outputs.get(s);
+		boolean ended = false;
+		while (true) {
+			Object item = output.take();
+			if (item == stop || item == AsyncExecutor.CLOSE) {
+				return ended;
+			} else if (item == AsyncExecutor.END) {
+				ended = true;
+			} else if (item instanceof AsyncExecutor.Watermark) {
+				advance(watermarks, s, ((AsyncExecutor.Watermark) item).ts, sink);
+			} else {
+				emit(item, sink);
+			}
+		}
+	}
+
+	private void runMerge(Sink<C> sink) {
+		merge.start(sink);
+		long[] watermarks = new long[nShards];
+		Arrays.fill(watermarks, Long.MIN_VALUE);
+		int nEnded = 0;
+		if (ordered) {
+			while (true) {
+				Object route = routes.take();
+				if (route == AsyncExecutor.END) {
+					break;
+				} else if (route instanceof AsyncExecutor.Watermark) {
+					for (int s=0; s<nShards; s++) {
+						forward(s, watermarks, sink, DONE);
+					}
+				} else {
+					forward((Integer) route, watermarks, sink, DONE);
+				}
+			}
+			for (int s=0; s<nShards; s++) {
+				if (forward(s, watermarks, sink, AsyncExecutor.CLOSE)) {
+					nEnded += 1;
+				}
+			}
+		} else {
+			boolean[] closed = new boolean[nShards];
+			int nClosed = 0;
+			Object[] buffer = new Object[Q.BATCH_SIZE];
+			int spins = 0;
+			while (nClosed < nShards) {
+				int total = 0;
+				for (int s=0; s<nShards; s++) {
+					if (closed[s]) {
+						continue;
+					}
+					int n = outputs.get(s).pollBatch(buffer);
+					total += n;
+					for (int i=0; i<n; i++) {
+						Object item = buffer[i];
+						if (item == AsyncExecutor.END) {
+							nEnded += 1;
+						} else if (item == AsyncExecutor.CLOSE) {
+							closed[s] = true;
+							nClosed += 1;
+						} else if (item instanceof AsyncExecutor.Watermark) {
+							advance(watermarks, s, ((AsyncExecutor.Watermark) item).ts, sink);
+						} else {
+							emit(item, sink);
+						}
+					}
+					Arrays.fill(buffer, 0, n, null);
+				}
+				if (total == 0) {
+					SpscRing.pause(spins++);
+				} else {
+					spins = 0;
+				}
+			}
+		}
+		if (nEnded == nShards) {
+			merge.end(sink);
+		}
+	}
+
+	@Override
+	public void start(Sink<C> sink) {
+		failure = new AtomicReference<>();
+		inputs = new ArrayList<>();
+		outputs = new ArrayList<>();
+		routes = new SpscRing<>(config.capacity);
+		shards = new ArrayList<>();
+		workers = new ArrayList<>();
+		for (int s=0; s<nShards; s++) {
+			SpscRing<Object> input = new SpscRing<>(config.capacity);
+			SpscRing<Object> output = new SpscRing<>(config.capacity);
+			Query<A,B> q = shard.get();
+			shards.add(q);
+			inputs.add(input);
+			outputs.add(output);
+			workers.add(worker("dsl-shard-" + s, () -> runShard(q, input, output)));
+		}
+		workers.add(worker("dsl-shard-merge", () -> runMerge(sink)));
+		workers.forEach(Thread::start);
+	}
+
+	private void put(SpscRing<Object> ring, Object item) {
+		try {
+			ring.put(item);
+		} catch (CancellationException e) {
+			AsyncExecutor.rethrow(failure.get());
+			throw e;
+		}
+	}
+
+	@Override
+	public void next(A item, Sink<C> sink) {
+		int s = Math.floorMod(key.apply(item).hashCode(), nShards);
+		put(inputs.get(s), item);
+		if (ordered) {
+			put(routes, s);
+		}
+	}
+
+	@Override
+	public void end(Sink<C> sink) {
+		for (SpscRing<Object> input : inputs) {
+			put(input, AsyncExecutor.END);
+		}
+		put(routes, AsyncExecutor.END);
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				cancel();
+				Thread.currentThread().interrupt();
+				throw new CancellationException("interrupted while waiting for shards");
+			}
+		}
+		AsyncExecutor.rethrow(failure.get());
+	}
+
+	// The state lives on the worker threads, which only quiesce at the end
+	// of the stream, so there is no item boundary to snapshot at.
+	@Override
+	public void snapshot(StateWriter out) {
+		throw new UnsupportedOperationException("asynchronous operators cannot be snapshotted");
+	}
+
+	@Override
+	public void watermark(long ts, Sink<C> sink) {
+		AsyncExecutor.Watermark w = new AsyncExecutor.Watermark(ts);
+		for (SpscRing<Object> input : inputs) {
+			put(input, w);
+		}
+		if (ordered) {
+			put(routes, w);
+		}
+	}
+
+}
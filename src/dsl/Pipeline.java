@@ -1,29 +1,54 @@
 package dsl;
 
 // Serial composition.
+//
+// The intermediate sink is bound to the downstream sink once (normally in
+// start) and reused for every item, so the per-item path does not allocate.
 
 public class Pipeline<A,B,C> implements Query<A,C> {
 
 	private final Query<A,B> q1;
 	private final Query<B,C> q2;
+	private Sink<C> bound; // downstream sink that 'link' forwards to
+	private Sink<B> link;
 
 	public Pipeline(Query<A,B> q1, Query<B,C> q2) {
 		this.q1 = q1;
 		this.q2 = q2;
 	}
 
+	Query<A,B> first() {
+		return q1;
+	}
+
+	Query<B,C> second() {
+		return q2;
+	}
+
 	private Sink<B> intermediate(Sink<C> sink) {
-		return new Sink<B>() {
-			@Override
-			public void next(B item) {
-				q2.next(item, sink);
-			}
-			@Override
-			public void end() {
-				q2.end(sink);
-			}
-		};
-	}	
+		if (sink != bound) {
+			bound = sink;
+			link = new Sink<B>() {
+				@Override
+				public void next(B item) {
+					q2.next(item, sink);
+				}
+				@Override
+				public void nextBatch(Object[] items, int from, int to) {
+					q2.nextBatch(items, from, to, sink);
+				}
+				@Override
+				public void watermark(long ts) {
+					q2.watermark(ts, sink);
+				}
+				@Override
+				public void end() {
+					q2.end(sink);
+				}
+			};
+		}
+		return link;
+	}
 
 	@Override
 	public void start(Sink<C> sink) {
@@ -36,9 +61,37 @@ public class Pipeline<A,B,C> implements Query<A,C> {
 		q1.next(item, intermediate(sink));
 	}
 
+	@Override
+	public void nextBatch(Object[] items, int from, int to, Sink<C> sink) {
+		q1.nextBatch(items, from, to, intermediate(sink));
+	}
+
+	@Override
+	public void watermark(long ts, Sink<C> sink) {
+		q1.watermark(ts, intermediate(sink));
+	}
+
 	@Override
 	public void end(Sink<C> sink) {
 		q1.end(intermediate(sink));
 	}
-	
+
+	@Override
+	public void abort() {
+		q1.abort();
+		q2.abort();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		q1.snapshot(out);
+		q2.snapshot(out);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		q1.restore(in);
+		q2.restore(in);
+	}
+
 }
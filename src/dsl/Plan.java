@@ -0,0 +1,194 @@
+package dsl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import utils.Or;
+import utils.functions.Func2;
+
+// Logical view of a query: the kind of every operator and the properties
+// the optimizer relies on. Map, Filter, Id, Dup and the compositions are
+// recognized; every other query is an opaque leaf that is kept as it is.
+//
+// stateless: the output for an item depends on that item only.
+// selectivity: expected output items per input item (NaN if unknown;
+//   filters are assumed to keep half of their input).
+// commutesWithFilters: a stateless filter gives the same result before and
+//   after the operator.
+
+public final class Plan {
+
+	public enum Kind { ID, MAP, FILTER, FUSED, DUP, CHAIN, PARALLEL, LOOP, OTHER }
+
+	public final Kind kind;
+	public final boolean stateless;
+	public final double selectivity;
+	public final boolean commutesWithFilters;
+	final Query<?,?> query; // the operator, if it already exists
+	final List<Object> steps; // maps (Function) and filters (Predicate)
+	final List<Plan> children; // stages, branches or loop body
+	final Func2<?,?,?> op; // combines the branches of PARALLEL
+
+	private Plan(Kind kind, Query<?,?> query, List<Object> steps, List<Plan> children, Func2<?,?,?> op) {
+		this.kind = kind;
+		this.query = query;
+		this.steps = steps;
+		this.children = children;
+		this.op = op;
+		switch (kind) {
+			case ID:
+			case MAP:
+				stateless = true; selectivity = 1.0; commutesWithFilters = false;
+				break;
+			case FILTER:
+			case FUSED:
+				double s = 1.0;
+				for (Object step : steps) {
+					s *= (step instanceof Predicate) ? 0.5 : 1.0;
+				}
+				stateless = true; selectivity = s; commutesWithFilters = kind == Kind.FILTER;
+				break;
+			case DUP:
+				stateless = true; selectivity = 2.0; commutesWithFilters = true;
+				break;
+			case CHAIN:
+				boolean all = true;
+				double product = 1.0;
+				for (Plan child : children) {
+					all = all && child.stateless;
+					product *= child.selectivity;
+				}
+				stateless = all; selectivity = product; commutesWithFilters = false;
+				break;
+			default:
+				stateless = false; selectivity = Double.NaN; commutesWithFilters = false;
+		}
+	}
+
+	static Plan leaf(Kind kind, Query<?,?> query) {
+		return new Plan(kind, query, List.of(), List.of(), null);
+	}
+
+	static Plan steps(Kind kind, List<Object> steps) {
+		return new Plan(kind, null, List.copyOf(steps), List.of(), null);
+	}
+
+	static Plan chain(List<Plan> stages) {
+		return new Plan(Kind.CHAIN, null, List.of(), List.copyOf(stages), null);
+	}
+
+	static Plan parallel(Plan left, Plan right, Func2<?,?,?> op) {
+		return new Plan(Kind.PARALLEL, null, List.of(), List.of(left, right), op);
+	}
+
+	static Plan loop(Plan body) {
+		return new Plan(Kind.LOOP, null, List.of(), List.of(body), null);
+	}
+
+	// A plan does not track the types of its operators and steps (they fit
+	// together, and the optimizer only rearranges them); this is the one
+	// place where they are cast back.
+	@SuppressWarnings("unchecked")
+	static <T> T cast(Object x) {
+		return (T) x;
+	}
+
+	// Stages of a CHAIN, branches of a PARALLEL, body of a LOOP.
+	public List<Plan> children() {
+		return children;
+	}
+
+	public static Plan of(Query<?,?> q) {
+		if (q instanceof Pipeline || q instanceof Chain) {
+			List<Query<?,?>> stages = new ArrayList<>();
+			AsyncExecutor.flatten(q, stages);
+			List<Plan> plans = new ArrayList<>();
+			for (Query<?,?> stage : stages) {
+				plans.add(of(stage));
+			}
+			return chain(plans);
+		} else if (q instanceof Map) {
+			return new Plan(Kind.MAP, q, List.of(((Map<?,?>) q).op()), List.of(), null);
+		} else if (q instanceof Filter) {
+			return new Plan(Kind.FILTER, q, List.of(((Filter<?>) q).pred()), List.of(), null);
+		} else if (q instanceof Fused) {
+			return new Plan(Kind.FUSED, q, ((Fused<?,?>) q).steps(), List.of(), null);
+		} else if (q instanceof Id) {
+			return leaf(Kind.ID, q);
+		} else if (q instanceof Dup) {
+			return leaf(Kind.DUP, q);
+		} else if (q instanceof Parallel) {
+			Parallel<?,?,?,?> p = (Parallel<?,?,?,?>) q;
+			return parallel(of(p.first()), of(p.second()), p.op());
+		} else if (q instanceof Loop) {
+			return loop(of(((Loop<?,?>) q).body()));
+		} else {
+			return leaf(Kind.OTHER, q);
+		}
+	}
+
+	// Builds the query for the plan; operators that the optimizer did not
+	// touch are reused.
+	public Query<?,?> toQuery() {
+		if (query != null) {
+			return query;
+		}
+		switch (kind) {
+			case MAP:
+				Function<Object,Object> f = cast(steps.get(0));
+				return new Map<>(f);
+			case FILTER:
+				Predicate<Object> p = cast(steps.get(0));
+				return new Filter<>(p);
+			case FUSED:
+				return new Fused<>(steps);
+			case CHAIN:
+				if (children.size() == 1) {
+					return children.get(0).toQuery();
+				}
+				List<Query<?,?>> stages = new ArrayList<>();
+				for (Plan child : children) {
+					stages.add(child.toQuery());
+				}
+				return new Chain<>(stages);
+			case PARALLEL:
+				Query<Object,Object> left = cast(children.get(0).toQuery());
+				Query<Object,Object> right = cast(children.get(1).toQuery());
+				Func2<Object,Object,Object> op2 = cast(op);
+				return new Parallel<>(left, right, op2);
+			case LOOP:
+				Query<Or<Object,Object>,Object> body = cast(children.get(0).toQuery());
+				return new Loop<>(body);
+			default:
+				throw new IllegalStateException("no query for " + kind);
+		}
+	}
+
+	private void explain(StringBuilder sb, String indent) {
+		sb.append(indent).append(kind);
+		if (kind == Kind.OTHER) {
+			sb.append(' ').append(query.getClass().getSimpleName());
+		} else if (kind == Kind.FUSED) {
+			sb.append(" (").append(steps.size()).append(" steps)");
+		}
+		sb.append(stateless ? " stateless" : "");
+		if (!Double.isNaN(selectivity)) {
+			sb.append(" selectivity=").append(selectivity);
+		}
+		sb.append('\n');
+		for (Plan child : children) {
+			child.explain(sb, indent + "  ");
+		}
+	}
+
+	// One line per operator, indented by depth.
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		explain(sb, "");
+		return sb.toString();
+	}
+
+}
@@ -1,18 +1,44 @@
 package dsl;
 
-import java.text.DecimalFormat;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoublePredicate;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongBinaryOperator;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
 
 import utils.Or;
+import utils.Pair;
 import utils.functions.Func2;
 import utils.functions.Func3;
 
 public class Q {
 
+	// Number of items that execute() pulls from the iterator at a time.
+	static final int BATCH_SIZE = 256;
+
 	private Q() {
 
 	}
@@ -45,52 +71,56 @@ public class Q {
 		return new Fold<>(init, op);
 	}
 
-	private static class SumCount {
-		public static final SumCount zero = new SumCount(0.0, 0);
-		public final double s;
-		public final long c;
-		public SumCount(double s, long c) {
-			this.s = s;
-			this.c = c;
-		}
-		public SumCount add(SumCount p) {
-			return new SumCount(s + p.s, c + p.c);
-		}
-	}
-
 	public static Query<Double,Double> foldAvg() {
-		Query<Double,SumCount> q1 = Q.map(x -> new SumCount(x, 1));
-		Query<SumCount,SumCount> q2 = Q.fold(SumCount.zero, SumCount::add);
-		Query<SumCount,Double> q3 = Q.map(p -> p.s / p.c);
-		return Q.pipeline(q1, q2, q3);
-	}
-
-	private static class SumSqCount {
-		public static final SumSqCount zero = new SumSqCount(0.0, 0.0, 0);
-		public final double s2;
-		public final double s;
-		public final long c;
-		public SumSqCount(double s2, double s, long c) {
-			this.s2 = s2;
-			this.s = s;
-			this.c = c;
-		}
-		public SumSqCount add(SumSqCount p) {
-			return new SumSqCount(s2 + p.s2, s + p.s, c + p.c);
-		}
+		return foldStats(RunningStats.Stat.MEAN);
 	}
 
+	// Population standard deviation.
 	public static Query<Double,Double> foldStdev() {
-		Query<Double,SumSqCount> q1 =
-			Q.map(x -> new SumSqCount(x*x, x, 1));
-		Query<SumSqCount,SumSqCount> q2 =
-			Q.fold(SumSqCount.zero, SumSqCount::add);
-		Query<SumSqCount,Double> q3 =
-			Q.map(p -> {
-				double mu = p.s / p.c;
-				return Math.sqrt((p.s2 / p.c) - mu*mu);
-			});
-		return Q.pipeline(q1, q2, q3);
+		return foldStats(RunningStats.Stat.STDEV);
+	}
+
+	// Running statistics (see DoubleStats).
+
+	public static Query<Double,Double> foldStats(RunningStats.Stat stat) {
+		return boxDouble(doubleFoldStats(stat));
+	}
+
+	public static Query<Double,Double> scanStats(RunningStats.Stat stat) {
+		return boxDouble(doubleScanStats(stat));
+	}
+
+	public static Query<Double,Double> sWindowStats(int wndSize, RunningStats.Stat stat) {
+		return boxDouble(doubleSWindowStats(wndSize, stat));
+	}
+
+	public static <A,Acc,R> Query<A,R> aggregate(Aggregator<A,Acc,R> agg) {
+		return new Aggregate<>(agg);
+	}
+
+	// Approximate number of distinct items (HyperLogLog, 2^precision bytes).
+	// Items are told apart by their 32-bit hashCode: items with equal hash
+	// codes count as one, so the count saturates in the billions and is
+	// too low well before that. Use the overload with a 64-bit hash to
+	// count more distinct items.
+	public static <A> Query<A,Long> distinctCount(int precision) {
+		return aggregate(Aggregators.distinctCount(precision));
+	}
+
+	// Same, with items hashed to 64 bits by 'hash'.
+	public static <A> Query<A,Long> distinctCount(int precision, ToLongFunction<? super A> hash) {
+		return aggregate(Aggregators.distinctCount(precision, hash));
+	}
+
+	// Approximate quantiles (t-digest).
+	public static Query<Double,double[]> quantiles(double compression, double... quantiles) {
+		return aggregate(Aggregators.quantiles(compression, quantiles));
+	}
+
+	// The approximately k most frequent items with their estimated counts
+	// (Count-Min sketch of width x depth counters).
+	public static <A> Query<A,List<Pair<A,Long>>> heavyHitters(int k, int width, int depth) {
+		return aggregate(Aggregators.heavyHitters(k, width, depth));
 	}
 
 	public static <A,B> Query<A,B> scan(B init, Func2<B,A,B> op) {
@@ -110,6 +140,101 @@ public class Q {
 		return new SWindowInv<>(wndSize, init, insert, remove);
 	}
 
+	// Sliding window over a monoid (no inverse needed): amortized O(1)
+	// combines per item.
+	public static <A> Query<A,A>
+	sWindowMonoid(int wndSize, A identity, BinaryOperator<A> combine)
+	{
+		return new SWindowMonoid<>(wndSize, identity, combine);
+	}
+
+	// Aggregate of every block of 'size' consecutive items.
+	public static <A,B> Query<A,B> tumbling(int size, B init, Func2<B,A,B> op) {
+		return new Tumbling<>(size, init, op);
+	}
+
+	// Windows of 'size' items every 'slide' items, for a monoid.
+	public static <A> Query<A,A>
+	hopping(int size, int slide, A identity, BinaryOperator<A> combine)
+	{
+		return new Hopping<A,A>(size, slide, identity, combine::apply, combine);
+	}
+
+	// Windows of 'size' items every 'slide' items. The items are folded
+	// into per-pane partial aggregates with 'insert', which are merged with
+	// 'combine' (associative, with identity 'init').
+	public static <A,B> Query<A,B>
+	hopping(int size, int slide, B init, Func2<B,A,B> insert, BinaryOperator<B> combine)
+	{
+		return new Hopping<>(size, slide, init, insert, combine);
+	}
+
+	// Watermarks for a stream that is out of order by at most maxDelay.
+	public static <A> Query<A,A> watermarks(ToLongFunction<A> timestamp, long maxDelay) {
+		return new Watermarks<>(timestamp, maxDelay);
+	}
+
+	// Event-time windows [s, s + size) for s = k * slide, emitted as
+	// (s, aggregate) when the watermark passes their end.
+	public static <A,B> Query<A,Pair<Long,B>>
+	eventWindow(ToLongFunction<A> timestamp, long size, long slide, long allowedLateness,
+				B init, Func2<B,A,B> op)
+	{
+		return new EventTimeWindow<>(timestamp, size, slide, allowedLateness, init, op);
+	}
+
+	public static <A,B> Query<A,Pair<Long,B>>
+	eventTumbling(ToLongFunction<A> timestamp, long size, long allowedLateness,
+				  B init, Func2<B,A,B> op)
+	{
+		return new EventTimeWindow<>(timestamp, size, size, allowedLateness, init, op);
+	}
+
+	// Windows of several sizes over one shared buffer (see MultiWindow).
+	public static <A,B> Query<A,List<B>> multiWindow(List<MultiWindow.View<A,B>> views) {
+		return new MultiWindow<>(views);
+	}
+
+	// Same aggregate over windows of several sizes.
+	public static <A> Query<A,List<A>>
+	multiWindow(A init, BinaryOperator<A> insert, BinaryOperator<A> remove, int... sizes)
+	{
+		List<MultiWindow.View<A,A>> views = new ArrayList<>();
+		for (int size : sizes) {
+			views.add(new MultiWindow.View<>(size, init, x -> x, insert, remove));
+		}
+		return new MultiWindow<>(views);
+	}
+
+	// Sliding-window quantiles (O(log wndSize) per item), as an array with
+	// one entry per requested quantile.
+	public static Query<Double,double[]> sWindowQuantile(int wndSize, double... quantiles) {
+		return new SWindowQuantile(wndSize, quantiles);
+	}
+
+	public static Query<Double,Double> sWindowMedian(int wndSize) {
+		return Q.pipeline(new SWindowQuantile(wndSize, 0.5), Q.map(m -> m[0]));
+	}
+
+	// Sliding-window max/min (monotonic deque, amortized O(1) per item).
+	public static Query<Double,Double> sWindowMax(int wndSize) {
+		return boxDouble(new DoubleSWindowExtreme(wndSize, true));
+	}
+
+	public static Query<Double,Double> sWindowMin(int wndSize) {
+		return boxDouble(new DoubleSWindowExtreme(wndSize, false));
+	}
+
+	// The item with the largest (smallest) key in every full window and its
+	// position in the stream.
+	public static <A> Query<A,Pair<Long,A>> sWindowArgMax(int wndSize, ToDoubleFunction<A> key) {
+		return new SWindowExtreme<>(wndSize, key, true);
+	}
+
+	public static <A> Query<A,Pair<Long,A>> sWindowArgMin(int wndSize, ToDoubleFunction<A> key) {
+		return new SWindowExtreme<>(wndSize, key, false);
+	}
+
 	public static <A,B> Query<A,B> sWindow2(Func2<A,A,B> op) {
 		return new SWindow2<>(op);
 	}
@@ -124,6 +249,72 @@ public class Q {
 		return new Parallel<>(q1, q2, op);
 	}
 
+	// Like parallel, but the two branches and the zip run on their own
+	// threads. The downstream sink is called from the zip thread and has
+	// received everything when end() returns (see ParallelAsync).
+	public static <A,B,C,D> Query<A,D>
+	parallelAsync(Query<A,B> q1, Query<A,C> q2, Func2<B,C,D> op,
+				  AsyncConfig config)
+	{
+		return new ParallelAsync<>(q1, q2, op, config);
+	}
+
+	// The logical plan of the query (see Plan).
+	public static Plan plan(Query<?,?> q) {
+		return Plan.of(q);
+	}
+
+	// Rewrites the query (see Optimizer). The result may share operators
+	// with the original, so only one of the two should be used.
+	public static <A,B> Query<A,B> optimize(Query<A,B> q) {
+		return Plan.cast(Optimizer.optimize(Plan.of(q)).toQuery());
+	}
+
+	// Compiles a chain of maps, filters, scans, folds and sliding windows
+	// into one class (see QueryCompiler); returns the query unchanged if it
+	// contains other operators or no Java compiler is available.
+	public static <A,B> Query<A,B> compile(Query<A,B> q) {
+		return QueryCompiler.compile(q);
+	}
+
+	// Records the OperatorStats of the query under the name in
+	// OperatorRegistry.global() (see Instrumented).
+	public static <A,B> Instrumented<A,B> instrument(Query<A,B> q, String name) {
+		return new Instrumented<>(q, OperatorRegistry.global().register(name));
+	}
+
+	// Instruments every node of the tree of Pipeline, Parallel and Loop
+	// compositions; the stats are registered in the given registry.
+	public static <A,B> Query<A,B> instrumentAll(Query<A,B> q, OperatorRegistry registry) {
+		return Instrumented.all(q, "", registry, new ArrayList<>());
+	}
+
+	// Exposes the query as a Flow.Processor (see QueryProcessor).
+	public static <A,B> QueryProcessor<A,B> processor(Query<A,B> q) {
+		return new QueryProcessor<>(q, Flow.defaultBufferSize());
+	}
+
+	public static <A,B> QueryProcessor<A,B> processor(Query<A,B> q, int bufferSize) {
+		return new QueryProcessor<>(q, bufferSize);
+	}
+
+	// Hash the items on their key to nShards instances of the query, each
+	// running on its own thread (see Partition). The outputs are forwarded
+	// unordered.
+	public static <A,B> Query<A,B>
+	partition(Function<A,?> key, int nShards, Supplier<Query<A,B>> shard)
+	{
+		return new Partition<>(key, nShards, shard, new Id<>(), false,
+							   AsyncConfig.defaults());
+	}
+
+	public static <A,B,C> Query<A,C>
+	partition(Function<A,?> key, int nShards, Supplier<Query<A,B>> shard,
+			  Query<B,C> merge, boolean ordered, AsyncConfig config)
+	{
+		return new Partition<>(key, nShards, shard, merge, ordered, config);
+	}
+
 	public static <A,B,C> Query<A,C>
 	pipeline(Query<A,B> q1, Query<B,C> q2)
 	{
@@ -160,18 +351,182 @@ public class Q {
 		return new Loop<>(q);
 	}
 
-	public static Iterator<Integer> intStream(int n) {
+	// Marks a split point for executeAsync (identity otherwise).
+	public static <A> Query<A,A> boundary() {
+		return new Boundary<>();
+	}
+
+	// Primitive specializations (no boxing of the items).
+
+	public static IntQuery<IntSink> intMap(IntUnaryOperator op) {
+		return new IntMap(op);
+	}
+
+	public static IntQuery<DoubleSink> intMapToDouble(IntToDoubleFunction op) {
+		return new IntMapToDouble(op);
+	}
+
+	public static IntQuery<IntSink> intFilter(IntPredicate pred) {
+		return new IntFilter(pred);
+	}
+
+	public static IntQuery<LongSink> intFold(long init, LongBinaryOperator op) {
+		return new IntFold(init, op);
+	}
+
+	public static IntQuery<LongSink> intScan(long init, LongBinaryOperator op) {
+		return new IntScan(init, op);
+	}
+
+	public static IntQuery<IntSink>
+	intSWindowInv(int wndSize, int init, IntBinaryOperator insert,
+				  IntBinaryOperator remove)
+	{
+		return new IntSWindowInv(wndSize, init, insert, remove);
+	}
+
+	public static DoubleQuery<DoubleSink> doubleMap(DoubleUnaryOperator op) {
+		return new DoubleMap(op);
+	}
+
+	public static DoubleQuery<DoubleSink> doubleFilter(DoublePredicate pred) {
+		return new DoubleFilter(pred);
+	}
+
+	public static DoubleQuery<DoubleSink>
+	doubleFold(double init, DoubleBinaryOperator op)
+	{
+		return new DoubleFold(init, op);
+	}
+
+	public static DoubleQuery<DoubleSink>
+	doubleScan(double init, DoubleBinaryOperator op)
+	{
+		return new DoubleScan(init, op);
+	}
+
+	public static DoubleQuery<DoubleSink> doubleFoldStats(RunningStats.Stat stat) {
+		return new DoubleStats(DoubleStats.Mode.FOLD, stat);
+	}
+
+	public static DoubleQuery<DoubleSink> doubleScanStats(RunningStats.Stat stat) {
+		return new DoubleStats(DoubleStats.Mode.SCAN, stat);
+	}
+
+	// MIN and MAX are computed with a monotonic deque (DoubleSWindowExtreme).
+	public static DoubleQuery<DoubleSink>
+	doubleSWindowStats(int wndSize, RunningStats.Stat stat)
+	{
+		switch (stat) {
+		case MIN: return new DoubleSWindowExtreme(wndSize, false);
+		case MAX: return new DoubleSWindowExtreme(wndSize, true);
+		default: return new DoubleStats(DoubleStats.Mode.SLIDING, stat, wndSize);
+		}
+	}
+
+	public static DoubleQuery<DoubleSink>
+	doubleSWindow(int wndSize, DoubleSWindow.Kind kind)
+	{
+		return new DoubleSWindow(wndSize, kind, false);
+	}
+
+	public static DoubleQuery<DoubleSink>
+	doubleSWindowCentered(int wndSize, DoubleSWindow.Kind kind)
+	{
+		return new DoubleSWindow(wndSize, kind, true);
+	}
+
+	// FIR filter with the given kernel (see Convolve for the alignment).
+	public static DoubleQuery<DoubleSink>
+	convolve(double[] kernel, Convolve.Alignment alignment)
+	{
+		return new Convolve(kernel, alignment);
+	}
+
+	public static DoubleQuery<DoubleSink>
+	doubleSWindowQuantile(int wndSize, double... quantiles)
+	{
+		return new DoubleSWindowQuantile(wndSize, quantiles);
+	}
+
+	public static DoubleQuery<DoubleSink> doubleSWindowMax(int wndSize) {
+		return new DoubleSWindowExtreme(wndSize, true);
+	}
+
+	public static DoubleQuery<DoubleSink> doubleSWindowMin(int wndSize) {
+		return new DoubleSWindowExtreme(wndSize, false);
+	}
+
+	public static DoubleQuery<DoubleSink>
+	doubleSWindowInv(int wndSize, double init, DoubleBinaryOperator insert,
+					 DoubleBinaryOperator remove)
+	{
+		return new DoubleSWindowInv(wndSize, init, insert, remove);
+	}
+
+	public static <T> IntQuery<T>
+	pipeline(IntQuery<IntSink> q1, IntQuery<T> q2)
+	{
+		return new IntPipeline<>(q1, q2);
+	}
+
+	public static <T> IntQuery<T>
+	pipeline(IntQuery<DoubleSink> q1, DoubleQuery<T> q2)
+	{
+		return new IntDoublePipeline<>(q1, q2);
+	}
+
+	public static <T> DoubleQuery<T>
+	pipeline(DoubleQuery<DoubleSink> q1, DoubleQuery<T> q2)
+	{
+		return new DoublePipeline<>(q1, q2);
+	}
+
+	// Adapters for mixing primitive and generic queries. Items are boxed
+	// (or unboxed) only at the boundary.
+
+	public static Query<Integer,Integer> boxInt(IntQuery<IntSink> q) {
+		return new BoxedInt<>(q, S::intSink);
+	}
+
+	public static Query<Integer,Long> boxIntToLong(IntQuery<LongSink> q) {
+		return new BoxedInt<>(q, S::longSink);
+	}
+
+	public static Query<Integer,Double> boxIntToDouble(IntQuery<DoubleSink> q) {
+		return new BoxedInt<>(q, S::doubleSink);
+	}
+
+	public static Query<Double,Double> boxDouble(DoubleQuery<DoubleSink> q) {
+		return new BoxedDouble<>(q, S::doubleSink);
+	}
+
+	public static IntQuery<IntSink> unboxInt(Query<Integer,Integer> q) {
+		return new UnboxedInt<>(q, sink -> S.boxed(sink));
+	}
+
+	public static IntQuery<DoubleSink> unboxIntToDouble(Query<Integer,Double> q) {
+		return new UnboxedInt<>(q, sink -> S.boxed(sink));
+	}
+
+	public static DoubleQuery<DoubleSink> unboxDouble(Query<Double,Double> q) {
+		return new UnboxedDouble<>(q, sink -> S.boxed(sink));
+	}
+
+	// The stream 1, 2, ..., n. It can be consumed both as an Iterator<Integer>
+	// and, without boxing, through nextInt().
+	public static PrimitiveIterator.OfInt intStream(int n) {
 		if (n < 0) {
 			throw new IllegalArgumentException("n must be >= 0");
 		}
-		return new Iterator<Integer>() {
+		return new PrimitiveIterator.OfInt() {
 			private int index = 1;
 			@Override
 			public boolean hasNext() {
 				return index <= n;
 			}
 			@Override
-			public Integer next() {
+			public int nextInt() {
 				if (index > n) {
 					throw new NoSuchElementException();
 				}
@@ -182,30 +537,292 @@ public class Q {
 		};
 	}
 
-	public static <A,B> long execute(Iterator<A> it, Query<A,B> q, Sink<B> sink)
+	// Aggregates the items on all cores: the iterator is drained in chunks
+	// of chunkSize items, the chunks are accumulated as tasks of the common
+	// ForkJoinPool and the partial results are merged in input order. At
+	// most a few chunks per core are in flight at any time.
+	public static <A,Acc,R> R foldParallel(Iterator<A> it, Aggregator<A,Acc,R> agg, int chunkSize)
+	{
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		int maxInFlight = 2 * pool.getParallelism() + 1;
+		ArrayDeque<ForkJoinTask<Acc>> inFlight = new ArrayDeque<>();
+		Acc acc = agg.create();
+		while (it.hasNext()) {
+			List<A> chunk = new ArrayList<>(chunkSize);
+			do {
+				chunk.add(it.next());
+			} while (chunk.size() < chunkSize && it.hasNext());
+			inFlight.addLast(pool.submit(() -> {
+				Acc part = agg.create();
+				for (A x : chunk) {
+					part = agg.accumulate(part, x);
+				}
+				return part;
+			}));
+			if (inFlight.size() >= maxInFlight) {
+				acc = agg.merge(acc, inFlight.removeFirst().join());
+			}
+		}
+		while (!inFlight.isEmpty()) {
+			acc = agg.merge(acc, inFlight.removeFirst().join());
+		}
+		return agg.finish(acc);
+	}
+
+	// Aggregates the items on all cores by splitting the spliterator
+	// recursively (down to about minChunk items) and merging the partial
+	// results of the two halves.
+	public static <A,Acc,R> R foldParallel(Spliterator<A> items, Aggregator<A,Acc,R> agg, long minChunk)
 	{
-		long n = 0;
-		long start = System.nanoTime();
+		return agg.finish(ForkJoinPool.commonPool().invoke(new FoldTask<>(items, agg, minChunk)));
+	}
+
+	@SuppressWarnings("serial") // never serialized
+	private static class FoldTask<A,Acc> extends RecursiveTask<Acc> {
+		private final Spliterator<A> items;
+		private final Aggregator<A,Acc,?> agg;
+		private final long minChunk;
+		private Acc acc; // partial result of a leaf
+
+		FoldTask(Spliterator<A> items, Aggregator<A,Acc,?> agg, long minChunk) {
+			this.items = items;
+			this.agg = agg;
+			this.minChunk = minChunk;
+		}
+
+		@Override
+		protected Acc compute() {
+			Spliterator<A> prefix;
+			if (items.estimateSize() > minChunk && (prefix = items.trySplit()) != null) {
+				FoldTask<A,Acc> left = new FoldTask<>(prefix, agg, minChunk);
+				left.fork();
+				Acc right = new FoldTask<>(items, agg, minChunk).compute();
+				return agg.merge(left.join(), right);
+			}
+			acc = agg.create();
+			items.forEachRemaining(x -> acc = agg.accumulate(acc, x));
+			return acc;
+		}
+	}
+
+	// The items are pulled from the iterator in chunks of BATCH_SIZE and
+	// pushed through Query.nextBatch. Prints the statistics of the run.
+	public static <A,B> ExecutionStats execute(Iterator<A> it, Query<A,B> q, Sink<B> sink)
+	{
+		return run(it, q, sink).print();
+	}
+
+	// Like execute, without printing.
+	public static <A,B> ExecutionStats run(Iterator<A> it, Query<A,B> q, Sink<B> sink)
+	{
+		ExecutionStats.Meter meter = ExecutionStats.start();
+		Sink<B> counted = meter.count(sink);
+
+		Object[] batch = new Object[BATCH_SIZE];
+		try {
+			q.start(counted);
+			// hasNext() is called exactly once per item (IteratorECG closes
+			// its file when it first returns false)
+			boolean more = it.hasNext();
+			while (more) {
+				int k = 0;
+				do {
+					batch[k++] = it.next();
+					more = it.hasNext();
+				} while (more && k < BATCH_SIZE);
+				meter.mark();
+				q.nextBatch(batch, 0, k, counted);
+				Arrays.fill(batch, 0, k, null);
+				meter.items(k);
+			}
+			q.end(counted);
+		} catch (RuntimeException | Error e) {
+			q.abort();
+			throw e;
+		}
+
+		return meter.stop();
+	}
+
+	// Like execute, but saves the state of the query to the checkpoint every
+	// checkpoint.interval() input items. If the checkpoint file exists when
+	// the run begins, the query is restored from it (instead of replaying
+	// the history) and the items that it had already consumed are skipped,
+	// so the iterator must produce the same stream as in the original run.
+	// Items that were emitted before the checkpoint are not emitted again.
+	// The file is deleted when the run completes. A query with an operator
+	// that cannot be checkpointed is rejected (UnsupportedOperationException)
+	// before the first item is read.
+	public static <A,B> ExecutionStats
+	execute(Iterator<A> it, Query<A,B> q, Sink<B> sink, Checkpoint checkpoint)
+	{
+		return run(it, q, sink, checkpoint).print();
+	}
+
+	// Like execute, without printing.
+	public static <A,B> ExecutionStats
+	run(Iterator<A> it, Query<A,B> q, Sink<B> sink, Checkpoint checkpoint)
+	{
+		try {
+			ExecutionStats.Meter meter = ExecutionStats.start();
+			Sink<B> counted = meter.count(sink);
+
+			long position = 0;
+			boolean more;
+			if (checkpoint.exists()) {
+				// what start() emits was delivered before the checkpoint
+				q.start(new Sink<B>() {
+					@Override
+					public void next(B item) { }
+					@Override
+					public void end() { }
+				});
+				long target = checkpoint.load(q);
+				more = it.hasNext();
+				while (more && position < target) {
+					it.next();
+					position += 1;
+					more = it.hasNext();
+				}
+				if (position < target) {
+					throw new IllegalStateException("checkpoint at item " + target
+						+ ", but the stream has " + position + " items");
+				}
+			} else {
+				q.start(counted);
+				checkpoint.check(q);
+				more = it.hasNext();
+			}
+
+			Object[] batch = new Object[BATCH_SIZE];
+			long interval = checkpoint.interval();
+			while (more) {
+				int limit = (int) Math.min(BATCH_SIZE, interval - position % interval);
+				int k = 0;
+				do {
+					batch[k++] = it.next();
+					more = it.hasNext();
+				} while (more && k < limit);
+				meter.mark();
+				q.nextBatch(batch, 0, k, counted);
+				Arrays.fill(batch, 0, k, null);
+				meter.items(k);
+				position += k;
+				if (position % interval == 0 && more) {
+					checkpoint.save(q, position);
+				}
+			}
+			q.end(counted);
+			checkpoint.delete();
+
+			return meter.stop();
+		} catch (IOException e) {
+			q.abort();
+			throw new UncheckedIOException(e);
+		} catch (RuntimeException | Error e) {
+			q.abort();
+			throw e;
+		}
+	}
+
+	// Runs the query over a Flow.Publisher, requesting items as the sink
+	// consumes them, and blocks until the publisher completes. CPU time,
+	// allocation and latency are not measured, as the work happens on the
+	// publisher's threads.
+	public static <A,B> ExecutionStats
+	execute(Flow.Publisher<A> source, Query<A,B> q, Sink<B> sink)
+		throws InterruptedException
+	{
+		ExecutionStats.Meter meter = ExecutionStats.start();
+
+		QueryProcessor<A,B> processor = processor(q);
+		SinkSubscriber<B> subscriber = S.subscriber(meter.count(sink));
+		processor.subscribe(subscriber);
+		source.subscribe(processor);
+		subscriber.await();
+		meter.untimed(processor.received);
+
+		ExecutionStats stats = meter.stop();
+		return new ExecutionStats(stats.inputItems, stats.outputItems, stats.wallNanos,
+			-1, -1, stats.gcCount, stats.gcMillis, stats.batchLatency).print();
+	}
+
+	// The primitive executions cannot observe their sink (outputItems is -1).
+	public static <T> ExecutionStats
+	execute(PrimitiveIterator.OfInt it, IntQuery<T> q, T sink)
+	{
+		ExecutionStats.Meter meter = ExecutionStats.start();
+		int k = 0;
 
 		q.start(sink);
 		while (it.hasNext()) {
-			A item = it.next();
-			//System.out.println("Processing item: " + item); // Add this line
-			q.next(item, sink);
-			n += 1;
+			q.next(it.nextInt(), sink);
+			if (++k == BATCH_SIZE) {
+				meter.items(k);
+				k = 0;
+			}
 		}
 		q.end(sink);
-		
-		long end = System.nanoTime();
-		
-		DecimalFormat formatter = new DecimalFormat("#,###");
-		long timeNano = end - start;
-		long timeMsec = timeNano / 1_000_000;
-		System.out.println("duration = " + formatter.format(timeMsec) + " msec");
-		long throughput = (n * 1000L * 1000 * 1000) / timeNano;
-		System.out.println("throughput = " + formatter.format(throughput) + " tuples/sec");
-
-		return throughput;
+		meter.items(k);
+
+		return meter.stop().print();
+	}
+
+	// Like execute, but the stages of the pipeline run on several threads
+	// that are connected by bounded ring buffers. The pipeline is split at
+	// the Q.boundary() markers; without markers it is cut into at most
+	// config.maxThreads segments of about the same number of stages.
+	// The sink is called from the thread of the last segment. Everything
+	// has been delivered when this method returns. CPU time and allocation
+	// are those of the calling thread, which runs the first segment.
+	public static <A,B> ExecutionStats
+	executeAsync(Iterator<A> it, Query<A,B> q, Sink<B> sink, AsyncConfig config)
+	{
+		return AsyncExecutor.execute(it, q, sink, config).print();
+	}
+
+	// The ints are widened to doubles on the way in.
+	public static <T> ExecutionStats
+	execute(PrimitiveIterator.OfInt it, DoubleQuery<T> q, T sink)
+	{
+		ExecutionStats.Meter meter = ExecutionStats.start();
+		int k = 0;
+
+		q.start(sink);
+		while (it.hasNext()) {
+			q.next(it.nextInt(), sink);
+			if (++k == BATCH_SIZE) {
+				meter.items(k);
+				k = 0;
+			}
+		}
+		q.end(sink);
+		meter.items(k);
+
+		return meter.stop().print();
+	}
+
+	public static <T> ExecutionStats
+	execute(PrimitiveIterator.OfDouble it, DoubleQuery<T> q, T sink)
+	{
+		ExecutionStats.Meter meter = ExecutionStats.start();
+		int k = 0;
+
+		q.start(sink);
+		while (it.hasNext()) {
+			q.next(it.nextDouble(), sink);
+			if (++k == BATCH_SIZE) {
+				meter.items(k);
+				k = 0;
+			}
+		}
+		q.end(sink);
+		meter.items(k);
+
+		return meter.stop().print();
 	}
 
 }
@@ -4,4 +4,47 @@ public interface Query<A,B> {
 	void start(Sink<B> sink);
 	void next(A item, Sink<B> sink);
 	void end(Sink<B> sink);
+
+	// Process items[from..to) as if next() had been called for each one of
+	// them in order. Operators can override this with a tight loop over the
+	// array. The array belongs to the caller and may be reused after the
+	// call returns, so it must not be retained (its elements can be).
+	//
+	// The element type is erased: the array is an Object[] (its runtime
+	// type says nothing about A) whose elements in [from, to) are As, and
+	// implementations cast each element on its own.
+	// Callers that fill a scratch array clear the used slots after the
+	// call, so that the array does not keep items alive.
+	@SuppressWarnings("unchecked")
+	default void nextBatch(Object[] items, int from, int to, Sink<B> sink) {
+		for (int i=from; i<to; i++) {
+			next((A) items[i], sink);
+		}
+	}
+
+	// Event time: a watermark ts arrives between two items. Operators that
+	// do not depend on time pass it on; composite operators route it
+	// through their children (Parallel forwards the minimum of its
+	// branches).
+	default void watermark(long ts, Sink<B> sink) {
+		sink.watermark(ts);
+	}
+
+	// Called instead of end() when the run fails (an operator or the source
+	// threw) or is cancelled. Operators that own threads stop them;
+	// composite operators recurse into their children. Must not throw.
+	default void abort() { }
+
+	// Checkpointing (see Checkpoint). An operator with state writes all of
+	// it in snapshot and reads it back, in the same order, in restore. A
+	// restore follows a start and replaces the state that start set up.
+	// Composite operators recurse into their children. The defaults accept
+	// the Stateless operators only, so that no state is silently left out.
+	default void snapshot(StateWriter out) {
+		Checkpoint.requireStateless(this);
+	}
+
+	default void restore(StateReader in) {
+		Checkpoint.requireStateless(this);
+	}
 }
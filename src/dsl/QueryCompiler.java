@@ -0,0 +1,311 @@
+package dsl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+// Compiles a chain of Map, Filter, Fused, Scan, Fold, SWindow2, SWindow3
+// and SWindowInv stages (and Id, which disappears) into one class (see
+// Q.compile).
+//
+// The generated class has a private method per stage that calls the
+// method of the next stage directly, so the JIT can inline the whole chain
+// into a single loop body.
+//
+// The source is compiled with javax.tools. The class file is cached by the
+// shape of the chain (the sequence of stage kinds), so javac runs once per
+// shape, including when it fails. Every compiled query is then defined as
+// its own hidden class in this package: queries of the same shape do not
+// share the call sites for the functions of their stages, which stay
+// monomorphic. The snapshot layout of the generated class is the same as
+// that of the chain it replaces. When the query contains anything else, or
+// no compiler is available (a JRE), the query is returned unchanged.
+
+final class QueryCompiler {
+
+	// The class file for one shape, or why there is none.
+	private static final class Shape {
+		final byte[] bytes; // null if there is no class
+		final String error; // javac's errors, null if there is no compiler
+
+		Shape(byte[] bytes, String error) {
+			this.bytes = bytes;
+			this.error = error;
+		}
+	}
+
+	private static final ConcurrentHashMap<String,Shape> shapes = new ConcurrentHashMap<>();
+
+	private QueryCompiler() {
+
+	}
+
+	static <A,B> Query<A,B> compile(Query<A,B> q) {
+		List<Query<?,?>> stages = new ArrayList<>();
+		AsyncExecutor.flatten(q, stages);
+		List<Object> args = new ArrayList<>();
+		Generator gen = new Generator();
+		for (Query<?,?> stage : stages) {
+			if (!gen.add(stage, args)) {
+				return q;
+			}
+		}
+		Shape shape = shapes.computeIfAbsent(gen.source(), QueryCompiler::javac);
+		if (shape.error != null) {
+			throw new IllegalStateException("the generated chain does not compile:\n" + shape.error);
+		}
+		if (shape.bytes == null) {
+			return q;
+		}
+		try {
+			Class<?> c = MethodHandles.lookup().defineHiddenClass(shape.bytes, true).lookupClass();
+			return Plan.cast(c.getConstructor(Object[].class).newInstance((Object) args.toArray()));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new IllegalStateException("cannot instantiate the compiled chain", e);
+		}
+	}
+
+	// The generated source for one chain.
+	private static class Generator {
+
+		private final StringBuilder fields = new StringBuilder();
+		private final StringBuilder init = new StringBuilder();
+		private final StringBuilder start = new StringBuilder();
+		private final StringBuilder snapshot = new StringBuilder();
+		private final StringBuilder restore = new StringBuilder();
+		private final List<String> next = new ArrayList<>(); // body of s<i>
+		private final List<String> end = new ArrayList<>(); // body of e<i>, null: pass on
+		private int nArgs = 0;
+
+		private String arg(String type, Object value, List<Object> args) {
+			String name = "f" + nArgs;
+			fields.append("\tprivate final ").append(type).append(' ').append(name).append(";\n");
+			init.append("\t\t").append(name).append(" = (").append(type).append(") args[")
+				.append(nArgs).append("];\n");
+			args.add(value);
+			nArgs += 1;
+			return name;
+		}
+
+		private String state(String type, String name) {
+			fields.append("\tprivate ").append(type).append(' ').append(name).append(";\n");
+			return name;
+		}
+
+		private static final String FUNCTION = "java.util.function.Function";
+		private static final String PREDICATE = "java.util.function.Predicate";
+		private static final String BINARY = "java.util.function.BinaryOperator";
+		private static final String FUNC2 = "utils.functions.Func2";
+		private static final String FUNC3 = "utils.functions.Func3";
+
+		boolean add(Query<?,?> q, List<Object> args) {
+			int i = next.size();
+			String emit = "s" + (i + 1) + "(%s, sink);";
+			if (q instanceof Id) {
+				return true;
+			} else if (q instanceof Map) {
+				String f = arg(FUNCTION, ((Map<?,?>) q).op(), args);
+				step(String.format(emit, f + ".apply(x)"));
+			} else if (q instanceof Filter) {
+				String p = arg(PREDICATE, ((Filter<?>) q).pred(), args);
+				step("if (" + p + ".test(x)) " + String.format(emit, "x"));
+			} else if (q instanceof Fused) {
+				for (Object s : ((Fused<?,?>) q).steps()) {
+					Query<?,?> stage = s instanceof Function
+						? new Map<>(Plan.<Function<Object,Object>>cast(s))
+						: new Filter<>(Plan.<Predicate<Object>>cast(s));
+					if (!add(stage, args)) {
+						return false;
+					}
+				}
+			} else if (q instanceof Scan || q instanceof Fold) {
+				boolean scan = q instanceof Scan;
+				Object initial = scan ? ((Scan<?,?>) q).init() : ((Fold<?,?>) q).init();
+				Object op = scan ? ((Scan<?,?>) q).op() : ((Fold<?,?>) q).op();
+				String f = arg(FUNC2, op, args);
+				String z = arg("Object", initial, args);
+				String agg = state("Object", "agg" + i);
+				start.append("\t\t").append(agg).append(" = ").append(z).append(";\n");
+				snapshot.append("\t\tout.writeObject(").append(agg).append(");\n");
+				restore.append("\t\t").append(agg).append(" = in.readObject();\n");
+				if (scan) {
+					step(agg + " = " + f + ".apply(" + agg + ", x);\n\t\t" + String.format(emit, agg));
+				} else {
+					next.add(agg + " = " + f + ".apply(" + agg + ", x);");
+					end.add(String.format(emit, agg));
+				}
+			} else if (q instanceof SWindow2) {
+				String f = arg(FUNC2, ((SWindow2<?,?>) q).op(), args);
+				String prev = state("Object", "prev" + i);
+				String n = state("int", "n" + i);
+				start.append("\t\t").append(n).append(" = 0;\n");
+				snapshot.append("\t\tout.writeInt(").append(n).append(");\n")
+						.append("\t\tout.writeObject(").append(prev).append(");\n");
+				restore.append("\t\t").append(n).append(" = in.readInt();\n")
+					   .append("\t\t").append(prev).append(" = in.readObject();\n");
+				step("Object p = " + prev + ";\n\t\t" + prev + " = x;\n\t\t" +
+					"if (" + n + " >= 1) {\n\t\t\t" + String.format(emit, f + ".apply(p, x)") +
+					"\n\t\t} else {\n\t\t\t" + n + " = 1;\n\t\t}");
+			} else if (q instanceof SWindow3) {
+				String f = arg(FUNC3, ((SWindow3<?,?>) q).op(), args);
+				String prev0 = state("Object", "prev0_" + i);
+				String prev1 = state("Object", "prev1_" + i);
+				String n = state("int", "n" + i);
+				start.append("\t\t").append(n).append(" = 0;\n");
+				snapshot.append("\t\tout.writeInt(").append(n).append(");\n")
+						.append("\t\tout.writeObject(").append(prev0).append(");\n")
+						.append("\t\tout.writeObject(").append(prev1).append(");\n");
+				restore.append("\t\t").append(n).append(" = in.readInt();\n")
+					   .append("\t\t").append(prev0).append(" = in.readObject();\n")
+					   .append("\t\t").append(prev1).append(" = in.readObject();\n");
+				step("Object p0 = " + prev0 + ";\n\t\tObject p1 = " + prev1 + ";\n\t\t" +
+					prev0 + " = p1;\n\t\t" + prev1 + " = x;\n\t\t" +
+					"if (" + n + " >= 2) {\n\t\t\t" + String.format(emit, f + ".apply(p0, p1, x)") +
+					"\n\t\t} else {\n\t\t\t" + n + " += 1;\n\t\t}");
+			} else if (q instanceof SWindowInv) {
+				SWindowInv<?> w = (SWindowInv<?>) q;
+				String ins = arg(BINARY, w.insert(), args);
+				String rem = arg(BINARY, w.remove(), args);
+				String z = arg("Object", w.init(), args);
+				String buf = state("final Object[]", "buffer" + i);
+				init.append("\t\t").append(buf).append(" = new Object[").append(w.wndSize()).append("];\n");
+				String agg = state("Object", "agg" + i);
+				String idx = state("int", "oldest" + i);
+				String n = state("int", "n" + i);
+				int size = w.wndSize();
+				start.append("\t\t").append(agg).append(" = ").append(z).append(";\n")
+					 .append("\t\t").append(idx).append(" = 0;\n")
+					 .append("\t\t").append(n).append(" = 0;\n");
+				// the window is written oldest first, as in SWindowInv
+				snapshot.append("\t\tout.writeObject(").append(agg).append(");\n")
+						.append("\t\tout.writeInt(").append(n).append(");\n")
+						.append("\t\tfor (int i=0; i<").append(n).append("; i++) {\n")
+						.append("\t\t\tout.writeObject(").append(buf).append("[(").append(idx)
+						.append(" + i) % ").append(size).append("]);\n\t\t}\n");
+				restore.append("\t\t").append(agg).append(" = in.readObject();\n")
+					   .append("\t\t").append(n).append(" = in.readInt();\n")
+					   .append("\t\t").append(idx).append(" = 0;\n")
+					   .append("\t\tfor (int i=0; i<").append(n).append("; i++) {\n")
+					   .append("\t\t\t").append(buf).append("[i] = in.readObject();\n\t\t}\n");
+				step("if (" + n + " == " + size + ") {\n\t\t\t" +
+					agg + " = " + rem + ".apply(" + agg + ", " + buf + "[" + idx + "]);\n\t\t\t" +
+					buf + "[" + idx + "] = x;\n\t\t\t" +
+					"if (++" + idx + " == " + size + ") {\n\t\t\t\t" + idx + " = 0;\n\t\t\t}\n\t\t\t" +
+					agg + " = " + ins + ".apply(" + agg + ", x);\n\t\t\t" +
+					String.format(emit, agg) + "\n\t\t} else {\n\t\t\t" +
+					buf + "[" + n + "++] = x;\n\t\t\t" +
+					agg + " = " + ins + ".apply(" + agg + ", x);\n\t\t\t" +
+					"if (" + n + " == " + size + ") {\n\t\t\t\t" + String.format(emit, agg) +
+					"\n\t\t\t}\n\t\t}");
+			} else {
+				return false;
+			}
+			return true;
+		}
+
+		private void step(String body) {
+			next.add(body);
+			end.add(null);
+		}
+
+		String source() {
+			StringBuilder sb = new StringBuilder();
+			int n = next.size();
+			sb.append("package dsl;\n\n");
+			sb.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+			sb.append("public final class Compiled implements Query<Object,Object> {\n\n");
+			sb.append(fields).append('\n');
+			sb.append("\tpublic Compiled(Object[] args) {\n").append(init).append("\t}\n\n");
+			sb.append("\tpublic void start(Sink<Object> sink) {\n").append(start).append("\t}\n\n");
+			sb.append("\tpublic void next(Object x, Sink<Object> sink) {\n\t\ts0(x, sink);\n\t}\n\n");
+			sb.append("\tpublic void nextBatch(Object[] items, int from, int to, Sink<Object> sink) {\n");
+			sb.append("\t\tfor (int i=from; i<to; i++) {\n\t\t\ts0(items[i], sink);\n\t\t}\n\t}\n\n");
+			sb.append("\tpublic void end(Sink<Object> sink) {\n\t\te0(sink);\n\t}\n\n");
+			sb.append("\tpublic void snapshot(StateWriter out) {\n").append(snapshot).append("\t}\n\n");
+			sb.append("\tpublic void restore(StateReader in) {\n").append(restore).append("\t}\n\n");
+			for (int i=0; i<n; i++) {
+				sb.append("\tprivate void s").append(i).append("(Object x, Sink<Object> sink) {\n\t\t")
+				  .append(next.get(i)).append("\n\t}\n\n");
+				sb.append("\tprivate void e").append(i).append("(Sink<Object> sink) {\n\t\t");
+				if (end.get(i) != null) {
+					sb.append(end.get(i)).append("\n\t\t");
+				}
+				sb.append("e").append(i + 1).append("(sink);\n\t}\n\n");
+			}
+			sb.append("\tprivate void s").append(n).append("(Object x, Sink<Object> sink) {\n");
+			sb.append("\t\tsink.next(x);\n\t}\n\n");
+			sb.append("\tprivate void e").append(n).append("(Sink<Object> sink) {\n");
+			sb.append("\t\tsink.end();\n\t}\n\n");
+			sb.append("}\n");
+			return sb.toString();
+		}
+
+	}
+
+	// Compiles the source.
+	private static Shape javac(String source) {
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac == null) {
+			return new Shape(null, null);
+		}
+		HashMap<String,ByteArrayOutputStream> classFiles = new HashMap<>();
+		JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(
+			javac.getStandardFileManager(null, null, null)) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, String className,
+													   JavaFileObject.Kind kind, FileObject sibling) {
+				URI uri = URI.create("mem:///" + className.replace('.', '/') + kind.extension);
+				return new SimpleJavaFileObject(uri, kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+						classFiles.put(className, bytes);
+						return bytes;
+					}
+				};
+			}
+		};
+		JavaFileObject file = new SimpleJavaFileObject(
+			URI.create("string:///dsl/Compiled.java"), JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+		String classPath = System.getProperty("java.class.path");
+		try {
+			classPath = new File(Query.class.getProtectionDomain().getCodeSource()
+				.getLocation().toURI()).getPath() + File.pathSeparator + classPath;
+		} catch (Exception e) {
+			// use the class path of the JVM only
+		}
+		List<String> options = List.of("-classpath", classPath, "-proc:none", "-nowarn",
+									   "-XDsuppressNotes", "-g:none");
+		StringWriter errors = new StringWriter();
+		Boolean ok = javac.getTask(new PrintWriter(errors), files, null, options, null, List.of(file)).call();
+		ByteArrayOutputStream bytes = classFiles.get("dsl.Compiled");
+		if (!ok || bytes == null) {
+			return new Shape(null, errors.toString());
+		}
+		return new Shape(bytes.toByteArray(), null);
+	}
+
+}
@@ -0,0 +1,234 @@
+package dsl;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Exposes a query as a Flow.Processor with demand-based backpressure.
+//
+// The query runs on the thread that delivers the upstream items. Its
+// outputs are buffered and handed to the (single) downstream subscriber as
+// it requests them. More input is requested from upstream only while fewer
+// than bufferSize outputs are waiting, so a slow subscriber throttles the
+// publisher instead of letting the buffer grow. When upstream completes,
+// query.end() runs and the subscriber is completed after the remaining
+// outputs.
+
+public class QueryProcessor<A,B> implements Flow.Processor<A,B> {
+
+	// Terminal signals, queued behind the outputs.
+	private static final Object COMPLETE = new Object();
+
+	private static class Failure {
+		final Throwable error;
+		Failure(Throwable error) { this.error = error; }
+	}
+
+	private final Query<A,B> query;
+	private final int bufferSize;
+	private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger queued = new AtomicInteger();   // outputs in queue
+	private final AtomicLong requested = new AtomicLong();      // downstream demand
+	private final AtomicLong outstanding = new AtomicLong();    // upstream requests
+	private final AtomicInteger wip = new AtomicInteger();
+	private final Sink<B> sink = new Sink<B>() {
+		@Override
+		public void next(B item) {
+			queue.offer(item);
+			queued.incrementAndGet();
+		}
+
+		@Override
+		public void end() {
+			// completion follows upstream's onComplete
+		}
+	};
+	private volatile Flow.Subscription upstream;
+	private volatile Flow.Subscriber<? super B> downstream;
+	private volatile boolean terminated; // upstream signalled or failed
+	private volatile boolean cancelled;
+	private volatile boolean rejected; // invalid request: drop the outputs
+	long received; // input items, written only by the upstream thread
+
+	public QueryProcessor(Query<A,B> query, int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("bufferSize should be >= 1");
+		}
+		this.query = query;
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super B> subscriber) {
+		Objects.requireNonNull(subscriber);
+		synchronized (this) {
+			if (downstream != null) {
+				subscriber.onSubscribe(new Flow.Subscription() {
+					public void request(long n) {}
+					public void cancel() {}
+				});
+				subscriber.onError(new IllegalStateException("already subscribed"));
+				return;
+			}
+			downstream = subscriber;
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				if (n <= 0) {
+					fail(new IllegalArgumentException("non-positive request: " + n));
+					return;
+				}
+				requested.getAndUpdate(r -> r + n < 0 ? Long.MAX_VALUE : r + n);
+				drain();
+			}
+
+			@Override
+			public void cancel() {
+				cancelled = true;
+				Flow.Subscription s = upstream;
+				if (s != null) {
+					s.cancel();
+				}
+				drain();
+			}
+		});
+		drain();
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (upstream != null) {
+			subscription.cancel();
+			return;
+		}
+		try {
+			query.start(sink);
+		} catch (Throwable e) {
+			subscription.cancel();
+			terminate(new Failure(e));
+			return;
+		}
+		upstream = subscription;
+		drain();
+	}
+
+	@Override
+	public void onNext(A item) {
+		if (terminated) {
+			return;
+		}
+		outstanding.decrementAndGet();
+		received += 1;
+		try {
+			query.next(item, sink);
+		} catch (Throwable e) {
+			upstream.cancel();
+			terminate(new Failure(e));
+			return;
+		}
+		drain();
+	}
+
+	@Override
+	public void onError(Throwable error) {
+		if (!terminated) {
+			terminate(new Failure(error));
+		}
+	}
+
+	@Override
+	public void onComplete() {
+		if (terminated) {
+			return;
+		}
+		try {
+			query.end(sink);
+		} catch (Throwable e) {
+			terminate(new Failure(e));
+			return;
+		}
+		terminate(COMPLETE);
+	}
+
+	// A non-positive request (Reactive Streams rule 3.9). The error skips
+	// the buffered outputs but is still delivered by drain(), like every
+	// other signal.
+	private void fail(Throwable error) {
+		Flow.Subscription s = upstream;
+		if (s != null) {
+			s.cancel();
+		}
+		rejected = true;
+		terminate(new Failure(error));
+	}
+
+	private void terminate(Object signal) {
+		if (signal instanceof Failure) {
+			query.abort();
+		}
+		terminated = true;
+		queue.offer(signal);
+		drain();
+	}
+
+	// Serialized by wip: delivers outputs up to the downstream demand and
+	// tops up the upstream requests.
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		do {
+			Flow.Subscriber<? super B> s = downstream;
+			if (cancelled) {
+				queue.clear();
+			} else if (s != null) {
+				long r = requested.get();
+				long emitted = 0;
+				while (true) {
+					Object item = queue.peek();
+					if (item == null) {
+						break;
+					}
+					if (item == COMPLETE || item instanceof Failure) {
+						queue.clear();
+						cancelled = true;
+						if (item == COMPLETE) {
+							s.onComplete();
+						} else {
+							s.onError(((Failure) item).error);
+						}
+						break;
+					}
+					if (emitted == r && !rejected) {
+						break;
+					}
+					queue.poll();
+					queued.decrementAndGet();
+					if (!rejected) {
+						@SuppressWarnings("unchecked") // not a marker, so an output
+						B next = (B) item;
+						s.onNext(next);
+						emitted += 1;
+					}
+				}
+				if (emitted > 0 && r != Long.MAX_VALUE) {
+					requested.addAndGet(-emitted);
+				}
+				Flow.Subscription up = upstream;
+				if (up != null && !terminated && !cancelled) {
+					long want = bufferSize - queued.get() - outstanding.get();
+					if (want > 0 && want >= (bufferSize + 1) / 2) {
+						outstanding.addAndGet(want);
+						up.request(want);
+					}
+				}
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+}
@@ -0,0 +1,181 @@
+package dsl;
+
+import java.io.Serializable;
+
+// Mutable count, mean, variance, skewness, min and max of a stream of
+// doubles, updated in place (nothing is allocated per item).
+//
+// Items are added with Welford's update of the mean and of the central
+// moments M2, M3 (sums of the 2nd and 3rd powers of the deviations from
+// the mean), which avoids the cancellation of sum(x^2)/n - mean^2 when
+// the variance is small relative to the mean. Two partial results are
+// combined with Chan's pairwise formulas (merge). remove undoes add for
+// sliding windows; it does not update min and max.
+//
+// Variance, stdev and skewness are those of the population (divided by
+// n); sampleVariance divides by n - 1.
+
+public class RunningStats implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Stat {
+		COUNT, MEAN, VARIANCE, STDEV, SKEWNESS, MIN, MAX;
+
+		public double of(RunningStats s) {
+			switch (this) {
+			case COUNT: return s.count();
+			case MEAN: return s.mean();
+			case VARIANCE: return s.variance();
+			case STDEV: return s.stdev();
+			case SKEWNESS: return s.skewness();
+			case MIN: return s.min();
+			default: return s.max();
+			}
+		}
+	}
+
+	private long n;
+	private double mean;
+	private double m2;
+	private double m3;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public RunningStats() {
+
+	}
+
+	public void reset() {
+		n = 0;
+		mean = 0.0;
+		m2 = 0.0;
+		m3 = 0.0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+	}
+
+	public RunningStats add(double x) {
+		long n1 = n;
+		n += 1;
+		double delta = x - mean;
+		double deltaN = delta / n;
+		double term = delta * deltaN * n1;
+		mean += deltaN;
+		m3 += term * deltaN * (n - 2) - 3.0 * deltaN * m2;
+		m2 += term;
+		if (x < min) {
+			min = x;
+		}
+		if (x > max) {
+			max = x;
+		}
+		return this;
+	}
+
+	// Removes an item that was added before (min and max are kept).
+	public RunningStats remove(double x) {
+		if (n <= 1) {
+			reset();
+			return this;
+		}
+		double n0 = n;
+		n -= 1;
+		double delta = x - mean;
+		mean -= delta / n;
+		double d = x - mean; // deviation from the remaining mean
+		m2 -= delta * d;
+		m3 -= d * d * d * n * (n - 1) / (n0 * n0) - 3.0 * d * m2 / n0;
+		return this;
+	}
+
+	// Adds all the items of other.
+	public RunningStats merge(RunningStats other) {
+		if (other.n == 0) {
+			return this;
+		}
+		if (n == 0) {
+			copy(other);
+			return this;
+		}
+		double na = n, nb = other.n, nab = na + nb;
+		double d = other.mean - mean;
+		mean += d * nb / nab;
+		m3 += other.m3 + d * d * d * na * nb * (na - nb) / (nab * nab)
+			+ 3.0 * d * (na * other.m2 - nb * m2) / nab;
+		m2 += other.m2 + d * d * na * nb / nab;
+		n += other.n;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		return this;
+	}
+
+	public void copy(RunningStats other) {
+		n = other.n;
+		mean = other.mean;
+		m2 = other.m2;
+		m3 = other.m3;
+		min = other.min;
+		max = other.max;
+	}
+
+	public long count() {
+		return n;
+	}
+
+	// NaN for no items.
+	public double mean() {
+		return n == 0 ? Double.NaN : mean;
+	}
+
+	public double variance() {
+		return n == 0 ? Double.NaN : Math.max(0.0, m2 / n);
+	}
+
+	public double sampleVariance() {
+		return n < 2 ? Double.NaN : Math.max(0.0, m2 / (n - 1));
+	}
+
+	public double stdev() {
+		return Math.sqrt(variance());
+	}
+
+	// NaN if all the items are equal.
+	public double skewness() {
+		return m2 <= 0.0 ? Double.NaN : Math.sqrt((double) n) * m3 / Math.pow(m2, 1.5);
+	}
+
+	// NaN for no items.
+	public double min() {
+		return n == 0 ? Double.NaN : min;
+	}
+
+	// NaN for no items.
+	public double max() {
+		return n == 0 ? Double.NaN : max;
+	}
+
+	public void snapshot(StateWriter out) {
+		out.writeLong(n);
+		out.writeDouble(mean);
+		out.writeDouble(m2);
+		out.writeDouble(m3);
+		out.writeDouble(min);
+		out.writeDouble(max);
+	}
+
+	public void restore(StateReader in) {
+		n = in.readLong();
+		mean = in.readDouble();
+		m2 = in.readDouble();
+		m3 = in.readDouble();
+		min = in.readDouble();
+		max = in.readDouble();
+	}
+
+	@Override
+	public String toString() {
+		return "RunningStats(n=" + n + ", mean=" + mean() + ", stdev=" + stdev() + ")";
+	}
+
+}
@@ -1,5 +1,7 @@
 package dsl;
 
+import java.util.concurrent.Flow;
+
 public class S {
 
 	private S() {
@@ -22,4 +24,93 @@ public class S {
 		return new SCollector<>();
 	}
 
+	// Consumes a Flow.Publisher (see SinkSubscriber).
+	public static <A> SinkSubscriber<A> subscriber(Sink<A> sink) {
+		return new SinkSubscriber<>(sink, Flow.defaultBufferSize());
+	}
+
+	public static <A> SinkSubscriber<A> subscriber(Sink<A> sink, int bufferSize) {
+		return new SinkSubscriber<>(sink, bufferSize);
+	}
+
+	// Adapters between primitive and boxed sinks.
+
+	public static IntSink intSink(Sink<Integer> sink) {
+		return new IntSink() {
+			@Override
+			public void next(int item) {
+				sink.next(item);
+			}
+			@Override
+			public void end() {
+				sink.end();
+			}
+		};
+	}
+
+	public static LongSink longSink(Sink<Long> sink) {
+		return new LongSink() {
+			@Override
+			public void next(long item) {
+				sink.next(item);
+			}
+			@Override
+			public void end() {
+				sink.end();
+			}
+		};
+	}
+
+	public static DoubleSink doubleSink(Sink<Double> sink) {
+		return new DoubleSink() {
+			@Override
+			public void next(double item) {
+				sink.next(item);
+			}
+			@Override
+			public void end() {
+				sink.end();
+			}
+		};
+	}
+
+	public static Sink<Integer> boxed(IntSink sink) {
+		return new Sink<Integer>() {
+			@Override
+			public void next(Integer item) {
+				sink.next(item);
+			}
+			@Override
+			public void end() {
+				sink.end();
+			}
+		};
+	}
+
+	public static Sink<Long> boxed(LongSink sink) {
+		return new Sink<Long>() {
+			@Override
+			public void next(Long item) {
+				sink.next(item);
+			}
+			@Override
+			public void end() {
+				sink.end();
+			}
+		};
+	}
+
+	public static Sink<Double> boxed(DoubleSink sink) {
+		return new Sink<Double>() {
+			@Override
+			public void next(Double item) {
+				sink.next(item);
+			}
+			@Override
+			public void end() {
+				sink.end();
+			}
+		};
+	}
+
 }
@@ -15,6 +15,15 @@ public class SLastCount<A> implements Sink<A> {
 		last = item;
 	}
 
+	@Override
+	@SuppressWarnings("unchecked")
+	public void nextBatch(Object[] items, int from, int to) {
+		if (from < to) {
+			count += to - from;
+			last = (A) items[to - 1];
+		}
+	}
+
 	@Override
 	public void end() {
 		System.out.println("# output items = " + formatter.format(count));
@@ -15,6 +15,10 @@ public class SWindow2<A,B> implements Query<A,B> {
 		this.nElements = 0;
 	}
 
+	Func2<A,A,B> op() {
+		return op;
+	}
+
 	@Override
 	public void start(Sink<B> sink) {
 		this.nElements = 0;
@@ -37,5 +41,17 @@ public class SWindow2<A,B> implements Query<A,B> {
 	public void end(Sink<B> sink) {
 		sink.end();
 	}
-	
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeInt(nElements);
+		out.writeObject(previous);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		nElements = in.readInt();
+		previous = in.readObject();
+	}
+
 }
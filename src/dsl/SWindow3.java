@@ -16,6 +16,10 @@ public class SWindow3<A,B> implements Query<A,B> {
 		this.nElements = 0;
 	}
 
+	Func3<A,A,A,B> op() {
+		return op;
+	}
+
 	@Override
 	public void start(Sink<B> sink) {
 		this.nElements = 0;
@@ -39,5 +43,19 @@ public class SWindow3<A,B> implements Query<A,B> {
 	public void end(Sink<B> sink) {
 		sink.end();
 	}
-	
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeInt(nElements);
+		out.writeObject(previous0);
+		out.writeObject(previous1);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		nElements = in.readInt();
+		previous0 = in.readObject();
+		previous1 = in.readObject();
+	}
+
 }
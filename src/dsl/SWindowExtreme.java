@@ -0,0 +1,124 @@
+package dsl;
+
+import java.util.function.ToDoubleFunction;
+
+import utils.Pair;
+
+// Sliding-window arg max (or arg min) by a double key: for every full
+// window, the item with the largest (smallest) key and its position in
+// the stream (0 for the first item). Ties go to the oldest item.
+//
+// Monotonic deque: the candidates are the items that are not dominated
+// by a newer one, kept in decreasing (increasing) order of key, so the
+// extreme is at the front. A new item pops the dominated candidates off
+// the back, and the front leaves when it slides out of the window. Every
+// item is pushed and popped at most once: amortized O(1) per item. The
+// deque is a ring over primitive arrays (keys and positions) of capacity
+// wndSize.
+
+public class SWindowExtreme<A> implements Query<A,Pair<Long,A>>, Buffered {
+
+	private final int wndSize; // window size
+	private final ToDoubleFunction<A> key;
+	private final boolean max;
+	private final double[] keys;
+	private final long[] positions;
+	private final A[] items;
+	private int head; // index of the front of the deque
+	private int count; // number of candidates in the deque
+	private long position; // position of the next item
+
+	public SWindowExtreme(int wndSize, ToDoubleFunction<A> key, boolean max) {
+		if (wndSize < 1) {
+			throw new IllegalArgumentException("window size should be >= 1");
+		}
+		this.wndSize = wndSize;
+		this.key = key;
+		this.max = max;
+		this.keys = new double[wndSize];
+		this.positions = new long[wndSize];
+		this.items = newArray(wndSize);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T[] newArray(int n) {
+		return (T[]) new Object[n];
+	}
+
+	// Number of candidates (at most wndSize).
+	@Override
+	public int buffered() {
+		return count;
+	}
+
+	@Override
+	public void start(Sink<Pair<Long,A>> sink) {
+		head = 0;
+		count = 0;
+		position = 0;
+	}
+
+	private void push(A item, double k, long pos) {
+		// pop the candidates that the new item dominates
+		while (count > 0) {
+			int back = (head + count - 1) % wndSize;
+			if (max ? keys[back] < k : keys[back] > k) {
+				items[back] = null;
+				count -= 1;
+			} else {
+				break;
+			}
+		}
+		int tail = (head + count) % wndSize;
+		keys[tail] = k;
+		positions[tail] = pos;
+		items[tail] = item;
+		count += 1;
+	}
+
+	@Override
+	public void next(A item, Sink<Pair<Long,A>> sink) {
+		if (count > 0 && positions[head] <= position - wndSize) { // slid out
+			items[head] = null;
+			head = (head + 1) % wndSize;
+			count -= 1;
+		}
+		push(item, key.applyAsDouble(item), position);
+		position += 1;
+		if (position >= wndSize) {
+			sink.next(Pair.from(positions[head], items[head]));
+		}
+	}
+
+	@Override
+	public void end(Sink<Pair<Long,A>> sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeLong(position);
+		out.writeInt(count);
+		for (int i=0; i<count; i++) { // front first
+			int index = (head + i) % wndSize;
+			out.writeLong(positions[index]);
+			out.writeObject(items[index]);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		start(null);
+		position = in.readLong();
+		int n = in.readInt();
+		for (int i=0; i<n; i++) {
+			long pos = in.readLong();
+			A item = in.readObject();
+			keys[i] = key.applyAsDouble(item);
+			positions[i] = pos;
+			items[i] = item;
+		}
+		count = n;
+	}
+
+}
@@ -1,12 +1,13 @@
 package dsl;
 
+import java.util.Arrays;
 import java.util.function.BinaryOperator;
 
 // Efficient algorithm for aggregation over a sliding window.
 // It assumes that there is a 'remove' operation for updating
 // the aggregate when an element is evicted from the window.
 
-public class SWindowInv<A> implements Query<A,A> {
+public class SWindowInv<A> implements Query<A,A>, Buffered {
 
 	private final A init;
 	private final BinaryOperator<A> insert;
@@ -16,6 +17,7 @@ public class SWindowInv<A> implements Query<A,A> {
 	private A agg; // current aggregate
 	private int indexOldest; // index to oldest element
 	private int nElements; // number of elements in buffer
+	private Object[] out; // scratch buffer for nextBatch
 
 	public SWindowInv
 	(int wndSize, A init, BinaryOperator<A> insert, BinaryOperator<A> remove)
@@ -33,6 +35,27 @@ public class SWindowInv<A> implements Query<A,A> {
 		this.nElements = 0;
 	}
 
+	@Override
+	public int buffered() {
+		return nElements;
+	}
+
+	int wndSize() {
+		return wndSize;
+	}
+
+	A init() {
+		return init;
+	}
+
+	BinaryOperator<A> insert() {
+		return insert;
+	}
+
+	BinaryOperator<A> remove() {
+		return remove;
+	}
+
 	@Override
 	public void start(Sink<A> sink) {
 		this.agg = init;
@@ -57,9 +80,65 @@ public class SWindowInv<A> implements Query<A,A> {
 		}
 	}
 
+	@Override
+	@SuppressWarnings("unchecked")
+	public void nextBatch(Object[] items, int from, int to, Sink<A> sink) {
+		int n = to - from;
+		if (out == null || out.length < n) {
+			out = new Object[n];
+		}
+		int k = 0;
+		int i = from;
+		// fill the window
+		for (; i<to && nElements<wndSize; i++) {
+			A item = (A) items[i];
+			buffer[nElements] = item;
+			nElements += 1;
+			agg = insert.apply(agg, item);
+			if (nElements == wndSize) {
+				out[k++] = agg;
+			}
+		}
+		// slide the full window
+		for (; i<to; i++) {
+			A item = (A) items[i];
+			agg = remove.apply(agg, buffer[indexOldest]);
+			buffer[indexOldest] = item;
+			indexOldest += 1;
+			if (indexOldest == wndSize) {
+				indexOldest = 0;
+			}
+			agg = insert.apply(agg, item);
+			out[k++] = agg;
+		}
+		if (k > 0) {
+			sink.nextBatch(out, 0, k);
+			Arrays.fill(out, 0, k, null);
+		}
+	}
+
 	@Override
 	public void end(Sink<A> sink) {
 		sink.end();
 	}
-	
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeObject(agg);
+		out.writeInt(nElements);
+		for (int i=0; i<nElements; i++) { // oldest first
+			out.writeObject(buffer[(indexOldest + i) % wndSize]);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		agg = in.readObject();
+		nElements = in.readInt();
+		indexOldest = 0;
+		for (int i=0; i<nElements; i++) {
+			buffer[i] = in.readObject();
+		}
+	}
+
 }
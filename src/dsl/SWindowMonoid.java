@@ -0,0 +1,135 @@
+package dsl;
+
+import java.util.function.BinaryOperator;
+
+// Sliding-window aggregation for an associative operation with an
+// identity (a monoid) that has no inverse: max, min, argmax, gcd, ...
+// The operation need not be commutative; the window aggregate is
+// x[oldest] * ... * x[newest].
+//
+// Two-stacks algorithm: the window is split into a front part (the oldest
+// items) and a back part. The front keeps, for every item, the aggregate
+// of that item and all the newer items of the front; the back keeps the
+// aggregate of all of its items. The window aggregate is then
+// front[oldest] * back. When the oldest item is evicted and the front is
+// empty, the back is turned into the front by computing its suffix
+// aggregates. Every item is combined a bounded number of times, so this
+// takes amortized O(1) combines per item (instead of O(wndSize) for
+// SWindowNv).
+//
+// Both parts live in one ring buffer of size wndSize: the front occupies
+// the nFront slots from indexOldest and the back the slots after it.
+
+public class SWindowMonoid<A> implements Query<A,A>, Buffered {
+
+	private final A identity;
+	private final BinaryOperator<A> combine;
+	private final int wndSize; // window size
+	private final A[] items;
+	private final A[] suffix; // suffix aggregates of the front
+	private A back; // aggregate of the back
+	private int indexOldest; // index to oldest element
+	private int nElements; // number of elements in buffer
+	private int nFront; // number of elements in the front
+
+	public SWindowMonoid(int wndSize, A identity, BinaryOperator<A> combine) {
+		if (wndSize < 1) {
+			throw new IllegalArgumentException("window size should be >= 1");
+		}
+		this.identity = identity;
+		this.combine = combine;
+		this.wndSize = wndSize;
+		this.items = newArray(wndSize);
+		this.suffix = newArray(wndSize);
+		this.back = identity;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T[] newArray(int n) {
+		return (T[]) new Object[n];
+	}
+
+	@Override
+	public int buffered() {
+		return nElements;
+	}
+
+	@Override
+	public void start(Sink<A> sink) {
+		this.back = identity;
+		this.indexOldest = 0;
+		this.nElements = 0;
+		this.nFront = 0;
+	}
+
+	// Turns the back into the front.
+	private void flip() {
+		A agg = identity;
+		int index = (indexOldest + nElements - 1) % wndSize; // newest
+		for (int i=0; i<nElements; i++) {
+			agg = combine.apply(items[index], agg);
+			suffix[index] = agg;
+			index -= 1;
+			if (index < 0) {
+				index += wndSize;
+			}
+		}
+		nFront = nElements;
+		back = identity;
+	}
+
+	private void evict() {
+		if (nFront == 0) {
+			flip();
+		}
+		items[indexOldest] = null;
+		suffix[indexOldest] = null;
+		indexOldest += 1;
+		if (indexOldest == wndSize) {
+			indexOldest = 0;
+		}
+		nFront -= 1;
+		nElements -= 1;
+	}
+
+	@Override
+	public void next(A item, Sink<A> sink) {
+		if (nElements == wndSize) {
+			evict();
+		}
+		int index = indexOldest + nElements;
+		if (index >= wndSize) {
+			index -= wndSize;
+		}
+		items[index] = item;
+		nElements += 1;
+		back = combine.apply(back, item);
+		if (nElements == wndSize) {
+			sink.next(nFront == 0 ? back : combine.apply(suffix[indexOldest], back));
+		}
+	}
+
+	@Override
+	public void end(Sink<A> sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeInt(nElements);
+		for (int i=0; i<nElements; i++) { // oldest first
+			out.writeObject(items[(indexOldest + i) % wndSize]);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		start(null);
+		nElements = in.readInt();
+		for (int i=0; i<nElements; i++) { // everything goes to the back
+			items[i] = in.readObject();
+			back = combine.apply(back, items[i]);
+		}
+	}
+
+}
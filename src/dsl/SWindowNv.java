@@ -4,7 +4,7 @@ import utils.functions.Func2;
 
 // Naive algorithm for aggregation over a sliding window.
 
-public class SWindowNv<A,B> implements Query<A,B> {
+public class SWindowNv<A,B> implements Query<A,B>, Buffered {
 
 	private final B init;
 	private final Func2<B,A,B> op;
@@ -25,6 +25,11 @@ public class SWindowNv<A,B> implements Query<A,B> {
 		this.nElements = 0;
 	}
 
+	@Override
+	public int buffered() {
+		return nElements;
+	}
+
 	@Override
 	public void start(Sink<B> sink) {
 		this.indexOldest = 0;
@@ -56,4 +61,21 @@ public class SWindowNv<A,B> implements Query<A,B> {
 		sink.end();
 	}
 
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeInt(nElements);
+		for (int i=0; i<nElements; i++) { // oldest first
+			out.writeObject(buffer[(indexOldest + i) % wndSize]);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		nElements = in.readInt();
+		indexOldest = 0;
+		for (int i=0; i<nElements; i++) {
+			buffer[i] = in.readObject();
+		}
+	}
+
 }
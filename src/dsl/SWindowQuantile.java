@@ -0,0 +1,53 @@
+package dsl;
+
+// Sliding-window quantiles of a stream of Doubles: for every full window,
+// the array of the requested quantiles (see DoubleSWindowQuantile, which
+// does the work on primitive doubles).
+
+public class SWindowQuantile implements Query<Double,double[]>, Buffered {
+
+	private final DoubleSWindowQuantile window;
+	private final int nQuantiles;
+
+	public SWindowQuantile(int wndSize, double... quantiles) {
+		this.window = new DoubleSWindowQuantile(wndSize, quantiles);
+		this.nQuantiles = quantiles.length;
+	}
+
+	@Override
+	public int buffered() {
+		return window.nElements();
+	}
+
+	@Override
+	public void start(Sink<double[]> sink) {
+		window.start(null);
+	}
+
+	@Override
+	public void next(Double item, Sink<double[]> sink) {
+		if (window.add(item)) {
+			double[] out = new double[nQuantiles];
+			for (int i=0; i<nQuantiles; i++) {
+				out[i] = window.quantile(i);
+			}
+			sink.next(out);
+		}
+	}
+
+	@Override
+	public void end(Sink<double[]> sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		window.snapshot(out);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		window.restore(in);
+	}
+
+}
@@ -15,6 +15,14 @@ public class Scan<A, B> implements Query<A, B> {
 		this.op = op;
 	}
 
+	B init() {
+		return init;
+	}
+
+	Func2<B,A,B> op() {
+		return op;
+	}
+
 	@Override
 	public void start(Sink<B> sink) {
 		this.agg = init;
@@ -23,7 +31,6 @@ public class Scan<A, B> implements Query<A, B> {
 	@Override
 	public void next(A item, Sink<B> sink) {
 		agg = op.apply(agg, item);
-		System.out.println("Current aggregate value: " + agg);  // Log the current aggregate value
 		sink.next(agg);
 	}
 
@@ -31,5 +38,15 @@ public class Scan<A, B> implements Query<A, B> {
 	public void end(Sink<B> sink) {
 		sink.end();
 	}
-	
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeObject(agg);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		agg = in.readObject();
+	}
+
 }
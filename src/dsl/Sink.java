@@ -3,4 +3,18 @@ package dsl;
 public interface Sink<A> {
 	void next(A item);
 	void end();
+
+	// Receive items[from..to) as if next() had been called for each one of
+	// them in order. Same ownership rules (and erased element type) as
+	// Query.nextBatch.
+	@SuppressWarnings("unchecked")
+	default void nextBatch(Object[] items, int from, int to) {
+		for (int i=from; i<to; i++) {
+			next((A) items[i]);
+		}
+	}
+
+	// Event time: no item with a timestamp < ts will follow (except late
+	// ones, see EventTimeWindow). Sinks that do not track time ignore it.
+	default void watermark(long ts) { }
 }
@@ -0,0 +1,83 @@
+package dsl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+// Feeds a Flow.Publisher into a sink, bufferSize items at a time.
+//
+// onComplete calls sink.end(). await() blocks until the stream terminates
+// and rethrows the error the publisher signalled, if any.
+
+public class SinkSubscriber<A> implements Flow.Subscriber<A> {
+
+	private final Sink<A> sink;
+	private final int bufferSize;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private Flow.Subscription subscription;
+	private volatile Throwable failure;
+	private int pending;
+
+	public SinkSubscriber(Sink<A> sink, int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("bufferSize should be >= 1");
+		}
+		this.sink = sink;
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (this.subscription != null) {
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		pending = bufferSize;
+		subscription.request(bufferSize);
+	}
+
+	@Override
+	public void onNext(A item) {
+		try {
+			sink.next(item);
+		} catch (Throwable e) {
+			subscription.cancel();
+			onError(e);
+			return;
+		}
+		// Ask for the next half buffer once half of the last one arrived.
+		pending -= 1;
+		if (pending <= bufferSize / 2) {
+			long n = bufferSize - pending;
+			pending = bufferSize;
+			subscription.request(n);
+		}
+	}
+
+	@Override
+	public void onError(Throwable error) {
+		if (done.getCount() > 0) {
+			failure = error;
+			done.countDown();
+		}
+	}
+
+	@Override
+	public void onComplete() {
+		if (done.getCount() > 0) {
+			try {
+				sink.end();
+			} catch (Throwable e) {
+				failure = e;
+			}
+			done.countDown();
+		}
+	}
+
+	// Wait for the end of the stream.
+	public void await() throws InterruptedException {
+		done.await();
+		AsyncExecutor.rethrow(failure);
+	}
+
+}
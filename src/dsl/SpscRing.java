@@ -0,0 +1,146 @@
+package dsl;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Bounded lock-free ring buffer for exactly one producer thread and one
+// consumer thread. A full buffer blocks the producer (backpressure) and an
+// empty one blocks the consumer. Waiting threads spin briefly, then yield,
+// then park for short intervals. cancel() makes every blocked or future
+// put/take throw CancellationException, which is how a failing stage
+// tears down the stages around it.
+
+final class SpscRing<A> {
+
+	private final Object[] buffer;
+	private final int mask;
+	private final int capacity;
+	private final AtomicLong head = new AtomicLong(); // next slot to read
+	private final AtomicLong tail = new AtomicLong(); // next slot to write
+	private long cachedHead; // producer's last view of head
+	private long cachedTail; // consumer's last view of tail
+	private volatile boolean cancelled;
+	private volatile boolean producerWaiting; // put() is blocked on a full buffer
+
+	SpscRing(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity should be >= 1");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.buffer = new Object[size];
+		this.mask = size - 1;
+		this.capacity = size;
+	}
+
+	// Called by the producer only. Fails as soon as the ring is cancelled,
+	// not only when it is full, so a producer stops feeding a failed
+	// consumer right away.
+	void put(A item) {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		long t = tail.get();
+		if (t - cachedHead >= capacity) {
+			int spins = 0;
+			producerWaiting = true;
+			try {
+				while (t - (cachedHead = head.get()) >= capacity) {
+					backoff(spins++);
+				}
+			} finally {
+				producerWaiting = false;
+			}
+		}
+		buffer[(int) t & mask] = item;
+		tail.lazySet(t + 1);
+	}
+
+	// Called by the consumer only.
+	A take() {
+		long h = head.get();
+		if (h == cachedTail) {
+			int spins = 0;
+			while (h == (cachedTail = tail.get())) {
+				backoff(spins++);
+			}
+		}
+		int index = (int) h & mask;
+		@SuppressWarnings("unchecked") // only As are put
+		A item = (A) buffer[index];
+		buffer[index] = null;
+		head.lazySet(h + 1);
+		return item;
+	}
+
+	// Called by the consumer only. Waits for at least one item and then
+	// moves as many available items as fit into 'out'. Returns the count.
+	int takeBatch(Object[] out) {
+		long h = head.get();
+		if (h == cachedTail) {
+			int spins = 0;
+			while (h == (cachedTail = tail.get())) {
+				backoff(spins++);
+			}
+		}
+		return drain(h, out);
+	}
+
+	// Called by the consumer only. Like takeBatch, but returns 0 instead of
+	// waiting when the buffer is empty.
+	int pollBatch(Object[] out) {
+		long h = head.get();
+		if (h == cachedTail && h == (cachedTail = tail.get())) {
+			if (cancelled) {
+				throw new CancellationException();
+			}
+			return 0;
+		}
+		return drain(h, out);
+	}
+
+	private int drain(long h, Object[] out) {
+		int n = (int) Math.min(out.length, cachedTail - h);
+		for (int i=0; i<n; i++) {
+			int index = (int) (h + i) & mask;
+			out[i] = buffer[index];
+			buffer[index] = null;
+		}
+		head.lazySet(h + n);
+		return n;
+	}
+
+	boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+
+	boolean isProducerWaiting() {
+		return producerWaiting;
+	}
+
+	void cancel() {
+		cancelled = true;
+	}
+
+	// Spin, then yield, then park for a short while.
+	static void pause(int spins) {
+		if (spins < 100) {
+			Thread.onSpinWait();
+		} else if (spins < 200) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(20_000);
+		}
+	}
+
+	private void backoff(int spins) {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		pause(spins);
+	}
+
+}
@@ -0,0 +1,122 @@
+package dsl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import utils.Or;
+import utils.Pair;
+
+// Reads back what a StateWriter wrote, in the same order.
+
+public class StateReader {
+
+	private final ByteBuffer buf;
+
+	public StateReader(ByteBuffer buf) {
+		this.buf = buf;
+	}
+
+	public boolean hasRemaining() {
+		return buf.hasRemaining();
+	}
+
+	public byte readByte() {
+		return buf.get();
+	}
+
+	public boolean readBoolean() {
+		return buf.get() != 0;
+	}
+
+	public int readInt() {
+		return buf.getInt();
+	}
+
+	public long readLong() {
+		return buf.getLong();
+	}
+
+	public double readDouble() {
+		return buf.getDouble();
+	}
+
+	public String readString() {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T readObject() {
+		byte tag = buf.get();
+		switch (tag) {
+			case StateWriter.NULL:
+				return null;
+			case StateWriter.INT:
+				return (T) Integer.valueOf(buf.getInt());
+			case StateWriter.LONG:
+				return (T) Long.valueOf(buf.getLong());
+			case StateWriter.DOUBLE:
+				return (T) Double.valueOf(buf.getDouble());
+			case StateWriter.BOOLEAN:
+				return (T) Boolean.valueOf(readBoolean());
+			case StateWriter.STRING:
+				return (T) readString();
+			case StateWriter.PAIR: {
+				Object left = readObject();
+				Object right = readObject();
+				return (T) Pair.from(left, right);
+			}
+			case StateWriter.LEFT:
+				return (T) Or.inl(readObject());
+			case StateWriter.RIGHT:
+				return (T) Or.inr(readObject());
+			case StateWriter.DOUBLES: {
+				double[] a = new double[buf.getInt()];
+				for (int i=0; i<a.length; i++) {
+					a[i] = buf.getDouble();
+				}
+				return (T) a;
+			}
+			case StateWriter.LONGS: {
+				long[] a = new long[buf.getInt()];
+				for (int i=0; i<a.length; i++) {
+					a[i] = buf.getLong();
+				}
+				return (T) a;
+			}
+			case StateWriter.INTS: {
+				int[] a = new int[buf.getInt()];
+				for (int i=0; i<a.length; i++) {
+					a[i] = buf.getInt();
+				}
+				return (T) a;
+			}
+			case StateWriter.SERIALIZED: {
+				byte[] bytes = new byte[buf.getInt()];
+				buf.get(bytes);
+				try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+					return (T) in.readObject();
+				} catch (IOException | ClassNotFoundException e) {
+					throw new IllegalStateException("corrupt snapshot", e);
+				}
+			}
+			default:
+				throw new IllegalStateException("corrupt snapshot: unknown tag " + tag);
+		}
+	}
+
+	// Clears 'items' and refills it with what writeAll wrote.
+	public <T> void readAll(Collection<T> items) {
+		items.clear();
+		int n = buf.getInt();
+		for (int i=0; i<n; i++) {
+			items.add(readObject());
+		}
+	}
+
+}
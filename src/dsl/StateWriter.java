@@ -0,0 +1,168 @@
+package dsl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import utils.Or;
+import utils.Pair;
+
+// Compact binary encoding of operator state (see Query.snapshot).
+//
+// Primitives are written raw (big-endian). writeObject writes a one-byte
+// tag followed by the value; the common item types (boxed primitives,
+// strings, pairs, sums, primitive arrays) have their own tags and anything
+// else must be Serializable.
+
+public class StateWriter {
+
+	static final byte NULL = 0;
+	static final byte INT = 1;
+	static final byte LONG = 2;
+	static final byte DOUBLE = 3;
+	static final byte BOOLEAN = 4;
+	static final byte STRING = 5;
+	static final byte PAIR = 6;
+	static final byte LEFT = 7;
+	static final byte RIGHT = 8;
+	static final byte DOUBLES = 9;
+	static final byte LONGS = 10;
+	static final byte INTS = 11;
+	static final byte SERIALIZED = 12;
+
+	private ByteBuffer buf;
+
+	public StateWriter() {
+		this.buf = ByteBuffer.allocate(256);
+	}
+
+	private void ensure(int n) {
+		if (buf.remaining() < n) {
+			int capacity = Math.max(buf.capacity() * 2, buf.position() + n);
+			ByteBuffer bigger = ByteBuffer.allocate(capacity);
+			buf.flip();
+			bigger.put(buf);
+			buf = bigger;
+		}
+	}
+
+	public int size() {
+		return buf.position();
+	}
+
+	// The bytes written so far, ready to be read (or written to a channel).
+	public ByteBuffer buffer() {
+		return buf.duplicate().flip();
+	}
+
+	public void writeByte(byte v) {
+		ensure(1);
+		buf.put(v);
+	}
+
+	public void writeBoolean(boolean v) {
+		writeByte(v ? (byte) 1 : (byte) 0);
+	}
+
+	public void writeInt(int v) {
+		ensure(4);
+		buf.putInt(v);
+	}
+
+	public void writeLong(long v) {
+		ensure(8);
+		buf.putLong(v);
+	}
+
+	public void writeDouble(double v) {
+		ensure(8);
+		buf.putDouble(v);
+	}
+
+	public void writeString(String v) {
+		byte[] bytes = v.getBytes(StandardCharsets.UTF_8);
+		writeInt(bytes.length);
+		ensure(bytes.length);
+		buf.put(bytes);
+	}
+
+	public void writeObject(Object v) {
+		if (v == null) {
+			writeByte(NULL);
+		} else if (v instanceof Integer) {
+			writeByte(INT);
+			writeInt((Integer) v);
+		} else if (v instanceof Long) {
+			writeByte(LONG);
+			writeLong((Long) v);
+		} else if (v instanceof Double) {
+			writeByte(DOUBLE);
+			writeDouble((Double) v);
+		} else if (v instanceof Boolean) {
+			writeByte(BOOLEAN);
+			writeBoolean((Boolean) v);
+		} else if (v instanceof String) {
+			writeByte(STRING);
+			writeString((String) v);
+		} else if (v instanceof Pair) {
+			Pair<?,?> p = (Pair<?,?>) v;
+			writeByte(PAIR);
+			writeObject(p.getLeft());
+			writeObject(p.getRight());
+		} else if (v instanceof Or) {
+			Or<?,?> or = (Or<?,?>) v;
+			writeByte(or.isLeft() ? LEFT : RIGHT);
+			writeObject(or.isLeft() ? or.getLeft() : or.getRight());
+		} else if (v instanceof double[]) {
+			double[] a = (double[]) v;
+			writeByte(DOUBLES);
+			writeInt(a.length);
+			ensure(8 * a.length);
+			for (double x : a) {
+				buf.putDouble(x);
+			}
+		} else if (v instanceof long[]) {
+			long[] a = (long[]) v;
+			writeByte(LONGS);
+			writeInt(a.length);
+			ensure(8 * a.length);
+			for (long x : a) {
+				buf.putLong(x);
+			}
+		} else if (v instanceof int[]) {
+			int[] a = (int[]) v;
+			writeByte(INTS);
+			writeInt(a.length);
+			ensure(4 * a.length);
+			for (int x : a) {
+				buf.putInt(x);
+			}
+		} else if (v instanceof Serializable) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+				out.writeObject(v);
+			} catch (IOException e) {
+				throw new IllegalArgumentException("cannot encode " + v.getClass().getName(), e);
+			}
+			writeByte(SERIALIZED);
+			writeInt(bytes.size());
+			ensure(bytes.size());
+			buf.put(bytes.toByteArray());
+		} else {
+			throw new IllegalArgumentException("cannot encode " + v.getClass().getName());
+		}
+	}
+
+	// Size followed by the elements in iteration order.
+	public void writeAll(Collection<?> items) {
+		writeInt(items.size());
+		for (Object item : items) {
+			writeObject(item);
+		}
+	}
+
+}
@@ -0,0 +1,9 @@
+package dsl;
+
+// Implemented by queries that keep nothing between items (maps, filters),
+// so a checkpoint has nothing to save for them. Every other query must
+// override snapshot and restore (see Query.snapshot).
+
+public interface Stateless {
+
+}
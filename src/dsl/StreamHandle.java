@@ -0,0 +1,89 @@
+package dsl;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A stream running in a StreamRuntime: its progress, its outcome and a
+// way to cancel it.
+
+public class StreamHandle {
+
+	public final String name;
+	final AtomicLong items = new AtomicLong();
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile Thread thread;
+	private volatile boolean cancelled;
+	private volatile Throwable failure;
+
+	StreamHandle(String name) {
+		this.name = name;
+	}
+
+	void started(Thread thread) {
+		this.thread = thread;
+		if (cancelled) {
+			thread.interrupt();
+		}
+	}
+
+	void finished(Throwable failure) {
+		this.failure = failure;
+		thread = null;
+		done.countDown();
+	}
+
+	// Number of input items consumed so far.
+	public long items() {
+		return items.get();
+	}
+
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	// Stops the stream at the next item (or while its source blocks).
+	// The query's end() is not called.
+	public void cancel() {
+		cancelled = true;
+		Thread t = thread;
+		if (t != null) {
+			t.interrupt();
+		}
+	}
+
+	// Waits for the stream to finish and rethrows its failure, if any.
+	// Throws CancellationException if the stream was cancelled.
+	public void await() throws InterruptedException {
+		done.await();
+		check();
+	}
+
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!done.await(timeout, unit)) {
+			return false;
+		}
+		check();
+		return true;
+	}
+
+	private void check() {
+		if (failure instanceof CancellationException || (failure == null && cancelled)) {
+			throw new CancellationException("stream " + name + " was cancelled");
+		}
+		AsyncExecutor.rethrow(failure);
+	}
+
+	@Override
+	public String toString() {
+		String state = !isDone() ? "running" :
+			cancelled ? "cancelled" : failure != null ? "failed" : "done";
+		return name + " (" + state + ", " + items() + " items)";
+	}
+
+}
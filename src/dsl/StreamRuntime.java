@@ -0,0 +1,149 @@
+package dsl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hosts many independent streams, each running a query over its own
+// source on its own thread. Sources may block (see BlockingSource), so the
+// threads are not pooled up to a fixed size: a stream waiting for input
+// would hold up the ones queued behind it. By default the threads are
+// daemon platform threads; on JDK 21 and later, pass
+// Thread.ofVirtual().factory() so that a blocked stream does not hold on
+// to a platform thread and thousands of streams can share a few cores.
+//
+// A stream is forgotten when it finishes. Failures and cancellations are
+// kept until awaitAll() reports them.
+//
+// close() cancels the streams that are still running and waits for all of
+// them to stop.
+
+public class StreamRuntime implements AutoCloseable {
+
+	private final ExecutorService executor;
+	private final List<StreamHandle> streams = new ArrayList<>(); // running
+	private final List<StreamHandle> failed = new ArrayList<>(); // not reported yet
+
+	public StreamRuntime() {
+		this(daemonThreads());
+	}
+
+	public StreamRuntime(ThreadFactory threads) {
+		this.executor = Executors.newCachedThreadPool(threads);
+	}
+
+	private static ThreadFactory daemonThreads() {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, "dsl-stream-" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	// Runs the query over the source like Q.execute (without the report).
+	// Each stream needs its own instance of the query.
+	public <A,B> StreamHandle submit(String name, Iterator<A> source, Query<A,B> q, Sink<B> sink)
+	{
+		StreamHandle handle = new StreamHandle(name);
+		synchronized (streams) {
+			streams.add(handle);
+		}
+		executor.execute(() -> {
+			handle.started(Thread.currentThread());
+			Throwable failure = null;
+			try {
+				run(source, q, sink, handle);
+			} catch (Throwable e) {
+				failure = e;
+			}
+			Thread.interrupted(); // clear a late cancel()
+			synchronized (streams) {
+				streams.remove(handle);
+				if (failure != null || handle.isCancelled()) {
+					failed.add(handle);
+				}
+			}
+			handle.finished(failure);
+		});
+		return handle;
+	}
+
+	// Items are pushed one at a time: with a live source, waiting to fill a
+	// batch would delay the outputs.
+	private static <A,B> void run(Iterator<A> it, Query<A,B> q, Sink<B> sink, StreamHandle handle)
+	{
+		try {
+			q.start(sink);
+			while (it.hasNext()) {
+				if (handle.isCancelled()) {
+					throw new CancellationException();
+				}
+				q.next(it.next(), sink);
+				handle.items.lazySet(handle.items.get() + 1);
+			}
+			q.end(sink);
+		} catch (RuntimeException | Error e) {
+			q.abort();
+			throw e;
+		}
+	}
+
+	// The streams that are still running.
+	public List<StreamHandle> streams() {
+		synchronized (streams) {
+			return new ArrayList<>(streams);
+		}
+	}
+
+	// Waits for every stream submitted so far; the first failure (of the
+	// streams that finished since the last call) is rethrown after all of
+	// them have finished.
+	public void awaitAll() throws InterruptedException {
+		for (StreamHandle handle : streams()) {
+			try {
+				handle.await();
+			} catch (RuntimeException e) {
+				// reported below, in the order the streams finished
+			}
+		}
+		List<StreamHandle> handles;
+		synchronized (streams) {
+			handles = new ArrayList<>(failed);
+			failed.clear();
+		}
+		for (StreamHandle handle : handles) {
+			handle.await();
+		}
+	}
+
+	@Override
+	public void close() {
+		for (StreamHandle handle : streams()) {
+			if (!handle.isDone()) {
+				handle.cancel();
+			}
+		}
+		executor.shutdown();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (executor.awaitTermination(1, TimeUnit.DAYS)) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+package dsl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+// Merging t-digest (Dunning & Ertl) for approximate quantiles of a stream
+// of doubles. The data is summarized by at most about compression * pi/2
+// centroids (mean, weight); centroids near the tails are kept small by the
+// scale function k(q) = compression/(2 pi) * asin(2q - 1), so extreme
+// quantiles are the most accurate. Incoming items are buffered and merged
+// into the centroids when the buffer is full, so memory is fixed and the
+// cost per item is amortized O(log(compression)). Two digests are merged
+// by adding the centroids of one to the other.
+
+public class TDigest implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final double compression;
+	private double[] means; // centroids, sorted by mean
+	private double[] weights;
+	private int nCentroids;
+	private final double[] bufMeans; // unmerged items
+	private final double[] bufWeights;
+	private int nBuffered;
+	private double totalWeight; // including the buffer
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public TDigest(double compression) {
+		if (!(compression >= 10)) {
+			throw new IllegalArgumentException("compression should be >= 10");
+		}
+		this.compression = compression;
+		int capacity = (int) Math.ceil(compression * Math.PI / 2) + 10;
+		this.means = new double[capacity];
+		this.weights = new double[capacity];
+		this.bufMeans = new double[5 * capacity];
+		this.bufWeights = new double[5 * capacity];
+	}
+
+	public TDigest add(double x) {
+		return add(x, 1.0);
+	}
+
+	public TDigest add(double x, double weight) {
+		if (Double.isNaN(x)) {
+			throw new IllegalArgumentException("cannot add NaN");
+		}
+		if (nBuffered == bufMeans.length) {
+			compress();
+		}
+		bufMeans[nBuffered] = x;
+		bufWeights[nBuffered] = weight;
+		nBuffered += 1;
+		totalWeight += weight;
+		if (x < min) {
+			min = x;
+		}
+		if (x > max) {
+			max = x;
+		}
+		return this;
+	}
+
+	public TDigest merge(TDigest other) {
+		other.compress();
+		for (int i=0; i<other.nCentroids; i++) {
+			add(other.means[i], other.weights[i]);
+		}
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		return this;
+	}
+
+	public double count() {
+		return totalWeight;
+	}
+
+	private double k(double q) {
+		return compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+	}
+
+	// Merges the buffer into the centroids.
+	private void compress() {
+		if (nBuffered == 0) {
+			return;
+		}
+		int n = nCentroids + nBuffered;
+		double[] m = Arrays.copyOf(means, n);
+		double[] w = Arrays.copyOf(weights, n);
+		System.arraycopy(bufMeans, 0, m, nCentroids, nBuffered);
+		System.arraycopy(bufWeights, 0, w, nCentroids, nBuffered);
+		nBuffered = 0;
+		sort(m, w, 0, n - 1);
+
+		int out = 0;
+		double curMean = m[0], curWeight = w[0];
+		double before = 0.0; // weight of the emitted centroids
+		double kBefore = k(0.0);
+		for (int i=1; i<n; i++) {
+			double proposed = curWeight + w[i];
+			if (k((before + proposed) / totalWeight) - kBefore <= 1.0) {
+				curMean += (m[i] - curMean) * w[i] / proposed;
+				curWeight = proposed;
+			} else {
+				out = emit(out, curMean, curWeight);
+				before += curWeight;
+				kBefore = k(before / totalWeight);
+				curMean = m[i];
+				curWeight = w[i];
+			}
+		}
+		nCentroids = emit(out, curMean, curWeight);
+	}
+
+	private int emit(int i, double mean, double weight) {
+		if (i == means.length) {
+			means = Arrays.copyOf(means, 2 * i);
+			weights = Arrays.copyOf(weights, 2 * i);
+		}
+		means[i] = mean;
+		weights[i] = weight;
+		return i + 1;
+	}
+
+	// Sorts m[lo..hi] (with w alongside).
+	private static void sort(double[] m, double[] w, int lo, int hi) {
+		while (hi - lo > 16) {
+			double pivot = m[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (m[i] < pivot) i++;
+				while (m[j] > pivot) j--;
+				if (i <= j) {
+					double t = m[i]; m[i] = m[j]; m[j] = t;
+					t = w[i]; w[i] = w[j]; w[j] = t;
+					i++;
+					j--;
+				}
+			}
+			if (j - lo < hi - i) { // recurse into the smaller part
+				sort(m, w, lo, j);
+				lo = i;
+			} else {
+				sort(m, w, i, hi);
+				hi = j;
+			}
+		}
+		for (int i=lo+1; i<=hi; i++) {
+			double mi = m[i], wi = w[i];
+			int j = i - 1;
+			while (j >= lo && m[j] > mi) {
+				m[j + 1] = m[j];
+				w[j + 1] = w[j];
+				j--;
+			}
+			m[j + 1] = mi;
+			w[j + 1] = wi;
+		}
+	}
+
+	// The estimated q-quantile (0 <= q <= 1), interpolating linearly between
+	// the centers of the centroids. NaN for no items.
+	public double quantile(double q) {
+		if (q < 0.0 || q > 1.0) {
+			throw new IllegalArgumentException("quantile should be in [0, 1]");
+		}
+		compress();
+		if (nCentroids == 0) {
+			return Double.NaN;
+		}
+		if (nCentroids == 1) {
+			return means[0];
+		}
+		double target = q * totalWeight;
+		if (target < weights[0] / 2) {
+			return min + (means[0] - min) * target / (weights[0] / 2);
+		}
+		double center = weights[0] / 2; // cumulative weight at the center of centroid i
+		for (int i=0; i<nCentroids-1; i++) {
+			double next = center + (weights[i] + weights[i + 1]) / 2;
+			if (target <= next) {
+				return means[i] + (means[i + 1] - means[i]) * (target - center) / (next - center);
+			}
+			center = next;
+		}
+		double last = weights[nCentroids - 1] / 2;
+		return means[nCentroids - 1] + (max - means[nCentroids - 1]) * Math.min(1.0, (target - center) / last);
+	}
+
+	public int centroids() {
+		compress();
+		return nCentroids;
+	}
+
+}
@@ -0,0 +1,65 @@
+package dsl;
+
+import utils.functions.Func2;
+
+// Tumbling window: the items are split into consecutive blocks of 'size'
+// items and the aggregate of every block is emitted when it is complete.
+// A trailing incomplete block is dropped.
+
+public class Tumbling<A,B> implements Query<A,B>, Buffered {
+
+	private final int size;
+	private final B init;
+	private final Func2<B,A,B> op;
+	private B agg; // aggregate of the current block
+	private int n; // number of items in the current block
+
+	public Tumbling(int size, B init, Func2<B,A,B> op) {
+		if (size < 1) {
+			throw new IllegalArgumentException("window size should be >= 1");
+		}
+		this.size = size;
+		this.init = init;
+		this.op = op;
+	}
+
+	@Override
+	public int buffered() {
+		return n;
+	}
+
+	@Override
+	public void start(Sink<B> sink) {
+		agg = init;
+		n = 0;
+	}
+
+	@Override
+	public void next(A item, Sink<B> sink) {
+		agg = op.apply(agg, item);
+		n += 1;
+		if (n == size) {
+			sink.next(agg);
+			agg = init;
+			n = 0;
+		}
+	}
+
+	@Override
+	public void end(Sink<B> sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeObject(agg);
+		out.writeInt(n);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		agg = in.readObject();
+		n = in.readInt();
+	}
+
+}
@@ -0,0 +1,54 @@
+package dsl;
+
+import java.util.function.Function;
+
+// Adapter that exposes a generic Query<Double,B> as a double query, so that
+// operators without a primitive version can be mixed into double pipelines.
+// 'box' turns the primitive downstream sink into a Sink<B>.
+
+public class UnboxedDouble<B,T> implements DoubleQuery<T> {
+
+	private final Query<Double,B> q;
+	private final Function<T,Sink<B>> box;
+	private T bound; // downstream sink that 'adapted' forwards to
+	private Sink<B> adapted;
+
+	public UnboxedDouble(Query<Double,B> q, Function<T,Sink<B>> box) {
+		this.q = q;
+		this.box = box;
+	}
+
+	private Sink<B> adapt(T sink) {
+		if (sink != bound) {
+			bound = sink;
+			adapted = box.apply(sink);
+		}
+		return adapted;
+	}
+
+	@Override
+	public void start(T sink) {
+		q.start(adapt(sink));
+	}
+
+	@Override
+	public void next(double item, T sink) {
+		q.next(item, adapt(sink));
+	}
+
+	@Override
+	public void end(T sink) {
+		q.end(adapt(sink));
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		q.snapshot(out);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		q.restore(in);
+	}
+
+}
@@ -0,0 +1,54 @@
+package dsl;
+
+import java.util.function.Function;
+
+// Adapter that exposes a generic Query<Integer,B> as an int query, so that
+// operators without a primitive version can be mixed into int pipelines.
+// 'box' turns the primitive downstream sink into a Sink<B>.
+
+public class UnboxedInt<B,T> implements IntQuery<T> {
+
+	private final Query<Integer,B> q;
+	private final Function<T,Sink<B>> box;
+	private T bound; // downstream sink that 'adapted' forwards to
+	private Sink<B> adapted;
+
+	public UnboxedInt(Query<Integer,B> q, Function<T,Sink<B>> box) {
+		this.q = q;
+		this.box = box;
+	}
+
+	private Sink<B> adapt(T sink) {
+		if (sink != bound) {
+			bound = sink;
+			adapted = box.apply(sink);
+		}
+		return adapted;
+	}
+
+	@Override
+	public void start(T sink) {
+		q.start(adapt(sink));
+	}
+
+	@Override
+	public void next(int item, T sink) {
+		q.next(item, adapt(sink));
+	}
+
+	@Override
+	public void end(T sink) {
+		q.end(adapt(sink));
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		q.snapshot(out);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		q.restore(in);
+	}
+
+}
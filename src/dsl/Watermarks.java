@@ -0,0 +1,54 @@
+package dsl;
+
+import java.util.function.ToLongFunction;
+
+// Generates event-time watermarks for a stream whose items may arrive out
+// of order by at most 'maxDelay' time units: after an item with timestamp
+// t, no item older than t - maxDelay is expected. The items are passed on
+// unchanged, followed by a watermark whenever it advances.
+
+public class Watermarks<A> implements Query<A,A> {
+
+	private final ToLongFunction<A> timestamp;
+	private final long maxDelay;
+	private long maxSeen; // largest timestamp so far
+
+	public Watermarks(ToLongFunction<A> timestamp, long maxDelay) {
+		if (maxDelay < 0) {
+			throw new IllegalArgumentException("maxDelay should be >= 0");
+		}
+		this.timestamp = timestamp;
+		this.maxDelay = maxDelay;
+	}
+
+	@Override
+	public void start(Sink<A> sink) {
+		maxSeen = Long.MIN_VALUE;
+	}
+
+	@Override
+	public void next(A item, Sink<A> sink) {
+		long ts = timestamp.applyAsLong(item);
+		sink.next(item);
+		if (ts > maxSeen) {
+			maxSeen = ts;
+			sink.watermark(ts - maxDelay);
+		}
+	}
+
+	@Override
+	public void end(Sink<A> sink) {
+		sink.end();
+	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeLong(maxSeen);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		maxSeen = in.readLong();
+	}
+
+}
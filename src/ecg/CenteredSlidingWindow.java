@@ -1,11 +1,14 @@
 package ecg;
 
+import dsl.Buffered;
 import dsl.Query;
 import dsl.Sink;
+import dsl.StateReader;
+import dsl.StateWriter;
 
 import java.util.function.BinaryOperator;
 
-public class CenteredSlidingWindow<A> implements Query<A, A> {
+public class CenteredSlidingWindow<A> implements Query<A, A>, Buffered {
 
     private final A init;  // Neutral element representing zero
     private final BinaryOperator<A> insert;
@@ -30,6 +33,11 @@ public class CenteredSlidingWindow<A> implements Query<A, A> {
         this.nElements = 0;
     }
 
+    @Override
+    public int buffered() {
+        return nElements;
+    }
+
     @Override
     public void start(Sink<A> sink) {
         //System.out.println("in centeredSlidingWindow start method");
@@ -66,4 +74,24 @@ public class CenteredSlidingWindow<A> implements Query<A, A> {
     public void end(Sink<A> sink) {
         sink.end();
     }
-}
\ No newline at end of file
+
+    @Override
+    public void snapshot(StateWriter out) {
+        out.writeObject(agg);
+        out.writeInt(indexOldest);
+        out.writeInt(nElements);
+        for (A a : buffer) { // the whole ring: start pre-fills part of it
+            out.writeObject(a);
+        }
+    }
+
+    @Override
+    public void restore(StateReader in) {
+        agg = in.readObject();
+        indexOldest = in.readInt();
+        nElements = in.readInt();
+        for (int i = 0; i < wndSize; i++) {
+            buffer[i] = in.readObject();
+        }
+    }
+}
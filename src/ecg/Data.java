@@ -6,8 +6,9 @@ import java.util.Iterator;
 public class Data {
 
 	// TODO: Update the path to the datasets
-	private static final String PATH =
-			"/Users/joannewang/Downloads/homework5-code-released/data/";
+	// (or set the system property ecg.data, as the benchmarks do)
+	private static final String PATH = System.getProperty("ecg.data",
+			"/Users/joannewang/Downloads/homework5-code-released/data/");
 
 
 	private Data() {
@@ -3,8 +3,6 @@ package ecg;
 import dsl.*;
 import utils.Pair;
 
-import java.util.LinkedList;
-
 
 // The detection algorithm (decision rule) that we described in class
 // (or your own slight variant of it).
@@ -18,15 +16,28 @@ import java.util.LinkedList;
 //
 // OUTPUT: The timestamp of each peak.
 
-public class Detect implements Query<VTL, Long> {
+public class Detect implements Query<VTL, Long>, Buffered {
+	// The peak decisions are printed unless -Decg.quiet=true is set (the
+	// benchmarks do, so that they do not measure the console).
+	private static final boolean VERBOSE = !Boolean.getBoolean("ecg.quiet");
+
 	private double THRESHOLD;
 	private int ignoreCount = 0;
 	private Pair<Long, Integer> peak = Pair.from(0L, Integer.MIN_VALUE);
-	private LinkedList<VTL> sampleBuffer = new LinkedList<>();
+	// The search window after a trigger: only its running maximum (the
+	// first sample with the highest value) is kept, not the samples.
+	private VTL highest = null;
+	private int nBuffered = 0;
 	private boolean isBuffering = false;
 
 	public Detect() {
-		this.THRESHOLD = determineThreshold();
+		this.THRESHOLD = Threshold.VALUE;
+	}
+
+	// Computed once (lazily, thread-safe) and shared by every Detect: the
+	// training data is the same for all streams.
+	private static class Threshold {
+		static final double VALUE = determineThreshold();
 	}
 
 	// Choose this to be two times the average length over the entire signal.
@@ -40,6 +51,11 @@ public class Detect implements Query<VTL, Long> {
 		return avgLength * 2;
 	}
 
+	@Override
+	public int buffered() {
+		return nBuffered;
+	}
+
 	@Override
 	public void start(Sink<Long> sink) {
 		//System.out.println("Threshold set to: " + THRESHOLD);
@@ -49,10 +65,22 @@ public class Detect implements Query<VTL, Long> {
 	private void reset() {
 		ignoreCount = 0;
 		peak = Pair.from(0L, Integer.MIN_VALUE);
-		sampleBuffer.clear();
+		clearBuffer();
 		isBuffering = false;
 	}
 
+	private void clearBuffer() {
+		highest = null;
+		nBuffered = 0;
+	}
+
+	private void buffer(VTL item) {
+		if (highest == null || item.v > highest.v) {
+			highest = item;
+		}
+		nBuffered += 1;
+	}
+
 	@Override
 	public void next(VTL item, Sink<Long> sink) {
 		//System.out.println("Processing item: l=" + item.l + ", v=" + item.v + ", ts=" + item.ts);
@@ -66,30 +94,23 @@ public class Detect implements Query<VTL, Long> {
 		if (item.l > THRESHOLD && !isBuffering) {
 			//System.out.println("Item length exceeds threshold, starting to buffer. Triggering item details: l=" + item.l + ", v=" + item.v + ", ts=" + item.ts);
 			isBuffering = true;
-			sampleBuffer.add(item);  // Include the triggering item in the buffer
+			buffer(item);  // Include the triggering item in the buffer
 			//System.out.println("Adding triggering item to buffer. Buffer size is now: 1. Item details: l=" + item.l + ", v=" + item.v + ", ts=" + item.ts);
 		} else if (isBuffering) {
-			sampleBuffer.add(item);
-			//System.out.println("Adding item to buffer. Current buffer size: " + sampleBuffer.size() + ". Item details: l=" + item.l + ", v=" + item.v + ", ts=" + item.ts);
+			buffer(item);
+			//System.out.println("Adding item to buffer. Current buffer size: " + nBuffered + ". Item details: l=" + item.l + ", v=" + item.v + ", ts=" + item.ts);
 
 			// Check if we have collected 40 samples, including the triggering one
-			if (sampleBuffer.size() == 40) {
+			if (nBuffered == 40) {
 				//System.out.println("Buffer full. Processing for peaks.");
 				findPeakInBuffer(sink);
-				sampleBuffer.clear();
+				clearBuffer();
 				isBuffering = false;
 			}
 		}
 	}
 
 	private void findPeakInBuffer(Sink<Long> sink) {
-		VTL highest = null;
-		for (VTL vtl : sampleBuffer) {
-			if (highest == null || vtl.v > highest.v) {
-				highest = vtl; // Find the highest peak in the buffer based on item's value
-			}
-		}
-
 		//System.out.println("Highest peak in buffer: " + highest);
 		//System.out.println("Current peak: " + peak);
 
@@ -99,10 +120,12 @@ public class Detect implements Query<VTL, Long> {
 		//If the value (v) of the highest sample is greater than the value of the current peak (peak.getRight()), or if no peak has been found yet (peak.getRight() == Integer.MIN_VALUE).
 		if (highest != null && (peak.getRight() == Integer.MIN_VALUE || highest.v > peak.getRight())) {
 			peak = Pair.from(highest.ts, highest.v);
-			System.out.println("New peak found: " + peak.getLeft() + " at value: " + peak.getRight() + ", with full item details: l=" + highest.l + ", v=" + highest.v + ", ts=" + highest.ts);
+			if (VERBOSE) {
+				System.out.println("New peak found: " + peak.getLeft() + " at value: " + peak.getRight() + ", with full item details: l=" + highest.l + ", v=" + highest.v + ", ts=" + highest.ts);
+			}
 			sink.next(peak.getLeft());
 			ignoreCount = 72; // Set cooldown period after detecting a peak
-		} else {
+		} else if (VERBOSE) {
 			System.out.println("No new peak found or existing peak is higher.");
 		}
 	}
@@ -110,10 +133,34 @@ public class Detect implements Query<VTL, Long> {
 
 	@Override
 	public void end(Sink<Long> sink) {
-		if (!sampleBuffer.isEmpty()) {
-			System.out.println("End of data stream. Processing remaining data in buffer.");
+		if (nBuffered > 0) {
+			if (VERBOSE) {
+				System.out.println("End of data stream. Processing remaining data in buffer.");
+			}
 			findPeakInBuffer(sink);
 		}
 		sink.end();
 	}
-}
\ No newline at end of file
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeInt(ignoreCount);
+		out.writeObject(peak);
+		out.writeBoolean(isBuffering);
+		out.writeInt(nBuffered);
+		if (nBuffered > 0) {
+			out.writeInt(highest.v);
+			out.writeLong(highest.ts);
+			out.writeDouble(highest.l);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		ignoreCount = in.readInt();
+		peak = in.readObject();
+		isBuffering = in.readBoolean();
+		nBuffered = in.readInt();
+		highest = nBuffered > 0 ? new VTL(in.readInt(), in.readLong(), in.readDouble()) : null;
+	}
+}
@@ -1,11 +1,11 @@
 package ecg;
 
+import dsl.Aggregators;
 import dsl.S;
 import dsl.Q;
 import dsl.Query;
-import dsl.Sink;
-import utils.functions.Func2;
 
+import java.io.Serializable;
 import java.util.Objects;
 import java.util.function.Function;
 
@@ -20,29 +20,12 @@ public class HeartRate {
 		// Fetch the peak timestamps
 		Query<Integer, Long> peakTimes = qPeaks();
 
-		// Define a function to calculate differences between consecutive timestamps
-		Func2<Double, Long, Double> calculateIntervals = new Func2<Double, Long, Double>() {
-			private Long previousTimestamp = null;
-
-			@Override
-			public Double apply(Double ignore, Long currentTimestamp) {
-				if (previousTimestamp == null) {
-					previousTimestamp = currentTimestamp;
-					return Double.NaN;  // Return NaN for the first calculation to indicate no interval
-				} else {
-					double interval = currentTimestamp - previousTimestamp;
-					interval *= 2.78;  // Convert the interval to milliseconds
-					previousTimestamp = currentTimestamp;
-					return interval;
-				}
-			}
-		};
-
-		// Use Q.scan to calculate RR intervals from peak timestamps
-		Query<Long, Double> intervalQuery = Q.scan(Double.NaN, calculateIntervals);
+		// Differences between consecutive timestamps, converted to milliseconds.
+		// The previous timestamp lives in the window operator (not in a
+		// closure) so that it is part of a snapshot.
+		Query<Long, Double> intervalQuery = Q.sWindow2((previous, current) -> (current - previous) * 2.78);
 
-		// Filter out the initial NaN and null values
-		return Q.pipeline(peakTimes, intervalQuery, Q.filter(d -> d != null && !Double.isNaN(d)));
+		return Q.pipeline(peakTimes, intervalQuery);
 	}
 
 	// Average heart rate (over entire signal) in bpm.
@@ -70,43 +53,8 @@ public class HeartRate {
 		// Fetch the RR intervals
 		Query<Integer, Double> rrIntervals = qIntervals();
 
-		// Define a query to accumulate the necessary data for standard deviation calculation
-		Query<Integer, double[]> accumulatedData = Q.scan(new double[]{0, 0, 0}, (acc, rr) -> {
-			if (rr != null) {
-				acc[0] += rr;          // Sum
-				acc[1] += rr * rr;     // Sum of squares
-				acc[2] += 1;           // Count
-			}
-			return acc;
-		});
-
-		// Define a query to calculate the standard deviation from the accumulated data
-		Query<double[], Double> standardDeviationQuery = new Query<double[], Double>() {
-			double[] acc = null;
-
-			@Override
-			public void start(Sink<Double> sink) {
-				// Do nothing at the start
-			}
-
-			@Override
-			public void next(double[] acc, Sink<Double> sink) {
-				this.acc = acc; // Store the accumulated data
-			}
-
-			@Override
-			public void end(Sink<Double> sink) {
-				// Calculate the standard deviation after all data points have been processed
-				if (acc != null && acc[2] > 1) { // More than one data point is needed for standard deviation
-					double mean = acc[0] / acc[2];
-					double meanSq = acc[1] / acc[2];
-					sink.next(Math.sqrt(meanSq - (mean * mean)));
-				}
-			}
-		};
-
-		// Map the accumulated data to standard deviation values
-		return Q.pipeline(accumulatedData, standardDeviationQuery);
+		// Standard deviation of the intervals through a mergeable aggregate
+		return Q.pipeline(rrIntervals, Q.aggregate(Aggregators.stdev()));
 	}
 
 
@@ -115,28 +63,11 @@ public class HeartRate {
 		// Fetch the RR intervals
 		Query<Integer, Double> rrIntervals = qIntervals();
 
-		// Define a function to calculate differences between consecutive intervals
-		Func2<Double, Double, Double> calculateDifferences = new Func2<Double, Double, Double>() {
-			private Double previousInterval = null;
-
-			@Override
-			public Double apply(Double ignore, Double currentInterval) {
-				if (previousInterval == null) {
-					previousInterval = currentInterval;
-					return Double.NaN;  // Return NaN for the first calculation to indicate no difference
-				} else {
-					double difference = currentInterval - previousInterval;
-					previousInterval = currentInterval;
-					return difference * difference;  // Return the squared difference
-				}
-			}
-		};
-
-		// Use Q.scan to calculate squared differences from RR intervals
-		Query<Double, Double> squaredDifferences = Q.scan(Double.NaN, calculateDifferences);
-
-		// Filter out the initial NaN value
-		Query<Double, Double> filteredDifferences = Q.filter(d -> d != null && !Double.isNaN(d));
+		// Squared differences between consecutive intervals
+		Query<Double, Double> squaredDifferences = Q.sWindow2((previous, current) -> {
+			double difference = current - previous;
+			return difference * difference;
+		});
 
 		// Compute the mean of the squared differences
 		Query<Double, Double> meanSquaredDifference = Q.foldAvg();
@@ -145,10 +76,12 @@ public class HeartRate {
 		Query<Double, Double> rmssd = Q.map(Math::sqrt);
 
 		// Combine the queries into a pipeline
-		return Q.pipeline(rrIntervals, squaredDifferences, filteredDifferences, meanSquaredDifference, rmssd);
+		return Q.pipeline(rrIntervals, squaredDifferences, meanSquaredDifference, rmssd);
 	}
 
-	public static class Counters {
+	public static class Counters implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		public long nn50;
 		public long totalIntervals;
 
@@ -164,28 +97,8 @@ public class HeartRate {
 		// Fetch the RR intervals
 		Query<Integer, Double> rrIntervals = qIntervals();
 
-		// Define a function to calculate differences between consecutive intervals
-		Func2<Double, Double, Double> calculateDifferences = new Func2<Double, Double, Double>() {
-			private Double previousInterval = null;
-
-			@Override
-			public Double apply(Double ignore, Double currentInterval) {
-				if (previousInterval == null) {
-					previousInterval = currentInterval;
-					return Double.NaN;  // Return NaN for the first calculation to indicate no difference
-				} else {
-					double difference = Math.abs(currentInterval - previousInterval);
-					previousInterval = currentInterval;
-					return difference;  // Return the difference
-				}
-			}
-		};
-
-		// Use Q.scan to calculate differences from RR intervals
-		Query<Double, Double> differences = Q.scan(Double.NaN, calculateDifferences);
-
-		// Filter out the initial NaN value
-		Query<Double, Double> filteredDifferences = Q.filter(d -> d != null && !Double.isNaN(d));
+		// Absolute differences between consecutive intervals
+		Query<Double, Double> differences = Q.sWindow2((previous, current) -> Math.abs(current - previous));
 
 		// Count the differences over 50 ms and total intervals
 		Query<Double, Counters> countersQuery = Q.fold(new Counters(0L, 0L), (counters, diff) -> {
@@ -198,7 +111,7 @@ public class HeartRate {
 		// Map the final accumulation to the percentage
 		Query<Counters, Double> percentage = Q.map(t -> (t.nn50 / (double) t.totalIntervals) * 100);
 
-		return Q.pipeline(rrIntervals, differences, filteredDifferences, countersQuery, percentage);
+		return Q.pipeline(rrIntervals, differences, countersQuery, percentage);
 	}
 
 
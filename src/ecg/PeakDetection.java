@@ -6,6 +6,7 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.function.Function; // Make sure to import the Function interface
 
+import utils.Pair;
 import utils.functions.Func1;
 import utils.functions.Func2;
 import utils.functions.Func3;
@@ -34,31 +35,34 @@ public class PeakDetection {
 
 		Query<Integer, Double> adjust = Q.map(x -> (double) x - 1024);
 
-		Query<Double, Double> smooth = new CenteredSlidingWindow<>(5, 0.0,
-				(agg, newItem) -> agg + newItem / 5,
-				(agg, oldItem) -> agg - oldItem / 5);
+		// The smoothing and the derivative are FIR filters, and the length is
+		// a centered window sum. Everything after 'adjust' runs on primitive
+		// doubles, in a single boxed stage.
+		DoubleQuery<DoubleSink> smooth = Q.convolve(
+				new double[] {0.2, 0.2, 0.2, 0.2, 0.2}, Convolve.Alignment.CENTERED);
 
-		Query<Double, Double> derivative = Q.sWindow3((prev, curr, next) -> (next - prev) / 2);
+		DoubleQuery<DoubleSink> derivative = Q.convolve(
+				new double[] {0.5, 0.0, -0.5}, Convolve.Alignment.CAUSAL);
 
-		Query<Double, Double> length = new CenteredSlidingWindow<>(41, 0.0,
-				(agg, newItem) -> agg + Math.sqrt(1.0 + newItem * newItem),
-				(agg, oldItem) -> agg - Math.sqrt(1.0 + oldItem * oldItem));
+		DoubleQuery<DoubleSink> length = Q.pipeline(
+				Q.doubleMap(d -> Math.sqrt(1.0 + d * d)),
+				Q.doubleSWindowCentered(2 * WINDOW_WIDTH + 1, DoubleSWindow.Kind.SUM));
 
-		return Q.pipeline(adjust, smooth, derivative, length);
+		return Q.pipeline(adjust, Q.boxDouble(Q.pipeline(smooth, Q.pipeline(derivative, length))));
 
 	}
 
 	// In order to detect peaks we need both the raw (or adjusted)
 	// signal and the signal given by the curve length transformation.
 	// Use the datatype VTL and implement the class Detect.
-	private static long ts;
-
 	public static Query<Integer, Long> qPeaks() {
-		ts=0;
-		Func2<Integer, Double, VTL>combineToVTL=(raw, length)->new VTL(
-				raw, ts++, length);
+		// The timestamp is the index of the sample. It is counted by a scan
+		// (rather than a closure) so that it is part of a snapshot.
+		Func2<Pair<Long, Integer>, Double, VTL>combineToVTL=(raw, length)->new VTL(
+				raw.getRight(), raw.getLeft(), length);
 
-		Query<Integer, Integer>orinalStream=Q.id();
+		Query<Integer, Pair<Long, Integer>>orinalStream=Q.scan(Pair.from(-1L, 0),
+				(previous, raw)->Pair.from(previous.getLeft() + 1, raw));
 		Query<Integer, Double>lengthStream=qLength();
 		Query<Integer, VTL>vtlstream=Q.parallel(orinalStream, lengthStream, combineToVTL);
 		Detect detect=new Detect();
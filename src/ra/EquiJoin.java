@@ -4,19 +4,24 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 
+import dsl.Buffered;
 import dsl.Query;
 import dsl.Sink;
+import dsl.StateReader;
+import dsl.StateWriter;
 import utils.Or;
 import utils.Pair;
 
-public class EquiJoin<A, B, T> implements Query<Or<A, B>, Pair<A, B>> {
+public class EquiJoin<A, B, T> implements Query<Or<A, B>, Pair<A, B>>, Buffered {
 
 	private final Function<A, T> f;
 	private final Function<B, T> g;
 	private final HashMap<T, List<A>> leftTable = new HashMap<>();
 	private final HashMap<T, List<B>> rightTable = new HashMap<>();
+	private int stored = 0; // items in both tables
 
 	private EquiJoin(Function<A, T> f, Function<B, T> g) {
 		this.f = f;
@@ -27,6 +32,11 @@ public class EquiJoin<A, B, T> implements Query<Or<A, B>, Pair<A, B>> {
 		return new EquiJoin<>(f, g);
 	}
 
+	@Override
+	public int buffered() {
+		return stored;
+	}
+
 	@Override
 	public void start(Sink<Pair<A, B>> sink) {
 		// Initialization, if needed, can be done here
@@ -34,6 +44,7 @@ public class EquiJoin<A, B, T> implements Query<Or<A, B>, Pair<A, B>> {
 
 	@Override
 	public void next(Or<A, B> item, Sink<Pair<A, B>> sink) {
+		stored += 1;
 		if (item.isLeft()) {
 			A a = item.getLeft(); // Get the left value
 			T key = f.apply(a); // Apply the function to get the key
@@ -56,4 +67,37 @@ public class EquiJoin<A, B, T> implements Query<Or<A, B>, Pair<A, B>> {
 	public void end(Sink<Pair<A, B>> sink) {
 		// Finalization, if needed, can be done here
 	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeInt(stored);
+		writeTable(leftTable, out);
+		writeTable(rightTable, out);
+	}
+
+	private static <X, T> void writeTable(HashMap<T, List<X>> table, StateWriter out) {
+		out.writeInt(table.size());
+		for (Map.Entry<T, List<X>> e : table.entrySet()) {
+			out.writeObject(e.getKey());
+			out.writeAll(e.getValue());
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		stored = in.readInt();
+		readTable(leftTable, in);
+		readTable(rightTable, in);
+	}
+
+	private static <X, T> void readTable(HashMap<T, List<X>> table, StateReader in) {
+		table.clear();
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			T key = in.readObject();
+			List<X> items = new LinkedList<>();
+			in.readAll(items);
+			table.put(key, items);
+		}
+	}
 }
@@ -1,36 +1,100 @@
 package ra;
 
+import dsl.Aggregator;
+import dsl.Buffered;
 import dsl.Query;
 import dsl.Sink;
+import dsl.StateReader;
+import dsl.StateWriter;
 import utils.Pair;
 import utils.functions.Func2;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
 
-public class GroupBy<K, A, B> implements Query<Pair<K, A>, Pair<K, B>> {
+public class GroupBy<K, A, B> implements Query<Pair<K, A>, Pair<K, B>>, Buffered {
 
-	private final B init;
-	private final Func2<B, A, B> op;
-	private Map<K, B> aggregates;
-	private Map<K, Boolean> keyOrder;
+	// What a group needs of its aggregate. Groups are never merged, so a
+	// plain fold (which cannot be merged) fits as well as an Aggregator.
+	private interface Group<A, Acc, B> {
+		Acc create();
+		Acc accumulate(Acc acc, A item);
+		B finish(Acc acc);
+		void snapshot(Acc acc, StateWriter out);
+		Acc restore(StateReader in);
+	}
+
+	private final Group<A, Object, B> group;
+	private final Map<K, Object> aggregates; // partial aggregate per key
 
-	private GroupBy(B init, Func2<B, A, B> op) {
-		this.init = init;
-		this.op = op;
+	@SuppressWarnings("unchecked")
+	private GroupBy(Group<A, ?, B> group) {
+		this.group = (Group<A, Object, B>) group;
 		this.aggregates = new LinkedHashMap<>(); // Preserves insertion order
-		this.keyOrder = new LinkedHashMap<>();
 	}
 
 	public static <K, A, B> GroupBy<K, A, B> from(B init, Func2<B, A, B> op) {
-		return new GroupBy<>(init, op);
+		return new GroupBy<>(new Group<A, B, B>() {
+			@Override
+			public B create() {
+				return init;
+			}
+			@Override
+			public B accumulate(B acc, A item) {
+				return op.apply(acc, item);
+			}
+			@Override
+			public B finish(B acc) {
+				return acc;
+			}
+			@Override
+			public void snapshot(B acc, StateWriter out) {
+				out.writeObject(acc);
+			}
+			@Override
+			public B restore(StateReader in) {
+				return in.readObject();
+			}
+		});
+	}
+
+	// Aggregates each group with the aggregator, e.g. a sketch of
+	// Aggregators to keep fixed memory per group.
+	public static <K, A, Acc, B> GroupBy<K, A, B> from(Aggregator<A, Acc, B> agg) {
+		return new GroupBy<>(new Group<A, Acc, B>() {
+			@Override
+			public Acc create() {
+				return agg.create();
+			}
+			@Override
+			public Acc accumulate(Acc acc, A item) {
+				return agg.accumulate(acc, item);
+			}
+			@Override
+			public B finish(Acc acc) {
+				return agg.finish(acc);
+			}
+			@Override
+			public void snapshot(Acc acc, StateWriter out) {
+				agg.snapshot(acc, out);
+			}
+			@Override
+			public Acc restore(StateReader in) {
+				return agg.restore(in);
+			}
+		});
+	}
+
+	// The number of groups.
+	@Override
+	public int buffered() {
+		return aggregates.size();
 	}
 
 	@Override
 	public void start(Sink<Pair<K, B>> sink) {
 		// Reset state if needed. For new instances, this is effectively a no-op.
 		aggregates.clear();
-		keyOrder.clear();
 	}
 
 	@Override
@@ -38,30 +102,37 @@ public class GroupBy<K, A, B> implements Query<Pair<K, A>, Pair<K, B>> {
 		K key = item.getLeft();
 		A value = item.getRight();
 
-		// Check if the key is new. If so, remember its order and initialize its aggregate.
-		keyOrder.putIfAbsent(key, true);
-
-		// Perform aggregation
-		aggregates.compute(key, (k, currentAggregate) -> {
-			if (currentAggregate == null) {
-				// This is the first value for this key, so use the initial value as the base
-				return op.apply(init, value);
-			} else {
-				// Apply the aggregate function to the current aggregate and the new value
-				return op.apply(currentAggregate, value);
-			}
-		});
+		// Perform aggregation. A new key gets a fresh aggregate (and keeps
+		// its position of first occurrence).
+		aggregates.compute(key, (k, currentAggregate) ->
+			group.accumulate(currentAggregate == null ? group.create() : currentAggregate, value));
 	}
 
 	@Override
 	public void end(Sink<Pair<K, B>> sink) {
 		// Output all results in the order of their first occurrence
-		keyOrder.forEach((key, value) -> {
-			B aggregate = aggregates.get(key);
-			sink.next(Pair.from(key, aggregate)); // Correctly use `next` instead of `put`
-		});
+		aggregates.forEach((key, aggregate) -> sink.next(Pair.from(key, group.finish(aggregate))));
 
 		// Signify the end of data processing
 		sink.end();
 	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeInt(aggregates.size());
+		for (Map.Entry<K, Object> e : aggregates.entrySet()) {
+			out.writeObject(e.getKey());
+			group.snapshot(e.getValue(), out);
+		}
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		aggregates.clear();
+		int n = in.readInt();
+		for (int i=0; i<n; i++) {
+			K key = in.readObject();
+			aggregates.put(key, group.restore(in));
+		}
+	}
 }
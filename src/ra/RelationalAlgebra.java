@@ -1,6 +1,5 @@
 package ra;
 
-import java.text.DecimalFormat;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 
@@ -37,36 +36,27 @@ public class RelationalAlgebra {
 		System.out.println();
 	}
 
-	private static long execute(
+	private static ExecutionStats execute(
 		int n, int m,
 		Query<Or<Integer,Double>,Pair<Integer,Double>> q,
 		Sink<Pair<Integer,Double>> sink
 	) {
-		long nTotal = 0;
-		long start = System.nanoTime();
+		ExecutionStats.Meter meter = ExecutionStats.start();
+		sink = meter.count(sink);
 
 		q.start(sink);
 		for (int i=0; i<n; i++) {
+			meter.mark();
 			for (int j=0; j<m; j++) {
 				double x = i + (j / (double) m);
 				q.next(Or.inr(x), sink);
-				nTotal += 1;
 			}
 			q.next(Or.inl(i), sink);
-			nTotal += 1;
+			meter.items(m + 1);
 		}
-		q.end(sink);		
-		
-		long end = System.nanoTime();
-		
-		DecimalFormat formatter = new DecimalFormat("#,###");
-		long timeNano = end - start;
-		long timeMsec = timeNano / 1_000_000;
-		System.out.println("duration = " + formatter.format(timeMsec) + " msec");
-		long throughput = (nTotal * 1000L * 1000 * 1000) / timeNano;
-		System.out.println("throughput = " + formatter.format(throughput) + " tuples/sec");
+		q.end(sink);
 
-		return throughput;
+		return meter.stop().print();
 	}
 
 }
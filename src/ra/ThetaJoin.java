@@ -4,12 +4,15 @@ import java.util.function.BiPredicate;
 import java.util.ArrayList;
 import java.util.List;
 
+import dsl.Buffered;
 import dsl.Query;
 import dsl.Sink;
+import dsl.StateReader;
+import dsl.StateWriter;
 import utils.Or;
 import utils.Pair;
 
-public class ThetaJoin<A,B> implements Query<Or<A,B>,Pair<A,B>> {
+public class ThetaJoin<A,B> implements Query<Or<A,B>,Pair<A,B>>, Buffered {
 
 	private final BiPredicate<A,B> theta;
 	private final List<A> leftItems = new ArrayList<>();
@@ -23,6 +26,11 @@ public class ThetaJoin<A,B> implements Query<Or<A,B>,Pair<A,B>> {
 		return new ThetaJoin<>(theta);
 	}
 
+	@Override
+	public int buffered() {
+		return leftItems.size() + rightItems.size();
+	}
+
 	@Override
 	public void start(Sink<Pair<A,B>> sink) {
 		// Optionally reset the state if required
@@ -58,4 +66,16 @@ public class ThetaJoin<A,B> implements Query<Or<A,B>,Pair<A,B>> {
 	public void end(Sink<Pair<A,B>> sink) {
 		// Any cleanup if necessary
 	}
+
+	@Override
+	public void snapshot(StateWriter out) {
+		out.writeAll(leftItems);
+		out.writeAll(rightItems);
+	}
+
+	@Override
+	public void restore(StateReader in) {
+		in.readAll(leftItems);
+		in.readAll(rightItems);
+	}
 }
@@ -2,13 +2,26 @@ package test;
 
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import dsl.*;
 import utils.Or;
+import utils.Pair;
 
 public class UTestDSL {
 
@@ -443,4 +456,1791 @@ public class UTestDSL {
 		}
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testIntPipeline() {
+		System.out.println("***** Test Int Pipeline *****");
+
+		Query<Integer,Long> q1 = Q.pipeline(
+			Q.filter(x -> x % 3 == 0), Q.map(x -> 2*x), Q.fold(0L, (x, y) -> x + y)
+		);
+		SLastCount<Long> sink1 = S.lastCount();
+
+		IntQuery<LongSink> q2 = Q.pipeline(
+			Q.intFilter(x -> x % 3 == 0),
+			Q.pipeline(Q.intMap(x -> 2*x), Q.intFold(0L, (x, y) -> x + y))
+		);
+		SLastCount<Long> sink2 = S.lastCount();
+
+		int n = 1000;
+		Q.execute(Q.intStream(n), q1, sink1);
+		Q.execute(Q.intStream(n), q2, S.longSink(sink2));
+		assertEquals(1, sink2.count);
+		assertEquals(sink1.last, sink2.last);
+	}
+
+	@Test
+	public void testIntScan() {
+		System.out.println("***** Test Int Scan *****");
+
+		IntQuery<LongSink> q = Q.intScan(0L, (x, y) -> x + y);
+		SLastCount<Long> sink = S.lastCount();
+		LongSink lsink = S.longSink(sink);
+
+		int n = 1000;
+		q.start(lsink);
+		for (int i=1; i<=n; i++) {
+			q.next(i, lsink);
+			assertEquals(i, sink.count);
+			assertEquals((1L+i)*i/2, sink.last.longValue());
+		}
+		q.end(lsink);
+		assertEquals(n, sink.count);
+	}
+
+	@Test
+	public void testPrimitiveWindow() {
+		System.out.println("***** Test Window (Primitive) *****");
+
+		for (int w=1; w<10; w++) {
+			Query<Integer,Integer> q1 =
+				Q.sWindowInv(w, 0, Integer::sum, (x,y) -> x-y);
+			SLastCount<Integer> sink1 = S.lastCount();
+
+			Query<Integer,Integer> q2 =
+				Q.boxInt(Q.intSWindowInv(w, 0, Integer::sum, (x,y) -> x-y));
+			SLastCount<Integer> sink2 = S.lastCount();
+
+			Query<Double,Double> q3 =
+				Q.boxDouble(Q.doubleSWindowInv(w, 0.0, Double::sum, (x,y) -> x-y));
+			SLastCount<Double> sink3 = S.lastCount();
+
+			int n = 20;
+			q1.start(sink1);
+			q2.start(sink2);
+			q3.start(sink3);
+			for (int i=1; i<=n; i++) {
+				q1.next(i, sink1);
+				q2.next(i, sink2);
+				q3.next((double) i, sink3);
+				assertEquals(sink1.count, sink2.count);
+				assertEquals(sink1.count, sink3.count);
+				assertEquals(sink1.last, sink2.last);
+				if (sink1.last != null) {
+					assertEquals(sink1.last, sink3.last, 1e-9);
+				}
+			}
+			q1.end(sink1);
+			q2.end(sink2);
+			q3.end(sink3);
+		}
+	}
+
+	@Test
+	public void testPrimitiveAdapters() {
+		System.out.println("***** Test Primitive Adapters *****");
+
+		// int -> double, then a generic operator in the middle of a
+		// double pipeline, then back to boxed values at the end.
+		IntQuery<DoubleSink> q1 = Q.intMapToDouble(x -> x / 2.0);
+		DoubleQuery<DoubleSink> q2 =
+			Q.unboxDouble(Q.sWindow2((x, y) -> x + y));
+		DoubleQuery<DoubleSink> q3 = Q.doubleScan(0.0, Double::sum);
+		Query<Integer,Double> q = Q.boxIntToDouble(Q.pipeline(q1, Q.pipeline(q2, q3)));
+		SLastCount<Double> sink = S.lastCount();
+
+		int n = 1000;
+		q.start(sink);
+		for (int i=1; i<=n; i++) {
+			q.next(i, sink);
+			assertEquals(i - 1, sink.count);
+		}
+		q.end(sink);
+		// sum of (i-1)/2 + i/2 for i = 2..n
+		assertEquals((n*(double) n - 1) / 2, sink.last, 1e-9);
+	}
+
+	// Bytes allocated by the current thread while running q over the items.
+	private static <A,B> long allocatedBytes(A[] items, Query<A,B> q, Sink<B> sink) {
+		com.sun.management.ThreadMXBean bean =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long tid = Thread.currentThread().getId();
+		long before = bean.getThreadAllocatedBytes(tid);
+		q.start(sink);
+		for (A item : items) {
+			q.next(item, sink);
+		}
+		q.end(sink);
+		return bean.getThreadAllocatedBytes(tid) - before;
+	}
+
+	@Test
+	public void testPipelineAllocation() {
+		System.out.println("***** Test Pipeline Allocation *****");
+
+		// The items are boxed upfront and the operators return objects
+		// that already exist, so any allocation comes from the combinators.
+		int n = 1_000_000;
+		Integer[] items = new Integer[n];
+		for (int i=0; i<n; i++) {
+			items[i] = i;
+		}
+		Query<Integer,Integer> q = Q.pipeline(
+			Q.map(x -> items[n - 1 - x]),
+			Q.filter(x -> x % 2 == 0),
+			Q.fold(items[0], (x, y) -> x < y ? y : x)
+		);
+		SLastCount<Integer> sink = S.lastCount();
+
+		for (int i=0; i<5; i++) { // warm-up
+			allocatedBytes(items, q, sink);
+		}
+		long bytes = allocatedBytes(items, q, sink);
+		System.out.println("bytes/tuple = " + (bytes / (double) n));
+		assertEquals(n - 2, sink.last.intValue());
+		assertTrue(bytes < n / 100);
+	}
+
+	@Test
+	public void testBatch() {
+		System.out.println("***** Test Batch *****");
+
+		int n = 1000;
+		Integer[] items = new Integer[n];
+		for (int i=0; i<n; i++) {
+			items[i] = i + 1;
+		}
+		for (int b=1; b<=64; b*=4) {
+			Query<Integer,Integer> q1 = Q.pipeline(
+				Q.map(x -> 3*x), Q.filter(x -> x % 2 == 0), Q.dup(),
+				Q.ignore(7), Q.sWindowInv(5, 0, Integer::sum, (x,y) -> x-y)
+			);
+			SCollector<Integer> sink1 = new SCollector<>();
+			Query<Integer,Integer> q2 = Q.pipeline(
+				Q.map(x -> 3*x), Q.filter(x -> x % 2 == 0), Q.dup(),
+				Q.ignore(7), Q.sWindowInv(5, 0, Integer::sum, (x,y) -> x-y)
+			);
+			SCollector<Integer> sink2 = new SCollector<>();
+
+			q1.start(sink1);
+			q2.start(sink2);
+			for (int i=0; i<n; i+=b) {
+				int to = Math.min(i + b, n);
+				q1.nextBatch(items, i, to, sink1);
+				for (int j=i; j<to; j++) {
+					q2.next(items[j], sink2);
+				}
+				assertEquals(sink2.list, sink1.list);
+			}
+			q1.end(sink1);
+			q2.end(sink2);
+			assertEquals(n - 7 - 4, sink1.list.size());
+		}
+	}
+
+	@Test
+	public void testAsync() {
+		System.out.println("***** Test Async *****");
+
+		int n = 100_000;
+		for (int threads=1; threads<=4; threads++) {
+			Query<Integer,Long> q1 = Q.pipeline(
+				Q.map(x -> 3*x), Q.filter(x -> x % 2 == 0), Q.emit(3, 10),
+				Q.sWindowInv(5, 0, Integer::sum, (x,y) -> x-y),
+				Q.scan(0L, (x, y) -> x + y)
+			);
+			SCollector<Long> sink1 = S.collector();
+			Q.execute(Q.intStream(n), q1, sink1);
+
+			Query<Integer,Long> q2 = Q.pipeline(
+				Q.map(x -> 3*x), Q.filter(x -> x % 2 == 0), Q.emit(3, 10),
+				Q.sWindowInv(5, 0, Integer::sum, (x,y) -> x-y),
+				Q.scan(0L, (x, y) -> x + y)
+			);
+			SCollector<Long> sink2 = S.collector();
+			Q.executeAsync(Q.intStream(n), q2, sink2, new AsyncConfig(16, threads));
+			assertEquals(sink1.list, sink2.list);
+		}
+	}
+
+	@Test
+	public void testAsyncBoundary() {
+		System.out.println("***** Test Async (Boundary) *****");
+
+		Query<Integer,Integer> q = Q.pipeline(
+			Q.map(x -> 2*x), Q.boundary(), Q.dup(), Q.boundary(),
+			Q.fold(0, Integer::sum)
+		);
+		SLastCount<Integer> sink = S.lastCount();
+
+		int n = 1000;
+		Q.executeAsync(Q.intStream(n), q, sink, AsyncConfig.defaults());
+		assertEquals(1, sink.count);
+		assertEquals(2*(1+n)*n, sink.last.intValue());
+	}
+
+	@Test
+	public void testAsyncFailure() {
+		System.out.println("***** Test Async (Failure) *****");
+
+		Query<Integer,Integer> q = Q.pipeline(
+			Q.map(x -> 2*x), Q.boundary(),
+			Q.map(x -> {
+				if (x == 2000) {
+					throw new IllegalStateException("boom");
+				}
+				return x;
+			}),
+			Q.boundary(), Q.id()
+		);
+		try {
+			Q.executeAsync(Q.intStream(100_000), q, S.lastCount(), new AsyncConfig(8, 3));
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("boom", e.getMessage());
+		}
+
+		// the source is not drained after a failure, even when the first
+		// segment rarely emits (so the ring never fills up)
+		AtomicLong pulled = new AtomicLong();
+		Iterator<Integer> source = new Iterator<Integer>() {
+			@Override
+			public boolean hasNext() {
+				return pulled.get() < 50_000_000;
+			}
+			@Override
+			public Integer next() {
+				return (int) pulled.incrementAndGet();
+			}
+		};
+		Query<Integer,Integer> rare = Q.pipeline(
+			Q.filter(x -> x == 1), Q.boundary(),
+			Q.map(x -> {
+				throw new IllegalStateException("boom");
+			})
+		);
+		try {
+			Q.executeAsync(source, rare, S.lastCount(), new AsyncConfig(8, 2));
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("boom", e.getMessage());
+		}
+		assertTrue(pulled.get() < 50_000_000);
+	}
+
+	@Test
+	public void testParallelAsync() {
+		System.out.println("***** Test Parallel (Async) *****");
+
+		int n = 100_000;
+		Query<Integer,Integer> q1 = Q.pipeline(
+			Q.parallel(Q.filter(x -> x % 2 == 1), Q.map(x -> 3*x), (x,y) -> x + y),
+			Q.scan(0, Integer::sum)
+		);
+		SCollector<Integer> sink1 = S.collector();
+		Q.execute(Q.intStream(n), q1, sink1);
+
+		AsyncConfig config = new AsyncConfig(n, 2);
+		Query<Integer,Integer> q2 = Q.pipeline(
+			Q.parallelAsync(Q.filter(x -> x % 2 == 1), Q.map(x -> 3*x), (x,y) -> x + y, config),
+			Q.scan(0, Integer::sum)
+		);
+		SCollector<Integer> sink2 = S.collector();
+		Q.execute(Q.intStream(n), q2, sink2);
+
+		assertEquals(n/2, sink2.list.size());
+		assertEquals(sink1.list, sink2.list);
+	}
+
+	@Test
+	public void testParallelAsyncFanOut() {
+		System.out.println("***** Test Parallel (Async, 3 branches) *****");
+
+		AsyncConfig config = new AsyncConfig(64, 2);
+		Query<Integer,Integer> q = Q.parallelAsync(
+			Q.map(x -> 2*x),
+			Q.parallelAsync(Q.map(x -> 3*x), Q.sWindow2((x, y) -> y), (x, y) -> x + y, config),
+			(x, y) -> x + y,
+			config
+		);
+		SCollector<Integer> sink = S.collector();
+
+		int n = 10_000;
+		Q.execute(Q.intStream(n), q, sink);
+		assertEquals(n - 1, sink.list.size());
+		for (int i=1; i<n; i++) {
+			assertEquals(2*i + 3*i + (i+1), sink.list.get(i-1).intValue());
+		}
+	}
+
+	@Test
+	public void testParallelAsyncLag() {
+		System.out.println("***** Test Parallel (Async, bounded lag) *****");
+
+		// The second branch emits only at the end, so the first one would
+		// have to be buffered without bound.
+		Query<Integer,Integer> q = Q.parallelAsync(
+			Q.id(), Q.fold(0, Integer::sum), (x, y) -> x + y, new AsyncConfig(16, 2, 200)
+		);
+		try {
+			Q.execute(Q.intStream(100_000), q, S.lastCount());
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("drifted"));
+		}
+	}
+
+
+	@Test
+	public void testPartition() {
+		System.out.println("***** Test Partition *****");
+
+		int n = 100_000;
+		Supplier<Query<Integer,Long>> shard = () -> Q.pipeline(
+			Q.filter(x -> x % 3 != 0),
+			Q.map(x -> 2L * x));
+		SCollector<Long> sink1 = S.collector();
+		Q.execute(Q.intStream(n), shard.get(), sink1);
+
+		// Stateless per-key work: ordered output equals the sequential one.
+		for (int shards=1; shards<=4; shards++) {
+			Query<Integer,Long> q2 = Q.partition(
+				x -> x % 7, shards, shard, Q.id(), true, new AsyncConfig(32, 2));
+			SCollector<Long> sink2 = S.collector();
+			Q.execute(Q.intStream(n), q2, sink2);
+			assertEquals(sink1.list, sink2.list);
+		}
+
+		// Unordered output contains the same items, and the merge stage runs
+		// over all of them.
+		Query<Integer,Long> q3 = Q.partition(
+			x -> x, 4, shard, Q.fold(0L, Long::sum), false, AsyncConfig.defaults());
+		SLastCount<Long> sink3 = S.lastCount();
+		Q.execute(Q.intStream(n), q3, sink3);
+		assertEquals(1, sink3.count);
+		assertEquals(sink1.list.stream().mapToLong(x -> x).sum(), (long) sink3.last);
+	}
+
+	@Test
+	public void testPartitionFailure() {
+		System.out.println("***** Test Partition (Failure) *****");
+
+		Query<Integer,Integer> q = Q.partition(
+			x -> x, 2, () -> Q.map(x -> 100 / (x - 5000)));
+		try {
+			Q.execute(Q.intStream(100_000), q, S.lastCount());
+			fail("expected ArithmeticException");
+		} catch (ArithmeticException e) {
+			// expected
+		}
+	}
+
+
+	@Test
+	public void testFlow() throws InterruptedException {
+		System.out.println("***** Test Flow *****");
+
+		int n = 100_000;
+		Query<Integer,Long> q1 = Q.pipeline(
+			Q.filter(x -> x % 3 != 0),
+			Q.map(x -> 2L * x));
+		SCollector<Long> sink1 = S.collector();
+		Q.execute(Q.intStream(n), q1, sink1);
+
+		Query<Integer,Long> q2 = Q.pipeline(
+			Q.filter(x -> x % 3 != 0),
+			Q.map(x -> 2L * x));
+		SCollector<Long> sink2 = S.collector();
+		// closed by the producer when it is done
+		SubmissionPublisher<Integer> source = new SubmissionPublisher<>();
+		Thread producer = new Thread(() -> {
+			// items submitted before the subscription would be dropped
+			while (source.getNumberOfSubscribers() == 0) {
+				Thread.onSpinWait();
+			}
+			for (int i=1; i<=n; i++) {
+				source.submit(i);
+			}
+			source.close();
+		});
+		producer.start();
+		ExecutionStats stats = Q.execute(source, q2, sink2);
+		producer.join();
+		// the items are processed on the publisher's thread, untimed
+		assertEquals(n, stats.inputItems);
+		assertEquals(0, stats.batchLatency.count());
+		assertEquals(sink1.list, sink2.list);
+	}
+
+	@Test
+	public void testFlowBackpressure() throws InterruptedException {
+		System.out.println("***** Test Flow (Backpressure) *****");
+
+		// The subscriber asks for 10 items and stops: the processor may not
+		// pull more than its buffer from the publisher.
+		int buffer = 16;
+		AtomicLong pulled = new AtomicLong();
+		QueryProcessor<Integer,Integer> processor = Q.processor(Q.dup(), buffer);
+		List<Integer> out = new ArrayList<>();
+		processor.subscribe(new Flow.Subscriber<Integer>() {
+			public void onSubscribe(Flow.Subscription s) { s.request(10); }
+			public void onNext(Integer item) { out.add(item); }
+			public void onError(Throwable e) { fail(e.toString()); }
+			public void onComplete() { fail("unexpected completion"); }
+		});
+		processor.onSubscribe(new Flow.Subscription() {
+			int next = 0;
+			public void request(long k) {
+				pulled.addAndGet(k);
+				for (long i=0; i<k; i++) {
+					processor.onNext(next++);
+				}
+			}
+			public void cancel() {}
+		});
+		assertEquals(List.of(0, 0, 1, 1, 2, 2, 3, 3, 4, 4), out);
+		assertTrue("pulled " + pulled.get(), pulled.get() <= 10/2 + buffer);
+	}
+
+	@Test
+	public void testFlowFailure() throws InterruptedException {
+		System.out.println("***** Test Flow (Failure) *****");
+
+		Query<Integer,Integer> q = Q.map(x -> 100 / (x - 500));
+		// closed by the producer when it is done
+		SubmissionPublisher<Integer> source = new SubmissionPublisher<>();
+		Thread producer = new Thread(() -> {
+			while (source.getNumberOfSubscribers() == 0) {
+				Thread.onSpinWait();
+			}
+			for (int i=0; i<1000 && !source.isClosed(); i++) {
+				source.submit(i);
+			}
+			source.close();
+		});
+		producer.setDaemon(true);
+		producer.start();
+		try {
+			Q.execute(source, q, S.lastCount());
+			fail("expected ArithmeticException");
+		} catch (ArithmeticException e) {
+			// expected
+		}
+	}
+
+
+	@Test
+	public void testStreamRuntime() throws InterruptedException {
+		System.out.println("***** Test StreamRuntime *****");
+
+		int streams = 1000;
+		int n = 1000;
+		List<BlockingSource<Integer>> sources = new ArrayList<>();
+		List<SLastCount<Long>> sinks = new ArrayList<>();
+		List<StreamHandle> handles = new ArrayList<>();
+		try (StreamRuntime runtime = new StreamRuntime()) {
+			for (int s=0; s<streams; s++) {
+				BlockingSource<Integer> source = new BlockingSource<>(16);
+				SLastCount<Long> sink = new SLastCount<>() {
+					@Override
+					public void end() {} // keep the output short
+				};
+				sources.add(source);
+				sinks.add(sink);
+				handles.add(runtime.submit("s" + s, source, Q.scan(0L, (x, y) -> x + y), sink));
+			}
+			// Feed the streams round-robin, as live feeds would arrive.
+			for (int i=1; i<=n; i++) {
+				for (int s=0; s<streams; s++) {
+					sources.get(s).put(s + i);
+				}
+			}
+			for (BlockingSource<Integer> source : sources) {
+				source.close();
+			}
+			runtime.awaitAll();
+			for (StreamHandle handle : handles) {
+				assertTrue(handle.isDone());
+				assertEquals(n, handle.items());
+			}
+			// finished streams are not kept
+			assertTrue(runtime.streams().isEmpty());
+		}
+		for (int s=0; s<streams; s++) {
+			assertEquals(n, sinks.get(s).count);
+			assertEquals((long) s * n + (long) n * (n + 1) / 2, (long) sinks.get(s).last);
+		}
+	}
+
+	@Test
+	public void testStreamRuntimeCancel() throws InterruptedException {
+		System.out.println("***** Test StreamRuntime (Cancel) *****");
+
+		try (StreamRuntime runtime = new StreamRuntime()) {
+			BlockingSource<Integer> idle = new BlockingSource<>(16);
+			StreamHandle h1 = runtime.submit("idle", idle, Q.id(), S.lastCount());
+			StreamHandle h2 = runtime.submit("failing", Q.intStream(100),
+				Q.map(x -> 100 / (x - 50)), S.lastCount());
+
+			try {
+				h2.await();
+				fail("expected ArithmeticException");
+			} catch (ArithmeticException e) {
+				assertEquals(49, h2.items());
+			}
+
+			idle.put(1);
+			assertFalse(h1.await(50, TimeUnit.MILLISECONDS));
+			h1.cancel();
+			try {
+				h1.await();
+				fail("expected CancellationException");
+			} catch (CancellationException e) {
+				assertTrue(h1.isCancelled());
+				assertEquals(1, h1.items());
+			}
+
+			// awaitAll reports the first failure once
+			try {
+				runtime.awaitAll();
+				fail("expected ArithmeticException");
+			} catch (ArithmeticException e) {
+				// expected
+			}
+			runtime.awaitAll();
+		}
+	}
+
+
+	@Test
+	public void testExecutionStats() {
+		System.out.println("***** Test ExecutionStats *****");
+
+		int n = 10_000;
+		Query<Integer,Integer> q = Q.filter(x -> x % 4 == 0);
+		ExecutionStats stats = Q.run(Q.intStream(n), q, S.lastCount());
+		assertEquals(n, stats.inputItems);
+		assertEquals(n / 4, stats.outputItems);
+		assertEquals((n + 255) / 256, stats.batchLatency.count()); // one per batch
+		assertTrue(stats.wallNanos > 0);
+		assertTrue(stats.throughput() > 0);
+		assertTrue(stats.gcCount >= 0 && stats.gcMillis >= 0);
+		assertTrue(stats.batchLatency.percentile(0.5) <= stats.batchLatency.percentile(0.99));
+		assertTrue(stats.batchLatency.percentile(0.99) <= stats.batchLatency.max());
+	}
+
+	@Test
+	public void testLatencyHistogram() {
+		System.out.println("***** Test LatencyHistogram *****");
+
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.percentile(0.5));
+		for (long v=1; v<=100_000; v++) {
+			h.record(v);
+		}
+		assertEquals(100_000, h.count());
+		assertEquals(1, h.min());
+		assertEquals(100_000, h.max());
+		assertEquals(50_000.5, h.mean(), 1e-6);
+		for (double q : new double[] {0.01, 0.5, 0.9, 0.99, 0.999}) {
+			long exact = (long) Math.ceil(q * 100_000);
+			long p = h.percentile(q);
+			assertTrue(q + ": " + p, p >= exact && p <= exact + exact / 16);
+		}
+		assertEquals(100_000, h.percentile(1.0));
+
+		h.record(7, 1_000_000);
+		assertEquals(7, h.percentile(0.5));
+	}
+
+
+	@Test
+	public void testInstrumented() {
+		System.out.println("***** Test Instrumented *****");
+
+		int n = 10_000;
+		Query<Integer,Integer> q = Q.pipeline(
+			Q.filter(x -> x % 2 == 0),
+			Q.parallel(Q.id(), Q.sWindowInv(10, 0, Integer::sum, (x, y) -> x - y), Integer::sum),
+			Q.map(x -> -x));
+		OperatorRegistry registry = new OperatorRegistry();
+		SLastCount<Integer> sink1 = S.lastCount();
+		Q.execute(Q.intStream(n), q, sink1);
+		SLastCount<Integer> sink2 = S.lastCount();
+		Q.execute(Q.intStream(n), Q.instrumentAll(q, registry), sink2);
+		registry.print();
+
+		assertEquals(sink1.count, sink2.count);
+		assertEquals(sink1.last, sink2.last);
+
+		OperatorStats filter = registry.get("0:Filter");
+		assertEquals(n, filter.itemsIn());
+		assertEquals(n / 2, filter.itemsOut());
+		assertEquals(0.5, filter.selectivity(), 1e-9);
+		assertEquals(-1, filter.maxBuffered());
+
+		OperatorStats parallel = registry.get("1:Parallel");
+		assertEquals(n / 2, parallel.itemsIn());
+		assertEquals(n / 2 - 9, parallel.itemsOut());
+		assertEquals(9, parallel.maxBuffered()); // ids waiting for the window to fill
+		assertEquals(10, registry.get("1.1:SWindowInv").maxBuffered());
+		assertEquals(n / 2, registry.get("1.0:Id").itemsOut());
+		assertEquals(n / 2 - 9, registry.get("2:Map").itemsIn());
+
+		// The nodes account for the pipeline, except for the final sink and
+		// the timing overhead (which can dominate on a loaded machine, so
+		// there is no lower bound).
+		long self = 0;
+		for (OperatorStats stats : registry.all()) {
+			assertTrue(stats.name, stats.selfNanos() >= 0);
+			self += stats.selfNanos();
+		}
+		assertTrue(self > 0 && self <= filter.nanos());
+	}
+
+
+	@Test
+	public void testOptimizer() {
+		System.out.println("***** Test Optimizer *****");
+
+		int n = 10_000;
+		Supplier<Query<Integer,Integer>> make = () -> Q.pipeline(
+			Q.id(),
+			Q.map(x -> x + 1),
+			Q.pipeline(Q.map(x -> x * 3), Q.dup()),
+			Q.filter(x -> x % 2 == 0),
+			Q.filter(x -> x % 5 != 0),
+			Q.parallel(Q.pipeline(Q.id(), Q.map(x -> -x)), Q.sWindow2((x, y) -> x + y), Integer::sum));
+
+		Plan plan = Q.plan(Q.optimize(make.get()));
+		System.out.print(plan);
+		// Map(x+1)+Map(x*3) fused, the filters fused and moved before Dup,
+		// the Id stages gone.
+		assertEquals(Plan.Kind.CHAIN, plan.kind);
+		List<Plan.Kind> kinds = new ArrayList<>();
+		for (Plan stage : plan.children()) {
+			kinds.add(stage.kind);
+		}
+		assertEquals(List.of(Plan.Kind.FUSED, Plan.Kind.DUP, Plan.Kind.PARALLEL), kinds);
+
+		SCollector<Integer> sink1 = S.collector();
+		Q.execute(Q.intStream(n), make.get(), sink1);
+		SCollector<Integer> sink2 = S.collector();
+		Q.execute(Q.intStream(n), Q.optimize(make.get()), sink2);
+		assertEquals(sink1.list, sink2.list);
+	}
+
+
+	@Test
+	public void testCompile() {
+		System.out.println("***** Test Compile *****");
+
+		int n = 100_000;
+		Supplier<Query<Integer,Long>> make = () -> Q.pipeline(
+			Q.filter(x -> x % 3 != 0),
+			Q.map(x -> (long) x * x),
+			Q.pipeline(Q.id(), Q.scan(0L, (s, x) -> s + x % 1000)),
+			Q.sWindowInv(16, 0L, Long::sum, (s, x) -> s - x),
+			Q.sWindow2((x, y) -> y - x),
+			Q.pipeline(Q.sWindow3((x, y, z) -> x + 2*y + z), Q.fold(0L, Long::sum)));
+
+		SCollector<Long> sink1 = S.collector();
+		Q.execute(Q.intStream(n), make.get(), sink1);
+
+		Query<Integer,Long> compiled = Q.compile(make.get());
+		assertTrue(compiled.getClass().isHidden());
+		for (int run=0; run<2; run++) { // the compiled query can be restarted
+			SCollector<Long> sink2 = S.collector();
+			Q.execute(Q.intStream(n), compiled, sink2);
+			assertEquals(sink1.list, sink2.list);
+		}
+
+		// Chains of the same shape share the class file, but each one is
+		// defined as its own class (with its own call sites).
+		Query<Integer,Long> again = Q.compile(make.get());
+		assertTrue(again.getClass().isHidden());
+		assertNotSame(compiled.getClass(), again.getClass());
+
+		// Unsupported operators: the query is returned as it is.
+		Query<Integer,Integer> q = Q.pipeline(Q.map(x -> x), Q.dup());
+		assertSame(q, Q.compile(q));
+	}
+
+	// Throws on the (n+1)-th item, as if the process had died (also used
+	// by UTestECG).
+	static <A> Iterator<A> crashAfter(Iterator<A> it, long n) {
+		return new Iterator<A>() {
+			long i = 0;
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+			@Override
+			public A next() {
+				if (i++ == n) {
+					throw new IllegalStateException("crash");
+				}
+				return it.next();
+			}
+		};
+	}
+
+	@Test
+	public void testCheckpoint() throws Exception {
+		System.out.println("***** Test Checkpoint *****");
+
+		Supplier<Query<Integer,Long>> query = () -> Q.pipeline(
+			Q.ignore(3),
+			Q.sWindowInv(7, 0, (x, y) -> x + y, (x, y) -> x - y),
+			Q.parallel(Q.filter(x -> x % 3 == 0), Q.scan(0L, (s, x) -> s + x), (x, s) -> s - x),
+			Q.sWindow3((x, y, z) -> x + y - z));
+		int n = 2000;
+		SCollector<Long> expected = S.collector();
+		Q.run(Q.intStream(n), query.get(), expected);
+
+		Path file = Files.createTempFile("dsl", ".ckpt");
+		Files.delete(file);
+		Checkpoint checkpoint = new Checkpoint(file, 300);
+		SCollector<Long> sink = S.collector();
+		try {
+			Q.run(crashAfter(Q.intStream(n), 900), query.get(), sink, checkpoint);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("crash", e.getMessage());
+		}
+		assertTrue(checkpoint.exists());
+
+		// The restored state is small: it does not grow with the history.
+		ExecutionStats stats = Q.run(Q.intStream(n), query.get(), sink, checkpoint);
+		assertEquals(n - 900, stats.inputItems);
+		assertEquals(expected.list, sink.list);
+		assertFalse(checkpoint.exists());
+
+		// A compiled chain has the same snapshot layout as the chain.
+		Supplier<Query<Integer,Integer>> chain = () -> Q.pipeline(
+			Q.scan(0, (s, x) -> s + x), Q.sWindowInv(5, 0, (x, y) -> x + y, (x, y) -> x - y),
+			Q.sWindow2((x, y) -> y - x));
+		SCollector<Integer> expected2 = S.collector();
+		Q.run(Q.intStream(n), chain.get(), expected2);
+		SCollector<Integer> sink2 = S.collector();
+		try {
+			Q.run(crashAfter(Q.intStream(n), 600), chain.get(), sink2, checkpoint);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("crash", e.getMessage());
+		}
+		Q.run(Q.intStream(n), Q.compile(chain.get()), sink2, checkpoint);
+		assertEquals(expected2.list, sink2.list);
+	}
+
+	@Test
+	public void testSnapshotEncoding() {
+		System.out.println("***** Test Snapshot Encoding *****");
+
+		StateWriter out = new StateWriter();
+		out.writeObject(Pair.from(1L, Or.inr("two")));
+		out.writeObject(new double[] {3.0, 4.5});
+		out.writeObject(null);
+		out.writeObject(new java.math.BigInteger("123456789012345678901234567890"));
+		out.writeInt(5);
+		StateReader in = new StateReader(out.buffer());
+		Pair<Long,Or<Integer,String>> p = in.readObject();
+		assertEquals(Long.valueOf(1), p.getLeft());
+		assertEquals("two", p.getRight().getRight());
+		assertArrayEquals(new double[] {3.0, 4.5}, in.readObject(), 0.0);
+		assertNull(in.readObject());
+		assertEquals(new java.math.BigInteger("123456789012345678901234567890"), in.readObject());
+		assertEquals(5, in.readInt());
+		assertFalse(in.hasRemaining());
+
+		try {
+			out.writeObject(new Object());
+			fail();
+		} catch (IllegalArgumentException e) {
+			// not encodable
+		}
+	}
+
+	@Test
+	public void testSWindowMonoid() {
+		System.out.println("***** Test SWindowMonoid *****");
+
+		int n = 1000;
+		for (int wndSize : new int[] {1, 2, 7, 64, 999, 1000, 1001}) {
+			// max (commutative) with pseudo-random values
+			Integer[] items = new Integer[n];
+			for (int i=0; i<n; i++) {
+				items[i] = (i * 7919) % 1009;
+			}
+			SCollector<Integer> expected = S.collector();
+			Q.run(List.of(items).iterator(),
+				  Q.sWindowNaive(wndSize, Integer.MIN_VALUE, (Integer m, Integer x) -> Math.max(m, x)),
+				  expected);
+			SCollector<Integer> actual = S.collector();
+			Q.run(List.of(items).iterator(),
+				  Q.sWindowMonoid(wndSize, Integer.MIN_VALUE, Math::max), actual);
+			assertEquals(expected.list, actual.list);
+
+			// concatenation (not commutative)
+			SCollector<String> expected2 = S.collector();
+			Q.run(Q.intStream(50), Q.pipeline(Q.map(i -> i + ","),
+				  Q.sWindowNaive(Math.min(wndSize, 20), "", (String s, String x) -> s + x)), expected2);
+			SCollector<String> actual2 = S.collector();
+			Q.run(Q.intStream(50), Q.pipeline(Q.map(i -> i + ","),
+				  Q.sWindowMonoid(Math.min(wndSize, 20), "", String::concat)), actual2);
+			assertEquals(expected2.list, actual2.list);
+		}
+	}
+
+	@Test
+	public void testTumblingHopping() {
+		System.out.println("***** Test Tumbling and Hopping Windows *****");
+
+		int n = 1000;
+		SCollector<Integer> tumbling = S.collector();
+		Q.run(Q.intStream(n), Q.tumbling(300, 0, (Integer s, Integer x) -> s + x), tumbling);
+		assertEquals(List.of(45150, 135150, 225150), tumbling.list);
+
+		int[][] shapes = {{10, 1}, {10, 10}, {12, 8}, {4, 6}, {360, 36}, {1, 3}};
+		for (int[] shape : shapes) {
+			int size = shape[0];
+			int slide = shape[1];
+			List<Long> expected = new ArrayList<>();
+			for (int endItem=size; endItem<=n; endItem+=slide) {
+				long s = 0;
+				for (int i=endItem-size+1; i<=endItem; i++) {
+					s += i;
+				}
+				expected.add(s);
+			}
+			SCollector<Long> sink = S.collector();
+			Q.run(Q.intStream(n), Q.hopping(size, slide, 0L, (Long s, Integer x) -> s + x, Long::sum), sink);
+			assertEquals(expected, sink.list);
+
+			// max is not invertible
+			SCollector<Integer> max = S.collector();
+			Q.run(Q.intStream(n), Q.hopping(size, slide, Integer.MIN_VALUE, Math::max), max);
+			assertEquals(expected.size(), max.list.size());
+			for (int k=0; k<max.list.size(); k++) {
+				assertEquals(Integer.valueOf(size + k * slide), max.list.get(k));
+			}
+		}
+	}
+
+	@Test
+	public void testDoubleSWindow() {
+		System.out.println("***** Test DoubleSWindow *****");
+
+		// Values of mixed magnitude: the naive running sum drifts.
+		int n = 200_000;
+		int wndSize = 100;
+		double[] items = new double[n];
+		for (int i=0; i<n; i++) {
+			items[i] = Math.sin(i) * (i % 3 == 0 ? 1e8 : 1e-2);
+		}
+		SCollector<Double> sums = S.collector();
+		SCollector<Double> squares = S.collector();
+		SCollector<Double> naive = S.collector();
+		DoubleQuery<DoubleSink> sum = Q.doubleSWindow(wndSize, DoubleSWindow.Kind.SUM);
+		DoubleQuery<DoubleSink> sumSq = Q.doubleSWindow(wndSize, DoubleSWindow.Kind.SUM_SQ);
+		DoubleQuery<DoubleSink> inv = Q.doubleSWindowInv(wndSize, 0.0, Double::sum, (s, x) -> s - x);
+		DoubleSink sink1 = S.doubleSink(sums);
+		DoubleSink sink2 = S.doubleSink(squares);
+		DoubleSink sink3 = S.doubleSink(naive);
+		sum.start(sink1);
+		sumSq.start(sink2);
+		inv.start(sink3);
+		for (double x : items) {
+			sum.next(x, sink1);
+			sumSq.next(x, sink2);
+			inv.next(x, sink3);
+		}
+		assertEquals(n - wndSize + 1, sums.list.size());
+		double worst = 0.0;
+		double worstNaive = 0.0;
+		for (int k=0; k<sums.list.size(); k+=997) {
+			java.math.BigDecimal exact = java.math.BigDecimal.ZERO;
+			java.math.BigDecimal exactSq = java.math.BigDecimal.ZERO;
+			for (int i=k; i<k+wndSize; i++) {
+				java.math.BigDecimal x = new java.math.BigDecimal(items[i]);
+				exact = exact.add(x);
+				exactSq = exactSq.add(x.multiply(x));
+			}
+			worst = Math.max(worst, Math.abs(sums.list.get(k) - exact.doubleValue()));
+			worstNaive = Math.max(worstNaive, Math.abs(naive.list.get(k) - exact.doubleValue()));
+			assertEquals(exactSq.doubleValue(), squares.list.get(k), exactSq.doubleValue() * 1e-15);
+		}
+		System.out.println("max error: compensated = " + worst + ", naive = " + worstNaive);
+		assertTrue(worst < 1e-6);
+		assertTrue(worst < worstNaive);
+
+		// Centered mean: zeros before the start, no outputs past the end.
+		SCollector<Double> centered = S.collector();
+		Q.run(Q.intStream(10), Q.pipeline(Q.map(x -> (double) x),
+			Q.boxDouble(Q.doubleSWindowCentered(5, DoubleSWindow.Kind.MEAN))), centered);
+		assertEquals(List.of(6/5.0, 10/5.0, 15/5.0, 20/5.0, 25/5.0, 30/5.0, 35/5.0, 40/5.0),
+					 centered.list);
+	}
+
+	@Test
+	public void testEventTimeWindow() {
+		System.out.println("***** Test Event-Time Windows *****");
+
+		// Timestamps 0..n-1, shuffled within blocks of 8 (out of order by < 8).
+		int n = 1000;
+		List<Pair<Long,Integer>> input = new ArrayList<>();
+		java.util.Random random = new java.util.Random(7);
+		for (int b=0; b<n; b+=8) {
+			List<Pair<Long,Integer>> block = new ArrayList<>();
+			for (long t=b; t<b+8; t++) {
+				block.add(Pair.from(t, 1));
+			}
+			java.util.Collections.shuffle(block, random);
+			input.addAll(block);
+		}
+
+		// Tumbling count windows of 100.
+		Query<Pair<Long,Integer>,Pair<Long,Integer>> tumbling = Q.pipeline(
+			Q.watermarks(Pair::getLeft, 8),
+			Q.eventTumbling(Pair::getLeft, 100, 0, 0, (Integer c, Pair<Long,Integer> x) -> c + x.getRight()));
+		SCollector<Pair<Long,Integer>> sink = S.collector();
+		Q.run(input.iterator(), tumbling, sink);
+		assertEquals(10, sink.list.size());
+		for (int k=0; k<10; k++) {
+			assertEquals(Long.valueOf(100 * k), sink.list.get(k).getLeft());
+			assertEquals(Integer.valueOf(100), sink.list.get(k).getRight());
+		}
+
+		// Sliding sums of timestamps: windows of 50 every 10.
+		SCollector<Pair<Long,Long>> sliding = S.collector();
+		Q.run(input.iterator(), Q.pipeline(Q.watermarks(Pair::getLeft, 8),
+			Q.eventWindow(Pair::getLeft, 50, 10, 0, 0L, (Long s, Pair<Long,Integer> x) -> s + x.getLeft())),
+			sliding);
+		assertEquals(n / 10 + 4, sliding.list.size());
+		for (Pair<Long,Long> w : sliding.list) {
+			long expected = 0;
+			for (long t=Math.max(0, w.getLeft()); t<Math.min(n, w.getLeft() + 50); t++) {
+				expected += t;
+			}
+			assertEquals(Long.valueOf(expected), w.getRight());
+		}
+
+		// Late items: within the allowed lateness they update the window,
+		// beyond it they are dropped.
+		EventTimeWindow<Long,Integer> window =
+			new EventTimeWindow<>(t -> t, 10, 10, 5, 0, (Integer c, Long t) -> c + 1);
+		SCollector<Pair<Long,Integer>> late = S.collector();
+		window.start(late);
+		for (long t : new long[] {1, 2, 3, 12}) {
+			window.next(t, late);
+		}
+		window.watermark(10, late);    // [0,10) fires with 3
+		window.next(4L, late);         // late: fires again with 4
+		window.watermark(15, late);    // [0,10) expires
+		window.next(5L, late);         // too late: dropped
+		window.end(late);              // [10,20) fires with 1
+		assertEquals("[(0, 3), (0, 4), (10, 1)]", late.list.toString());
+		assertEquals(1, window.dropped());
+
+		// Hopping windows [0,5), [10,15), ...: items in the gaps are not late.
+		EventTimeWindow<Long,Integer> hopping =
+			new EventTimeWindow<>(t -> t, 5, 10, 0, 0, (Integer c, Long t) -> c + 1);
+		SCollector<Pair<Long,Integer>> hops = S.collector();
+		hopping.start(hops);
+		for (long t : new long[] {1, 7, 12, 8}) {
+			hopping.next(t, hops);
+		}
+		hopping.watermark(20, hops);   // [0,5) and [10,15) fire and expire
+		hopping.next(3L, hops);        // too late: dropped
+		hopping.next(17L, hops);       // in a gap: ignored
+		hopping.end(hops);
+		assertEquals("[(0, 1), (10, 1)]", hops.list.toString());
+		assertEquals(1, hopping.dropped());
+
+		// Timestamps and watermarks at the ends of the range do not overflow.
+		EventTimeWindow<Long,Integer> extremes =
+			new EventTimeWindow<>(t -> t, 10, 2, Long.MAX_VALUE, 0, (Integer c, Long t) -> c + 1);
+		SCollector<Pair<Long,Integer>> ends = S.collector();
+		extremes.start(ends);
+		extremes.next(Long.MIN_VALUE, ends);          // only in [MIN_VALUE, MIN_VALUE+10)
+		extremes.watermark(Long.MIN_VALUE + 1, ends);
+		extremes.next(Long.MAX_VALUE, ends);          // in 5 windows that never end
+		extremes.watermark(Long.MAX_VALUE, ends);     // [MIN_VALUE, MIN_VALUE+10) fires
+		assertEquals("[(" + Long.MIN_VALUE + ", 1)]", ends.list.toString());
+		assertEquals(5, extremes.buffered());
+		extremes.end(ends);
+		assertEquals(6, ends.list.size());
+		assertEquals(Long.valueOf(Long.MAX_VALUE - 9), ends.list.get(1).getLeft());
+		assertEquals(0, extremes.dropped());
+	}
+
+	@Test
+	public void testWatermarkPropagation() {
+		System.out.println("***** Test Watermark Propagation *****");
+
+		List<Long> watermarks = new ArrayList<>();
+		List<Long> items = new ArrayList<>();
+		Sink<Long> sink = new Sink<Long>() {
+			@Override
+			public void next(Long item) {
+				items.add(item);
+			}
+			@Override
+			public void watermark(long ts) {
+				watermarks.add(ts);
+			}
+			@Override
+			public void end() { }
+		};
+		// The two branches lag by 2 and 5: the combined watermark is the
+		// smaller one, and it passes through Map, Filter and Pipeline.
+		Query<Long,Long> q = Q.pipeline(
+			Q.map(x -> x * 10),
+			Q.parallel(Q.watermarks(x -> x, 20), Q.watermarks(x -> x, 50), (x, y) -> x),
+			Q.filter(x -> x % 20 == 0));
+		Q.run(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L).iterator(), q, sink);
+		assertEquals(List.of(20L, 40L, 60L, 80L), items);
+		assertEquals(List.of(-40L, -30L, -20L, -10L, 0L, 10L, 20L, 30L), watermarks);
+	}
+
+	@Test
+	public void testConvolve() {
+		System.out.println("***** Test Convolve *****");
+
+		int n = 200;
+		double[] items = new double[n];
+		for (int i=0; i<n; i++) {
+			items[i] = Math.sin(i * 0.3) * 100 + (i % 7);
+		}
+		for (int length=1; length<=12; length++) {
+			double[] kernel = new double[length];
+			for (int k=0; k<length; k++) {
+				kernel[k] = (k + 1) * (k % 2 == 0 ? 0.25 : -0.5);
+			}
+			for (Convolve.Alignment alignment : Convolve.Alignment.values()) {
+				SCollector<Double> out = S.collector();
+				DoubleSink sink = S.doubleSink(out);
+				DoubleQuery<DoubleSink> q = Q.convolve(kernel, alignment);
+				q.start(sink);
+				for (double x : items) {
+					q.next(x, sink);
+				}
+				q.end(sink);
+
+				int m = alignment == Convolve.Alignment.CAUSAL ? 0 : length / 2;
+				int first = alignment == Convolve.Alignment.CAUSAL ? length - 1 : 0;
+				assertEquals(n - first - m, out.list.size());
+				for (int j=0; j<out.list.size(); j++) {
+					int newest = first + j + m;
+					double expected = 0.0;
+					for (int k=0; k<length; k++) {
+						int i = newest - k;
+						expected += i >= 0 ? kernel[k] * items[i] : 0.0;
+					}
+					assertEquals(expected, out.list.get(j), 1e-9);
+				}
+			}
+		}
+
+		// The central derivative of PeakDetection.
+		Double[] boxed = new Double[n];
+		for (int i=0; i<n; i++) {
+			boxed[i] = items[i];
+		}
+		SCollector<Double> expected = S.collector();
+		Q.run(List.of(boxed).iterator(), Q.sWindow3((Double p, Double c, Double x) -> (x - p) / 2), expected);
+		SCollector<Double> actual = S.collector();
+		Q.run(List.of(boxed).iterator(),
+			  Q.boxDouble(Q.convolve(new double[] {0.5, 0.0, -0.5}, Convolve.Alignment.CAUSAL)), actual);
+		assertEquals(expected.list, actual.list);
+	}
+
+	@Test
+	public void testMultiWindow() {
+		System.out.println("***** Test MultiWindow *****");
+
+		int n = 500;
+		int[] sizes = {5, 41, 1, 12};
+		SCollector<List<Long>> multi = S.collector();
+		Q.run(Q.intStream(n), Q.pipeline(Q.map(x -> (long) x),
+			  Q.multiWindow(0L, Long::sum, (s, x) -> s - x, sizes)), multi);
+		assertEquals(n - 41 + 1, multi.list.size());
+		for (int v=0; v<sizes.length; v++) {
+			SCollector<Long> single = S.collector();
+			Q.run(Q.intStream(n), Q.pipeline(Q.map(x -> (long) x),
+				  Q.sWindowInv(sizes[v], 0L, Long::sum, (s, x) -> s - x)), single);
+			int skip = 41 - sizes[v]; // outputs before the largest window is full
+			for (int k=0; k<multi.list.size(); k++) {
+				assertEquals(single.list.get(k + skip), multi.list.get(k).get(v));
+			}
+		}
+
+		// Views with different aggregates: sum and sum of squares.
+		List<MultiWindow.View<Integer,Double>> views = List.of(
+			new MultiWindow.View<>(3, 0.0, x -> (double) x, Double::sum, (s, x) -> s - x),
+			new MultiWindow.View<>(4, 0.0, x -> (double) x * x, Double::sum, (s, x) -> s - x));
+		SCollector<List<Double>> features = S.collector();
+		Q.run(Q.intStream(6), Q.multiWindow(views), features);
+		assertEquals(List.of(List.of(9.0, 30.0), List.of(12.0, 54.0), List.of(15.0, 86.0)),
+					 features.list);
+
+		// Every item is lifted once per view on the way in and again on the
+		// way out; views of different types share the aggregate type Number.
+		int[] lifts = new int[1];
+		List<MultiWindow.View<Integer,Number>> mixed = List.of(
+			new MultiWindow.View<Integer,Number>(2, 0L, x -> { lifts[0]++; return (long) x; },
+				(s, x) -> s.longValue() + x.longValue(), (s, x) -> s.longValue() - x.longValue()),
+			new MultiWindow.View<Integer,Number>(3, 0.0, x -> { lifts[0]++; return x / 2.0; },
+				(s, x) -> s.doubleValue() + x.doubleValue(), (s, x) -> s.doubleValue() - x.doubleValue()));
+		SCollector<List<Number>> numbers = S.collector();
+		Q.run(Q.intStream(5), Q.multiWindow(mixed), numbers);
+		assertEquals(5 * 2 + 3 + 2, lifts[0]);
+		assertEquals(List.of(List.of(5L, 3.0), List.of(7L, 4.5), List.of(9L, 6.0)), numbers.list);
+	}
+
+	@Test
+	public void testSWindowQuantile() {
+		System.out.println("***** Test SWindowQuantile *****");
+
+		int n = 3000;
+		java.util.Random random = new java.util.Random(11);
+		Double[] items = new Double[n];
+		for (int i=0; i<n; i++) {
+			items[i] = (double) random.nextInt(50); // many duplicates
+		}
+		double[] qs = {0.0, 0.25, 0.5, 0.9, 1.0};
+		for (int wndSize : new int[] {1, 2, 7, 64, 501}) {
+			SCollector<double[]> out = S.collector();
+			Q.run(List.of(items).iterator(), Q.sWindowQuantile(wndSize, qs), out);
+			assertEquals(n - wndSize + 1, out.list.size());
+			for (int k=0; k<out.list.size(); k++) {
+				double[] sorted = new double[wndSize];
+				for (int i=0; i<wndSize; i++) {
+					sorted[i] = items[k + i];
+				}
+				java.util.Arrays.sort(sorted);
+				for (int j=0; j<qs.length; j++) {
+					double h = (wndSize - 1) * qs[j];
+					int lo = (int) Math.floor(h);
+					double expected = lo + 1 < wndSize ?
+						sorted[lo] + (h - lo) * (sorted[lo + 1] - sorted[lo]) : sorted[lo];
+					assertEquals(expected, out.list.get(k)[j], 1e-12);
+				}
+			}
+		}
+
+		// Primitive median filter.
+		SCollector<Double> medians = S.collector();
+		DoubleSink sink = S.doubleSink(medians);
+		DoubleQuery<DoubleSink> median = Q.doubleSWindowQuantile(3, 0.5);
+		median.start(sink);
+		for (double x : new double[] {1, 9, 2, 8, 3, 7}) {
+			median.next(x, sink);
+		}
+		assertEquals(List.of(2.0, 8.0, 3.0, 7.0), medians.list);
+	}
+
+	@Test
+	public void testSWindowExtreme() {
+		System.out.println("***** Test SWindowMax, SWindowMin, SWindowArgMax *****");
+
+		int n = 2000;
+		java.util.Random random = new java.util.Random(5);
+		Double[] items = new Double[n];
+		for (int i=0; i<n; i++) {
+			items[i] = (double) random.nextInt(100);
+		}
+		for (int wndSize : new int[] {1, 2, 3, 40, 1999, 2000}) {
+			SCollector<Double> max = S.collector();
+			SCollector<Double> min = S.collector();
+			SCollector<Pair<Long,Double>> argMax = S.collector();
+			SCollector<Pair<Long,Double>> argMin = S.collector();
+			Q.run(List.of(items).iterator(), Q.sWindowMax(wndSize), max);
+			Q.run(List.of(items).iterator(), Q.sWindowMin(wndSize), min);
+			Q.run(List.of(items).iterator(), Q.sWindowArgMax(wndSize, x -> x), argMax);
+			Q.run(List.of(items).iterator(), Q.sWindowArgMin(wndSize, x -> x), argMin);
+			assertEquals(n - wndSize + 1, max.list.size());
+			for (int k=0; k+wndSize<=n; k++) {
+				int iMax = k;
+				int iMin = k;
+				for (int i=k; i<k+wndSize; i++) {
+					iMax = items[i] > items[iMax] ? i : iMax; // oldest wins ties
+					iMin = items[i] < items[iMin] ? i : iMin;
+				}
+				assertEquals(items[iMax], max.list.get(k));
+				assertEquals(items[iMin], min.list.get(k));
+				assertEquals(Pair.from((long) iMax, items[iMax]).toString(), argMax.list.get(k).toString());
+				assertEquals(Pair.from((long) iMin, items[iMin]).toString(), argMin.list.get(k).toString());
+			}
+		}
+	}
+
+	@Test
+	public void testAggregators() {
+		System.out.println("***** Test Aggregators *****");
+
+		List<Double> xs = Arrays.asList(4.0, 1.0, 7.0, 2.0, 6.0);
+		SLastCount<Double> sink = S.lastCount();
+		Q.run(xs.iterator(), Q.aggregate(Aggregators.stdev()), sink);
+		assertEquals(1, sink.count);
+		assertEquals(Math.sqrt(5.2), sink.last, 1e-9);
+
+		// merging the partials of a split equals accumulating everything
+		Aggregator<Double,RunningStats,Double> avg = Aggregators.avg();
+		RunningStats a = avg.create(), b = avg.create();
+		for (int i=0; i<xs.size(); i++) {
+			if (i < 2) {
+				a = avg.accumulate(a, xs.get(i));
+			} else {
+				b = avg.accumulate(b, xs.get(i));
+			}
+		}
+		RunningStats ab = avg.merge(a, b); // a is updated in place
+		assertEquals(4.0, avg.finish(ab), 1e-12);
+		assertEquals(4.0, avg.finish(avg.merge(avg.create(), ab)), 1e-12);
+
+		Aggregator<Double,double[],Double> min = Aggregators.min();
+		assertEquals(1.0, min.finish(min.merge(min.accumulate(min.create(), 1.0), min.create())), 0.0);
+		assertTrue(Double.isNaN(min.finish(min.create())));
+
+		Aggregator<Double,long[],long[]> hist = Aggregators.histogram(0.0, 8.0, 4);
+		long[] h = hist.create();
+		for (double x : xs) {
+			h = hist.accumulate(h, x);
+		}
+		h = hist.accumulate(h, -3.0);
+		h = hist.accumulate(h, 100.0);
+		assertArrayEquals(new long[] {2, 1, 1, 3}, hist.finish(h));
+	}
+
+	@Test
+	public void testFoldParallel() {
+		System.out.println("***** Test foldParallel *****");
+
+		int n = 100_000;
+		long expected = (long) n * (n + 1) / 2;
+		Aggregator<Double,double[],Double> sum = Aggregators.sum();
+
+		List<Double> xs = new ArrayList<>();
+		for (int i=1; i<=n; i++) {
+			xs.add((double) i);
+		}
+		for (int chunk : new int[] {1, 7, 1000, 2 * n}) {
+			assertEquals(expected, Q.foldParallel(xs.iterator(), sum, chunk), 0.0);
+		}
+		assertEquals(expected, Q.foldParallel(xs.spliterator(), sum, 1000), 0.0);
+		assertEquals(n, (long) Q.foldParallel(xs.spliterator(), Aggregators.<Double>count(), 1));
+
+		// the merge order is preserved (string concatenation is not commutative)
+		Aggregator<Integer,StringBuilder,String> concat = Aggregators.of(
+			StringBuilder::new, (acc, x) -> acc.append(x).append(','), StringBuilder::append,
+			StringBuilder::toString);
+		List<Integer> small = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+		assertEquals("1,2,3,4,5,6,7,8,9,10,", Q.foldParallel(small.iterator(), concat, 3));
+		assertEquals("1,2,3,4,5,6,7,8,9,10,", Q.foldParallel(small.spliterator(), concat, 1));
+		assertEquals("", Q.foldParallel(new ArrayList<Integer>().iterator(), concat, 3));
+	}
+
+	// {mean, population variance, skewness} computed in two passes
+	private static double[] twoPass(List<Double> xs, int from, int to) {
+		int n = to - from;
+		double mean = 0.0;
+		for (int i=from; i<to; i++) {
+			mean += xs.get(i);
+		}
+		mean /= n;
+		double m2 = 0.0, m3 = 0.0;
+		for (int i=from; i<to; i++) {
+			double d = xs.get(i) - mean;
+			m2 += d * d;
+			m3 += d * d * d;
+		}
+		return new double[] {mean, m2 / n, Math.sqrt(n) * m3 / Math.pow(m2, 1.5)};
+	}
+
+	@Test
+	public void testRunningStats() {
+		System.out.println("***** Test RunningStats *****");
+
+		java.util.Random random = new java.util.Random(13);
+		List<Double> xs = new ArrayList<>();
+		for (int i=0; i<1000; i++) {
+			xs.add(random.nextDouble() * random.nextDouble() * 100.0);
+		}
+		double[] exact = twoPass(xs, 0, xs.size());
+
+		RunningStats stats = new RunningStats();
+		for (double x : xs) {
+			stats.add(x);
+		}
+		assertEquals(xs.size(), stats.count());
+		assertEquals(exact[0], stats.mean(), 1e-9);
+		assertEquals(exact[1], stats.variance(), 1e-9);
+		assertEquals(exact[2], stats.skewness(), 1e-9);
+		assertEquals(xs.stream().mapToDouble(x -> x).min().getAsDouble(), stats.min(), 0.0);
+		assertEquals(xs.stream().mapToDouble(x -> x).max().getAsDouble(), stats.max(), 0.0);
+
+		// Chan's merge of any split equals the whole
+		for (int split : new int[] {0, 1, 500, 999, 1000}) {
+			RunningStats left = new RunningStats(), right = new RunningStats();
+			for (int i=0; i<xs.size(); i++) {
+				(i < split ? left : right).add(xs.get(i));
+			}
+			left.merge(right);
+			assertEquals(xs.size(), left.count());
+			assertEquals(exact[0], left.mean(), 1e-9);
+			assertEquals(exact[1], left.variance(), 1e-9);
+			assertEquals(exact[2], left.skewness(), 1e-9);
+			assertEquals(stats.min(), left.min(), 0.0);
+		}
+
+		// no cancellation on a large mean (sum(x^2)/n - mean^2 gives 0 or garbage)
+		List<Double> shifted = new ArrayList<>();
+		for (int i=0; i<10_000; i++) {
+			shifted.add(1e9 + new double[] {4, 7, 13, 16}[i % 4]);
+		}
+		SLastCount<Double> last = S.lastCount();
+		Q.run(shifted.iterator(), Q.foldStdev(), last);
+		assertEquals(Math.sqrt(22.5), last.last, 1e-6);
+		Q.run(shifted.iterator(), Q.aggregate(Aggregators.stdev()), last);
+		assertEquals(Math.sqrt(22.5), last.last, 1e-6);
+
+		// scan: the statistic of every prefix
+		SCollector<Double> prefixes = S.collector();
+		Q.run(xs.iterator(), Q.scanStats(RunningStats.Stat.MEAN), prefixes);
+		assertEquals(xs.size(), prefixes.list.size());
+		for (int i=0; i<xs.size(); i+=97) {
+			assertEquals(twoPass(xs, 0, i + 1)[0], prefixes.list.get(i), 1e-9);
+		}
+
+		// sliding: the statistic of every window
+		int w = 7;
+		RunningStats.Stat[] kinds = {RunningStats.Stat.MEAN, RunningStats.Stat.VARIANCE,
+			RunningStats.Stat.SKEWNESS};
+		for (int k=0; k<kinds.length; k++) {
+			SCollector<Double> windows = S.collector();
+			Q.run(xs.iterator(), Q.sWindowStats(w, kinds[k]), windows);
+			assertEquals(xs.size() - w + 1, windows.list.size());
+			for (int i=0; i<windows.list.size(); i++) {
+				assertEquals(twoPass(xs, i, i + w)[k], windows.list.get(i), 1e-7);
+			}
+		}
+		SCollector<Double> mins = S.collector();
+		Q.run(xs.iterator(), Q.sWindowStats(w, RunningStats.Stat.MIN), mins);
+		assertEquals(xs.subList(10, 10 + w).stream().mapToDouble(x -> x).min().getAsDouble(),
+			mins.list.get(10), 0.0);
+
+		// snapshot in the middle of a sliding window
+		DoubleStats q1 = new DoubleStats(DoubleStats.Mode.SLIDING, RunningStats.Stat.STDEV, w);
+		DoubleStats q2 = new DoubleStats(DoubleStats.Mode.SLIDING, RunningStats.Stat.STDEV, w);
+		SCollector<Double> out1 = S.collector(), out2 = S.collector();
+		q1.start(S.doubleSink(out1));
+		q2.start(S.doubleSink(out2));
+		for (int i=0; i<xs.size(); i++) {
+			if (i == 123) {
+				StateWriter out = new StateWriter();
+				q1.snapshot(out);
+				q2.restore(new StateReader(out.buffer()));
+			}
+			q1.next(xs.get(i), S.doubleSink(out1));
+			if (i >= 123) {
+				q2.next(xs.get(i), S.doubleSink(out2));
+			}
+		}
+		List<Double> tail = out1.list.subList(out1.list.size() - out2.list.size(), out1.list.size());
+		for (int i=0; i<out2.list.size(); i++) {
+			assertEquals(tail.get(i), out2.list.get(i), 1e-9);
+		}
+
+		// an aggregate of RunningStats is checkpointed field by field (six
+		// primitives), not through Java serialization
+		Aggregate<Double,RunningStats,Double> a1 = new Aggregate<>(Aggregators.stdev());
+		Aggregate<Double,RunningStats,Double> a2 = new Aggregate<>(Aggregators.stdev());
+		SLastCount<Double> last1 = S.lastCount(), last2 = S.lastCount();
+		a1.start(last1);
+		a2.start(last2);
+		for (int i=0; i<xs.size(); i++) {
+			if (i == 123) {
+				StateWriter out = new StateWriter();
+				a1.snapshot(out);
+				assertEquals(8 * 6, out.size());
+				a2.restore(new StateReader(out.buffer()));
+			}
+			a1.next(xs.get(i), last1);
+			if (i >= 123) {
+				a2.next(xs.get(i), last2);
+			}
+		}
+		a1.end(last1);
+		a2.end(last2);
+		assertEquals(last1.last, last2.last, 0.0);
+	}
+
+	@Test
+	public void testSketches() {
+		System.out.println("***** Test Sketches *****");
+
+		// HyperLogLog: 1.6% standard error at precision 12
+		int n = 100_000;
+		List<Integer> keys = new ArrayList<>();
+		for (int i=0; i<2*n; i++) {
+			keys.add(i % n); // every key twice
+		}
+		SLastCount<Long> distinct = S.lastCount();
+		Q.run(keys.iterator(), Q.distinctCount(12), distinct);
+		assertEquals(n, distinct.last, n * 0.05);
+		assertEquals(n, Q.foldParallel(keys.iterator(), Aggregators.distinctCount(12), 10_000), n * 0.05);
+		Q.run(keys.subList(0, 100).iterator(), Q.distinctCount(12), distinct);
+		assertEquals(100, distinct.last, 2);
+		HyperLogLog h1 = new HyperLogLog(12), h2 = new HyperLogLog(12);
+		for (int i=0; i<n; i++) {
+			h1.add("key" + i);
+			h2.add("key" + (i + n / 2)); // half overlap
+		}
+		assertEquals(1.5 * n, h1.merge(h2).estimate(), 1.5 * n * 0.05);
+
+		// keys with equal hash codes count as one, unless hashed to 64 bits
+		List<Long> colliding = new ArrayList<>();
+		for (long i=0; i<n; i++) {
+			colliding.add(i << 32 | i); // Long.hashCode is 0 for all of them
+		}
+		Q.run(colliding.iterator(), Q.distinctCount(12), distinct);
+		assertEquals(1, distinct.last.longValue());
+		Q.run(colliding.iterator(), Q.distinctCount(12, (Long x) -> x), distinct);
+		assertEquals(n, distinct.last, n * 0.05);
+
+		// t-digest: rank error at most 1% (0.2% in the tails)
+		java.util.Random random = new java.util.Random(17);
+		List<Double> xs = new ArrayList<>();
+		for (int i=0; i<n; i++) {
+			xs.add(-Math.log(random.nextDouble())); // exponential
+		}
+		double[] qs = {0.001, 0.01, 0.25, 0.5, 0.75, 0.99, 0.999};
+		SLastCount<double[]> quantiles = S.lastCount();
+		Q.run(xs.iterator(), Q.quantiles(100, qs), quantiles);
+		double[] parallel = Q.foldParallel(xs.spliterator(), Aggregators.quantiles(100, qs), 5000);
+		List<Double> sorted = new ArrayList<>(xs);
+		sorted.sort(null);
+		for (int i=0; i<qs.length; i++) {
+			double tolerance = qs[i] < 0.02 || qs[i] > 0.98 ? 0.002 : 0.01;
+			for (double estimate : new double[] {quantiles.last[i], parallel[i]}) {
+				int rank = -java.util.Collections.binarySearch(sorted, estimate) - 1;
+				assertEquals(qs[i], rank / (double) n, tolerance);
+			}
+		}
+		TDigest digest = new TDigest(100);
+		for (double x : xs) {
+			digest.add(x);
+		}
+		assertTrue(digest.centroids() <= 100 * Math.PI / 2 + 10);
+		assertEquals(n, digest.count(), 0.0);
+		assertEquals(sorted.get(n - 1), digest.quantile(1.0), 0.0);
+		assertTrue(Double.isNaN(new TDigest(100).quantile(0.5)));
+
+		// Count-Min + top-k: ten heavy keys among 100k light ones
+		List<Integer> stream = new ArrayList<>();
+		for (int i=0; i<n; i++) {
+			stream.add(1000 + i); // seen once
+			if (i % 10 == 0) {
+				stream.add(i / 10 % 10); // key j is seen 1000 times
+				stream.add(i / 10 % 5); // keys 0..4 another 2000 times
+			}
+		}
+		SLastCount<List<Pair<Integer,Long>>> top = S.lastCount();
+		Q.run(stream.iterator(), Q.heavyHitters(5, 2048, 5), top);
+		assertEquals(5, top.last.size());
+		for (int i=0; i<5; i++) {
+			int key = top.last.get(i).getLeft();
+			assertTrue(key < 5);
+			assertTrue(top.last.get(i).getRight() >= 3000);
+			assertTrue(top.last.get(i).getRight() <= 3000 + 2 * stream.size() / 2048);
+		}
+		List<Pair<Integer,Long>> merged =
+			Q.foldParallel(stream.iterator(), Aggregators.heavyHitters(5, 2048, 5), 7000);
+		assertEquals(5, merged.size());
+		for (Pair<Integer,Long> p : merged) {
+			assertTrue(p.getLeft() < 5 && p.getRight() >= 3000);
+		}
+	}
+
+	@Test
+	public void testBatchScratchCleared() {
+		System.out.println("***** Test batch scratch arrays *****");
+
+		// the scratch arrays passed downstream are plain Object[]s and do
+		// not keep items alive after the call
+		List<Object[]> seen = new ArrayList<>();
+		Sink<Integer> sink = new Sink<Integer>() {
+			@Override
+			public void next(Integer item) { }
+			@Override
+			public void nextBatch(Object[] items, int from, int to) {
+				assertEquals(Object[].class, items.getClass());
+				seen.add(items);
+			}
+			@Override
+			public void end() { }
+		};
+		Object[] items = {1, 2, 3, 4, 5, 6};
+		List<Query<Integer,Integer>> queries = List.of(Q.map(x -> x + 1), Q.filter(x -> x > 2),
+			Q.dup(), Q.sWindowInv(2, 0, Integer::sum, (x,y) -> x-y));
+		for (Query<Integer,Integer> q : queries) {
+			seen.clear();
+			q.start(sink);
+			q.nextBatch(items, 0, items.length, sink);
+			assertEquals(1, seen.size());
+			for (Object x : seen.get(0)) {
+				assertNull(x);
+			}
+		}
+	}
+
+	// Waits until no thread whose name starts with the prefix is alive.
+	private static boolean threadsStop(String prefix) throws InterruptedException {
+		for (int i=0; i<500; i++) {
+			boolean alive = false;
+			for (Thread t : Thread.getAllStackTraces().keySet()) {
+				alive = alive || (t.getName().startsWith(prefix) && t.isAlive());
+			}
+			if (!alive) {
+				return true;
+			}
+			Thread.sleep(10);
+		}
+		return false;
+	}
+
+	@Test
+	public void testParallelAsyncAbortAndWatermarks() throws InterruptedException {
+		System.out.println("***** Test Parallel (Async, abort and watermarks) *****");
+
+		// an upstream failure stops the worker threads
+		Query<Integer,Integer> failing = Q.pipeline(
+			Q.map(x -> {
+				if (x == 500) {
+					throw new IllegalStateException("boom");
+				}
+				return x;
+			}),
+			Q.parallelAsync(Q.id(), Q.map(x -> 2*x), Integer::sum, new AsyncConfig(16, 2))
+		);
+		try {
+			Q.run(Q.intStream(1000), failing, S.lastCount());
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("boom", e.getMessage());
+		}
+		assertTrue(threadsStop("dsl-parallel-"));
+
+		// watermarks are forwarded in their place between the outputs
+		List<String> events = java.util.Collections.synchronizedList(new ArrayList<>());
+		Sink<Integer> sink = new Sink<Integer>() {
+			@Override
+			public void next(Integer item) {
+				events.add(String.valueOf(item));
+			}
+			@Override
+			public void watermark(long ts) {
+				events.add("w" + ts);
+			}
+			@Override
+			public void end() {
+				events.add("end");
+			}
+		};
+		Query<Integer,Integer> q = Q.parallelAsync(Q.id(), Q.sWindow2((x, y) -> x + y),
+			Integer::sum, new AsyncConfig(16, 2));
+		q.start(sink);
+		q.next(1, sink);
+		q.next(2, sink);
+		q.watermark(10, sink);
+		q.next(3, sink);
+		q.watermark(20, sink);
+		q.end(sink);
+		// a watermark waits until the outputs before it in its branch are
+		// paired: w10 follows (2, 2+3); w20 survives the unmatched 3
+		assertEquals(List.of("4", "7", "w10", "w20", "end"), events);
+	}
+
+
+	@Test
+	public void testPartitionAbortAndWatermarks() throws InterruptedException {
+		System.out.println("***** Test Partition (abort and watermarks) *****");
+
+		// an upstream failure stops the worker threads
+		Query<Integer,Integer> failing = Q.pipeline(
+			Q.map(x -> {
+				if (x == 500) {
+					throw new IllegalStateException("boom");
+				}
+				return x;
+			}),
+			Q.partition(x -> x, 2, () -> Q.map(x -> 2*x), Q.id(), true, new AsyncConfig(16, 2)));
+		try {
+			Q.run(Q.intStream(1000), failing, S.lastCount());
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("boom", e.getMessage());
+		}
+		assertTrue(threadsStop("dsl-shard-"));
+
+		// the merge stage sees the minimum watermark of the shards, in its
+		// place between the outputs (ordered mode)
+		List<String> events = java.util.Collections.synchronizedList(new ArrayList<>());
+		Sink<Integer> sink = new Sink<Integer>() {
+			@Override
+			public void next(Integer item) {
+				events.add(String.valueOf(item));
+			}
+			@Override
+			public void watermark(long ts) {
+				events.add("w" + ts);
+			}
+			@Override
+			public void end() {
+				events.add("end");
+			}
+		};
+		for (boolean ordered : new boolean[] { true, false }) {
+			events.clear();
+			Query<Integer,Integer> q = Q.partition(x -> x % 2, 2, Q::id, Q.id(), ordered,
+				new AsyncConfig(16, 2));
+			q.start(sink);
+			q.next(1, sink);
+			q.next(2, sink);
+			q.watermark(10, sink);
+			q.next(3, sink);
+			q.watermark(20, sink);
+			q.end(sink);
+			if (ordered) {
+				assertEquals(List.of("1", "2", "w10", "3", "w20", "end"), events);
+			} else {
+				assertEquals(6, events.size());
+				assertTrue(events.indexOf("1") < events.indexOf("w10"));
+				assertTrue(events.indexOf("2") < events.indexOf("w10"));
+				assertTrue(events.indexOf("w10") < events.indexOf("w20"));
+				assertEquals("end", events.get(5));
+			}
+		}
+	}
+
+
+	@Test
+	public void testFlowInvalidRequest() {
+		System.out.println("***** Test Flow (Invalid request) *****");
+
+		// A non-positive request fails the subscriber even when outputs are
+		// waiting for demand, and cancels the publisher.
+		QueryProcessor<Integer,Integer> processor = Q.processor(Q.id(), 16);
+		List<Object> signals = new ArrayList<>();
+		Flow.Subscription[] down = new Flow.Subscription[1];
+		processor.subscribe(new Flow.Subscriber<Integer>() {
+			public void onSubscribe(Flow.Subscription s) { down[0] = s; }
+			public void onNext(Integer item) { signals.add(item); }
+			public void onError(Throwable e) { signals.add(e.getClass()); }
+			public void onComplete() { signals.add("complete"); }
+		});
+		boolean[] cancelled = { false };
+		processor.onSubscribe(new Flow.Subscription() {
+			int next = 0;
+			public void request(long k) {
+				for (long i=0; i<k; i++) {
+					processor.onNext(next++);
+				}
+			}
+			public void cancel() { cancelled[0] = true; }
+		});
+		down[0].request(0);
+		down[0].request(5);
+		assertEquals(List.of(IllegalArgumentException.class), signals);
+		assertTrue(cancelled[0]);
+	}
+
+
+	@Test
+	public void testCheckpointUnsupported() throws Exception {
+		System.out.println("***** Test Checkpoint (Unsupported operators) *****");
+
+		Path file = Files.createTempFile("dsl", ".ckpt");
+		Files.delete(file);
+		Checkpoint checkpoint = new Checkpoint(file, 100);
+
+		// An operator with state that it does not declare, and the
+		// asynchronous operators, are rejected before any item is read.
+		Query<Integer,Integer> undeclared = new Query<Integer,Integer>() {
+			int count = 0;
+			@Override
+			public void start(Sink<Integer> sink) { count = 0; }
+			@Override
+			public void next(Integer item, Sink<Integer> sink) { sink.next(++count); }
+			@Override
+			public void end(Sink<Integer> sink) { sink.end(); }
+		};
+		List<Query<Integer,Integer>> rejected = List.of(
+			Q.pipeline(Q.map(x -> x + 1), undeclared),
+			Q.parallelAsync(Q.id(), Q.id(), Integer::sum, new AsyncConfig(16, 2)),
+			Q.partition(x -> x, 2, Q::id));
+		for (Query<Integer,Integer> q : rejected) {
+			int[] read = { 0 };
+			Iterator<Integer> it = Q.intStream(1000);
+			Iterator<Integer> counted = new Iterator<Integer>() {
+				public boolean hasNext() { return it.hasNext(); }
+				public Integer next() { read[0] += 1; return it.next(); }
+			};
+			try {
+				Q.run(counted, q, S.lastCount(), checkpoint);
+				fail();
+			} catch (UnsupportedOperationException e) {
+				assertEquals(0, read[0]);
+			}
+		}
+		assertFalse(checkpoint.exists());
+
+		// The primitive operators checkpoint their state.
+		Supplier<Query<Integer,Integer>> ints = () -> Q.boxInt(Q.pipeline(
+			Q.intMap(x -> x % 100), Q.intSWindowInv(7, 0, Integer::sum, (x, y) -> x - y)));
+		Supplier<Query<Integer,Long>> longs = () -> Q.pipeline(ints.get(),
+			Q.boxIntToLong(Q.intScan(0L, Long::sum)));
+		int n = 1000;
+		SCollector<Long> expected = S.collector();
+		Q.run(Q.intStream(n), longs.get(), expected);
+		SCollector<Long> sink = S.collector();
+		try {
+			Q.run(crashAfter(Q.intStream(n), 450), longs.get(), sink, checkpoint);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("crash", e.getMessage());
+		}
+		Q.run(Q.intStream(n), longs.get(), sink, checkpoint);
+		assertEquals(expected.list, sink.list);
+	}
+
+
+	@Test
+	public void testCheckpointDouble() throws Exception {
+		System.out.println("***** Test Checkpoint (Double queries) *****");
+
+		// The state of a generic query inside a double pipeline is saved too.
+		Supplier<Query<Integer,Double>> query = () -> Q.pipeline(
+			Q.map(x -> (double) (x % 50)),
+			Q.boxDouble(Q.pipeline(
+				Q.doubleSWindowInv(4, 0.0, Double::sum, (x, y) -> x - y),
+				Q.unboxDouble(Q.scan(0.0, Double::sum)))));
+		int n = 1000;
+		SCollector<Double> expected = S.collector();
+		Q.run(Q.intStream(n), query.get(), expected);
+
+		Path file = Files.createTempFile("dsl", ".ckpt");
+		Files.delete(file);
+		Checkpoint checkpoint = new Checkpoint(file, 100);
+		SCollector<Double> sink = S.collector();
+		try {
+			Q.run(crashAfter(Q.intStream(n), 450), query.get(), sink, checkpoint);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("crash", e.getMessage());
+		}
+		Q.run(Q.intStream(n), query.get(), sink, checkpoint);
+		assertEquals(expected.list, sink.list);
+	}
+
+}
@@ -2,6 +2,9 @@ package test;
 
 import static org.junit.Assert.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -169,4 +172,78 @@ public class UTestECG {
 		assertEquals(4765, tsPeak3);
 	}
 
+
+	@Test
+	public void testInstrumentedRMSSD() {
+		System.out.println("***** Test Instrumented RMSSD *****");
+
+		OperatorRegistry registry = new OperatorRegistry();
+		Query<Integer,Double> q = Q.instrumentAll(HeartRate.qRMSSD(), registry);
+		SLastCount<Double> sink = S.lastCount();
+
+		Q.execute(Data.ecgStream("100.csv"), q, sink);
+		registry.print();
+
+		assertEquals(1, sink.count);
+		OperatorStats detect = null;
+		for (OperatorStats stats : registry.all()) {
+			if (stats.name.endsWith(":Detect")) {
+				detect = stats;
+			}
+		}
+		assertNotNull(detect);
+		assertTrue(detect.itemsIn() > 0);
+		assertTrue(detect.maxBuffered() > 0);
+	}
+
+
+	@Test
+	public void testOptimizedRMSSD() {
+		System.out.println("***** Test Optimized RMSSD *****");
+
+		SLastCount<Double> sink1 = S.lastCount();
+		Q.execute(Data.ecgStream("100.csv"), HeartRate.qRMSSD(), sink1);
+
+		Query<Integer,Double> q = Q.optimize(HeartRate.qRMSSD());
+		System.out.print(Q.plan(q));
+		SLastCount<Double> sink2 = S.lastCount();
+		Q.execute(Data.ecgStream("100.csv"), q, sink2);
+
+		assertEquals(sink1.count, sink2.count);
+		assertEquals(sink1.last, sink2.last);
+	}
+
+	@Test
+	public void testCheckpointPeaks() throws Exception {
+		System.out.println("***** Test Checkpoint (Peaks, RMSSD) *****");
+
+		SCollector<Long> expected = S.collector();
+		Q.run(Data.ecgStream("100.csv"), PeakDetection.qPeaks(), expected);
+		SLastCount<Double> expectedRMSSD = S.lastCount();
+		Q.run(Data.ecgStream("100.csv"), HeartRate.qRMSSD(), expectedRMSSD);
+
+		Path file = Files.createTempFile("ecg", ".ckpt");
+		Files.delete(file);
+		Checkpoint checkpoint = new Checkpoint(file, 500);
+		SCollector<Long> sink = S.collector();
+		SLastCount<Double> sinkRMSSD = S.lastCount();
+		try {
+			Q.run(UTestDSL.crashAfter(Data.ecgStream("100.csv"), 4000), PeakDetection.qPeaks(), sink, checkpoint);
+			fail();
+		} catch (IllegalStateException e) {
+			// crashed
+		}
+		Q.run(Data.ecgStream("100.csv"), PeakDetection.qPeaks(), sink, checkpoint);
+		assertEquals(expected.list, sink.list);
+
+		try {
+			Q.run(UTestDSL.crashAfter(Data.ecgStream("100.csv"), 3000), HeartRate.qRMSSD(), sinkRMSSD, checkpoint);
+			fail();
+		} catch (IllegalStateException e) {
+			// crashed
+		}
+		Q.run(Data.ecgStream("100.csv"), HeartRate.qRMSSD(), sinkRMSSD, checkpoint);
+		assertEquals(expectedRMSSD.last, sinkRMSSD.last);
+	}
+
 }
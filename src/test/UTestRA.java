@@ -4,7 +4,9 @@ import static org.junit.Assert.*;
 
 import java.util.function.BiPredicate;
 import java.util.function.Function;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -103,4 +105,157 @@ public class UTestRA {
 		assertEquals(Double.valueOf(3232.0), sink.last.getRight());
 	}	
 
+
+	@Test
+	public void testPartitionGroupBy() {
+		System.out.println("***** Test GroupBy (Partitioned) *****");
+
+		Func2<Long,Integer,Long> op = (x, i) -> x + i;
+		int n = 100_000;
+		int keys = 37;
+
+		java.util.Map<Integer,Long> expected = new java.util.HashMap<>();
+		for (int i=0; i<n; i++) {
+			expected.merge(i % keys, (long) i, Long::sum);
+		}
+
+		for (boolean ordered : new boolean[] {false, true}) {
+			Query<Pair<Integer,Integer>,Pair<Integer,Long>> q = Q.partition(
+				Pair::getLeft, 4, () -> GroupBy.from(0L, op),
+				Q.id(), ordered, new AsyncConfig(64, 5));
+			SCollector<Pair<Integer,Long>> sink = S.collector();
+			q.start(sink);
+			for (int i=0; i<n; i++) {
+				q.next(Pair.from(i % keys, i), sink);
+			}
+			q.end(sink);
+
+			java.util.Map<Integer,Long> actual = new java.util.HashMap<>();
+			for (Pair<Integer,Long> p : sink.list) {
+				assertNull(actual.put(p.getLeft(), p.getRight()));
+			}
+			assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void testPartitionEquiJoin() {
+		System.out.println("***** Test EquiJoin (Partitioned) *****");
+
+		Function<Or<Integer,Double>,Integer> key =
+			item -> item.isLeft() ? item.getLeft() : (int) Math.floor(item.getRight());
+		Function<Integer,Integer> f = x -> x;
+		Function<Double,Integer> g = x -> (int) Math.floor(x);
+
+		int n = 1000;
+		int m = 10;
+		Query<Or<Integer,Double>,Pair<Integer,Double>> q = Q.partition(
+			key, 3, () -> EquiJoin.from(f, g), Q.id(), true, new AsyncConfig(16, 4));
+		SCollector<Pair<Integer,Double>> sink = S.collector();
+		q.start(sink);
+		for (int i=0; i<n; i++) {
+			for (int j=0; j<m; j++) {
+				q.next(Or.inr(i + (j / (double) m)), sink);
+			}
+			q.next(Or.inl(i), sink);
+		}
+		q.end(sink);
+
+		// Ordered output matches a single sequential join.
+		assertEquals(n * m, sink.list.size());
+		for (int k=0; k<n*m; k++) {
+			assertEquals(Integer.valueOf(k / m), sink.list.get(k).getLeft());
+			assertEquals(k / m + (k % m) / (double) m, sink.list.get(k).getRight(), 0.0);
+		}
+	}
+
+	@Test
+	public void testSnapshotJoin() {
+		System.out.println("***** Test Snapshot (EquiJoin, GroupBy) *****");
+
+		Function<Integer,Integer> f = x -> x % 10;
+		Function<Double,Integer> g = x -> (int) Math.floor(x) % 10;
+		Supplier<Query<Or<Integer,Double>,Pair<Integer,Double>>> join =
+			() -> Q.pipeline(EquiJoin.from(f, g),
+				Q.map(p -> Pair.from(p.getLeft() % 10, p.getRight())),
+				GroupBy.from(0.0, (Double s, Double x) -> s + x),
+				Q.map(p -> Pair.from(p.getLeft(), p.getRight())));
+		int n = 200;
+		List<Or<Integer,Double>> input = new ArrayList<>();
+		for (int i=0; i<n; i++) {
+			input.add(i % 3 == 0 ? Or.inl(i) : Or.inr(i + 0.5));
+		}
+
+		SCollector<Pair<Integer,Double>> expected = S.collector();
+		Query<Or<Integer,Double>,Pair<Integer,Double>> q1 = join.get();
+		q1.start(expected);
+		for (Or<Integer,Double> x : input) {
+			q1.next(x, expected);
+		}
+		q1.end(expected);
+
+		// Run half of the input, move the state to a fresh query, finish.
+		SCollector<Pair<Integer,Double>> sink = S.collector();
+		Query<Or<Integer,Double>,Pair<Integer,Double>> q2 = join.get();
+		q2.start(sink);
+		for (int i=0; i<n/2; i++) {
+			q2.next(input.get(i), sink);
+		}
+		StateWriter out = new StateWriter();
+		q2.snapshot(out);
+		Query<Or<Integer,Double>,Pair<Integer,Double>> q3 = join.get();
+		q3.start(sink);
+		q3.restore(new StateReader(out.buffer()));
+		for (int i=n/2; i<n; i++) {
+			q3.next(input.get(i), sink);
+		}
+		q3.end(sink);
+
+		assertEquals(expected.list.toString(), sink.list.toString());
+	}
+
+	@Test
+	public void testGroupByAggregator() {
+		System.out.println("***** Test GroupBy (Aggregator) *****");
+
+		// distinct values per key, in fixed memory per key
+		Supplier<Query<Pair<Integer,Integer>,Pair<Integer,Long>>> distinct =
+			() -> GroupBy.from(Aggregators.<Integer>distinctCount(10));
+		List<Pair<Integer,Integer>> input = new ArrayList<>();
+		for (int i=0; i<30_000; i++) {
+			input.add(Pair.from(i % 3, (i % 3 + 1) * (i % 1000))); // 1000 values per key
+		}
+
+		SCollector<Pair<Integer,Long>> expected = S.collector();
+		Q.run(input.iterator(), distinct.get(), expected);
+		assertEquals(3, expected.list.size());
+		for (Pair<Integer,Long> p : expected.list) {
+			assertEquals(1000.0, p.getRight(), 1000.0 * 0.1);
+		}
+
+		// the sketches are part of the snapshot
+		SCollector<Pair<Integer,Long>> sink = S.collector();
+		Query<Pair<Integer,Integer>,Pair<Integer,Long>> q1 = distinct.get();
+		q1.start(sink);
+		for (int i=0; i<input.size()/2; i++) {
+			q1.next(input.get(i), sink);
+		}
+		StateWriter out = new StateWriter();
+		q1.snapshot(out);
+		Query<Pair<Integer,Integer>,Pair<Integer,Long>> q2 = distinct.get();
+		q2.start(sink);
+		q2.restore(new StateReader(out.buffer()));
+		for (int i=input.size()/2; i<input.size(); i++) {
+			q2.next(input.get(i), sink);
+		}
+		q2.end(sink);
+		assertEquals(expected.list.toString(), sink.list.toString());
+
+		// exact aggregators work as well
+		Query<Pair<String,Double>,Pair<String,Double>> avg = GroupBy.from(Aggregators.avg());
+		SCollector<Pair<String,Double>> avgs = S.collector();
+		Q.run(List.of(Pair.from("B", 1.0), Pair.from("A", 2.0), Pair.from("B", 3.0)).iterator(), avg, avgs);
+		assertEquals("[(B, 2.0), (A, 2.0)]", avgs.list.toString());
+	}
+
 }